@@ -0,0 +1,44 @@
+package opr.example.connection.benchmark;
+
+import java.io.File;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+
+/**
+ * Runs the selected benchmarks once for every thread count and stores the results as JSON,
+ * one file per thread count, so that they can be compared between releases.
+ *
+ * Arguments: output directory (target/jmh by default) and a regexp selecting the benchmarks
+ * (all by default). Thread counts may be overridden by a comma separated system property
+ * "threads", e.g. -Dthreads=1,8.
+ */
+public class BenchmarkRunner {
+
+	private static final String DEFAULT_THREAD_COUNTS = "1,4,16,64,256";
+
+
+	public static void main(String[] args) throws RunnerException {
+		File outputDir = new File(args.length > 0 ? args[0] : "target/jmh");
+		String include = args.length > 1 ? args[1] : ".*Benchmark.*";
+		if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+			throw new IllegalArgumentException("Cannot create output directory " + outputDir);
+		}
+
+		for (String threads : System.getProperty("threads", DEFAULT_THREAD_COUNTS).split(",")) {
+			int threadCount = Integer.parseInt(threads.trim());
+			Options options = new OptionsBuilder()
+					.include(include)
+					.threads(threadCount)
+					.resultFormat(ResultFormatType.JSON)
+					.result(new File(outputDir, "jmh-" + threadCount + "-threads.json").getPath())
+					.build();
+			new Runner(options).run();
+		}
+	}
+
+}
@@ -0,0 +1,95 @@
+package opr.example.connection.benchmark;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import opr.example.connection.pool.ConnectionPool;
+import opr.example.connection.pool.ConnectionPoolConfig;
+
+
+/**
+ * Memory allocated by borrowing a connection from {@link ConnectionPool} and returning it.
+ *
+ * Meant to be run with the GC profiler, e.g. {@code java -jar target/benchmarks.jar BorrowAllocation -prof gc},
+ * whose gc.alloc.rate.norm tells the bytes allocated per borrow. The connections are trusted to be alive
+ * for the whole run, so that the returns do not validate them with round-trips to the stub database.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BorrowAllocationBenchmark {
+
+	private static final int POOL_SIZE = 4;
+
+
+	@State(Scope.Benchmark)
+	public static class BagPool {
+
+		private ConnectionPool pool;
+
+		@Setup(Level.Trial)
+		public void createPool() throws InterruptedException {
+			ConnectionPoolConfig config = new ConnectionPoolConfig(POOL_SIZE);
+			config.setMinIdle(POOL_SIZE);
+			config.setValidationIntervalMillis(TimeUnit.HOURS.toMillis(1));
+			pool = new ConnectionPool(config, new StubConnectionFactory(0));
+			pool.warmUp();
+		}
+
+		@TearDown(Level.Trial)
+		public void shutDownPool() {
+			pool.shutDown();
+		}
+	}
+
+
+	@State(Scope.Benchmark)
+	public static class QueuePool {
+
+		private QueueConnectionPool pool;
+
+		@Setup(Level.Trial)
+		public void createPool() throws SQLException {
+			pool = new QueueConnectionPool(POOL_SIZE, new StubConnectionFactory(0));
+			pool.warmUp();
+		}
+
+		@TearDown(Level.Trial)
+		public void shutDownPool() {
+			pool.shutDown();
+		}
+	}
+
+
+	@Benchmark
+	public void borrowAndReturn(BagPool bagPool) throws InterruptedException, SQLException {
+		Connection conn = bagPool.pool.getConnection();
+		conn.close();
+	}
+
+	/**
+	 * The same with the baseline {@link QueueConnectionPool}, which validates every returned connection.
+	 */
+	@Benchmark
+	public void borrowAndReturnFromQueuePool(QueuePool queuePool) throws InterruptedException, SQLException {
+		Connection conn = queuePool.pool.getConnection();
+		conn.close();
+	}
+
+}
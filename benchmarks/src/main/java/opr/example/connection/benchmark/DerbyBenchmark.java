@@ -0,0 +1,106 @@
+package opr.example.connection.benchmark;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import opr.example.connection.ConnectionManager;
+import opr.example.connection.ConnectionManagerFactory;
+import opr.example.connection.factory.ConnectionFactory;
+import opr.example.connection.factory.SimpleConnectionFactory;
+import opr.example.connection.pool.ConnectionPoolConfig;
+
+
+/**
+ * End-to-end run against in-memory Derby databases: borrow a connection from the manager,
+ * run a primary key lookup and return the connection.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DerbyBenchmark {
+
+	private static final String MASTER_URL = "jdbc:derby:memory:benchmaster;create=true";
+	private static final String SLAVE_URL = "jdbc:derby:memory:benchslave;create=true";
+	private static final int ROWS = 1000;
+
+	@Param({ "8", "32" })
+	public int poolSize;
+
+	@Param({ "0", "16" })
+	public int statementCacheSize;
+
+	private ConnectionManager connectionManager;
+
+
+	@Setup(Level.Trial)
+	public void createManager() throws SQLException, InterruptedException {
+		ConnectionFactory master = new SimpleConnectionFactory(MASTER_URL, new Properties());
+		ConnectionFactory slave = new SimpleConnectionFactory(SLAVE_URL, new Properties());
+		createTable(master);
+		createTable(slave);
+
+		ConnectionPoolConfig config = new ConnectionPoolConfig(poolSize);
+		config.setMinIdle(poolSize);
+		config.setStatementCacheSize(statementCacheSize);
+		connectionManager = new ConnectionManagerFactory().createWithPoolingAndFailover(config, master, slave);
+		connectionManager.warmUp();
+	}
+
+	private static void createTable(ConnectionFactory factory) throws SQLException {
+		try (Connection conn = factory.createConnection(); Statement statement = conn.createStatement()) {
+			if (conn.getMetaData().getTables(null, null, "ITEMS", null).next()) {
+				return;
+			}
+			statement.executeUpdate("create table items (id int primary key, name varchar(40))");
+			try (PreparedStatement insert = conn.prepareStatement("insert into items values (?, ?)")) {
+				for (int i = 0; i < ROWS; i++) {
+					insert.setInt(1, i);
+					insert.setString(2, "item " + i);
+					insert.addBatch();
+				}
+				insert.executeBatch();
+			}
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void shutDownManager() {
+		connectionManager.shutDown();
+	}
+
+
+	@Benchmark
+	public String lookUpById() throws InterruptedException, SQLException {
+		try (Connection conn = connectionManager.getConnection();
+				PreparedStatement statement = conn.prepareStatement("select name from items where id = ?")) {
+			statement.setInt(1, ThreadLocalRandom.current().nextInt(ROWS));
+			try (ResultSet rs = statement.executeQuery()) {
+				return rs.next() ? rs.getString(1) : null;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,57 @@
+package opr.example.connection.benchmark;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import opr.example.connection.failover.FailoverConnectionFactory;
+
+
+/**
+ * Cost of creating a connection through {@link FailoverConnectionFactory}, both while the master
+ * is healthy and while it is down and the connections come from the slave.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FailoverBenchmark {
+
+	@Param({ "true", "false" })
+	public boolean isMasterUp;
+
+	private FailoverConnectionFactory factory;
+
+
+	@Setup(Level.Trial)
+	public void createFactory() throws SQLException {
+		StubConnectionFactory master = new StubConnectionFactory(0);
+		factory = new FailoverConnectionFactory(master, new StubConnectionFactory(0));
+		if (!isMasterUp) {
+			master.setFailing(true);
+			factory.createConnection().close();
+		}
+	}
+
+
+	@Benchmark
+	public Connection createConnection() throws SQLException {
+		return factory.createConnection();
+	}
+
+}
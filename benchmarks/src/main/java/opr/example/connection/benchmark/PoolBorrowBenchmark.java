@@ -0,0 +1,100 @@
+package opr.example.connection.benchmark;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import opr.example.connection.pool.ConnectionPool;
+import opr.example.connection.pool.ConnectionPoolConfig;
+
+
+/**
+ * Throughput and latency of borrowing a connection from {@link ConnectionPool} and returning it.
+ *
+ * The contention is given by the ratio of benchmark threads (-t) to the pool size; the work
+ * done while the connection is borrowed decides how long the other threads have to wait.
+ *
+ * Comparing the shard counts shows how the pool scales with the number of cores, e.g. when run by
+ * {@link BenchmarkRunner} with -Dthreads=8,16,32,64,128 on a machine with that many cores.
+ * {@link QueuePoolBorrowBenchmark} measures the same with the baseline queue-based pool.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PoolBorrowBenchmark {
+
+	@Param({ "4", "16", "64" })
+	public int poolSize;
+
+	/** Latency of creating a new physical connection. */
+	@Param({ "0", "1000" })
+	public long createLatencyMicros;
+
+	/** CPU work done while the connection is borrowed, in JMH tokens. */
+	@Param({ "0", "500" })
+	public long workTokens;
+
+	/** Number of shards the free connections are split into, one being the plain pool. */
+	@Param({ "1", "16" })
+	public int shardCount;
+
+	private ConnectionPool pool;
+
+
+	@Setup(Level.Trial)
+	public void createPool() throws InterruptedException {
+		ConnectionPoolConfig config = new ConnectionPoolConfig(poolSize);
+		config.setMinIdle(poolSize);
+		config.setShardCount(shardCount);
+		pool = new ConnectionPool(config, new StubConnectionFactory(createLatencyMicros));
+		pool.warmUp();
+	}
+
+	@TearDown(Level.Trial)
+	public void shutDownPool() {
+		pool.shutDown();
+	}
+
+
+	@Benchmark
+	public void borrowAndReturn() throws InterruptedException, SQLException {
+		Connection conn = pool.getConnection();
+		try {
+			Blackhole.consumeCPU(workTokens);
+		} finally {
+			conn.close();
+		}
+	}
+
+	@Benchmark
+	public void tryBorrowAndReturn() throws SQLException {
+		Connection conn = pool.tryGetConnection();
+		if (conn == null) {
+			return;
+		}
+		try {
+			Blackhole.consumeCPU(workTokens);
+		} finally {
+			conn.close();
+		}
+	}
+
+}
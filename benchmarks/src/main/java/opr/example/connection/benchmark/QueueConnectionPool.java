@@ -0,0 +1,117 @@
+package opr.example.connection.benchmark;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import opr.example.connection.factory.ConnectionFactory;
+import opr.example.connection.pool.ConnectionPool;
+import opr.example.connection.util.DelegateConnection;
+
+
+/**
+ * The pool as it was before {@link ConnectionPool} got its lock-free bag, kept as the baseline
+ * the benchmarks compare against.
+ *
+ * Free connections wait in a fair {@link ArrayBlockingQueue}. A borrower finding the queue empty
+ * creates a new connection itself, as far as the max pool size allows, and every returned
+ * connection is validated by a round-trip before it gets back to the queue.
+ */
+public class QueueConnectionPool {
+
+	private static final int VALIDATION_TIMEOUT_SECONDS = 30;
+
+	private final int maxPoolSize;
+	private final ConnectionFactory connectionFactory;
+
+	private final AtomicInteger poolSize = new AtomicInteger(0);
+	private final BlockingQueue<Connection> freeConnections;
+
+
+	public QueueConnectionPool(int maxPoolSize, ConnectionFactory connectionFactory) {
+		this.maxPoolSize = maxPoolSize;
+		this.connectionFactory = connectionFactory;
+		this.freeConnections = new ArrayBlockingQueue<>(maxPoolSize, true);
+	}
+
+
+	/**
+	 * Opens all the connections upfront, so that the measurement does not include their creation.
+	 */
+	public void warmUp() throws SQLException {
+		while (createConnectionIfLimitAllows()) {
+			//keep creating
+		}
+	}
+
+	public Connection getConnection() throws InterruptedException, SQLException {
+		if (freeConnections.isEmpty()) {
+			createConnectionIfLimitAllows();
+		}
+		return wrapConnection(freeConnections.take());
+	}
+
+	/**
+	 * @return a free connection, or null if there is none right now
+	 */
+	public Connection tryGetConnection() {
+		Connection conn = freeConnections.poll();
+		return (conn != null) ? wrapConnection(conn) : null;
+	}
+
+	public void shutDown() {
+		Connection conn;
+		while ((conn = freeConnections.poll()) != null) {
+			closeQuietly(conn);
+		}
+	}
+
+
+	private Connection wrapConnection(Connection conn) {
+		return new DelegateConnection(conn, true) {
+			@Override
+			public void close() throws SQLException {
+				super.close();
+				onPooledConnectionClose(conn);
+			}
+		};
+	}
+
+	private boolean createConnectionIfLimitAllows() throws SQLException {
+		while (true) {
+			int currentSize = poolSize.get();
+			if (currentSize >= maxPoolSize) {
+				return false;
+			} else if (poolSize.compareAndSet(currentSize, currentSize+1)) {
+				freeConnections.offer(connectionFactory.createConnection());
+				return true;
+			}
+		}
+	}
+
+	private void onPooledConnectionClose(Connection delegate) {
+		if (isConnectionOperational(delegate)) {
+			freeConnections.offer(delegate);
+		} else {
+			closeQuietly(delegate);
+			poolSize.decrementAndGet();
+		}
+	}
+
+	private static boolean isConnectionOperational(Connection delegate) {
+		try {
+			return !delegate.isClosed() && delegate.isValid(VALIDATION_TIMEOUT_SECONDS);
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	private static void closeQuietly(Connection conn) {
+		try {
+			conn.close();
+		} catch (SQLException ignore) {}
+	}
+
+}
@@ -0,0 +1,84 @@
+package opr.example.connection.benchmark;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * Same as {@link PoolBorrowBenchmark}, but borrowing from the baseline {@link QueueConnectionPool},
+ * so that the results of both can be compared side by side.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueuePoolBorrowBenchmark {
+
+	@Param({ "4", "16", "64" })
+	public int poolSize;
+
+	/** Latency of creating a new physical connection. */
+	@Param({ "0", "1000" })
+	public long createLatencyMicros;
+
+	/** CPU work done while the connection is borrowed, in JMH tokens. */
+	@Param({ "0", "500" })
+	public long workTokens;
+
+	private QueueConnectionPool pool;
+
+
+	@Setup(Level.Trial)
+	public void createPool() throws SQLException {
+		pool = new QueueConnectionPool(poolSize, new StubConnectionFactory(createLatencyMicros));
+		pool.warmUp();
+	}
+
+	@TearDown(Level.Trial)
+	public void shutDownPool() {
+		pool.shutDown();
+	}
+
+
+	@Benchmark
+	public void borrowAndReturn() throws InterruptedException, SQLException {
+		Connection conn = pool.getConnection();
+		try {
+			Blackhole.consumeCPU(workTokens);
+		} finally {
+			conn.close();
+		}
+	}
+
+	@Benchmark
+	public void tryBorrowAndReturn() throws SQLException {
+		Connection conn = pool.tryGetConnection();
+		if (conn == null) {
+			return;
+		}
+		try {
+			Blackhole.consumeCPU(workTokens);
+		} finally {
+			conn.close();
+		}
+	}
+
+}
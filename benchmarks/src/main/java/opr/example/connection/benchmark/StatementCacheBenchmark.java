@@ -0,0 +1,65 @@
+package opr.example.connection.benchmark;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import opr.example.connection.pool.ConnectionPool;
+import opr.example.connection.pool.ConnectionPoolConfig;
+
+
+/**
+ * Overhead of the pooled connection wrapper when preparing statements, with and without the statement cache.
+ * The stub statements are free to prepare, so this shows the price of the cache bookkeeping alone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StatementCacheBenchmark {
+
+	@Param({ "0", "16" })
+	public int statementCacheSize;
+
+	private ConnectionPool pool;
+
+
+	@Setup(Level.Trial)
+	public void createPool() throws InterruptedException {
+		ConnectionPoolConfig config = new ConnectionPoolConfig(256);
+		config.setStatementCacheSize(statementCacheSize);
+		pool = new ConnectionPool(config, new StubConnectionFactory(0));
+	}
+
+	@TearDown(Level.Trial)
+	public void shutDownPool() {
+		pool.shutDown();
+	}
+
+
+	@Benchmark
+	public void borrowPrepareAndReturn() throws InterruptedException, SQLException {
+		try (Connection conn = pool.getConnection();
+				PreparedStatement statement = conn.prepareStatement("select * from orders where id = ?")) {
+			statement.setLong(1, 42L);
+		}
+	}
+
+}
@@ -0,0 +1,126 @@
+package opr.example.connection.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import opr.example.connection.factory.ConnectionFactory;
+
+
+/**
+ * In-memory connection factory, so that the benchmarks measure the pool rather than a database.
+ *
+ * Creating a connection takes the configured time, to imitate the network round trips of a real driver.
+ * The connections do nothing; apart from the methods that report their state, they return
+ * default values, and their prepared statements do the same.
+ */
+public class StubConnectionFactory implements ConnectionFactory {
+
+	private final long createLatencyNanos;
+	private final AtomicInteger createdConnections = new AtomicInteger();
+	private volatile boolean isFailing;
+
+
+	public StubConnectionFactory(long createLatencyMicros) {
+		this.createLatencyNanos = TimeUnit.MICROSECONDS.toNanos(createLatencyMicros);
+	}
+
+
+	/**
+	 * Makes all the following attempts to create a connection fail, as if the database went down.
+	 */
+	public void setFailing(boolean isFailing) {
+		this.isFailing = isFailing;
+	}
+
+	public int getCreatedConnections() {
+		return createdConnections.get();
+	}
+
+
+	@Override
+	public Connection createConnection() throws SQLException {
+		if (createLatencyNanos > 0) {
+			LockSupport.parkNanos(createLatencyNanos);
+		}
+		if (isFailing) {
+			throw new SQLException("Stub database is down");
+		}
+		createdConnections.incrementAndGet();
+		return newStub(Connection.class);
+	}
+
+
+	private static <T> T newStub(Class<T> type) {
+		return type.cast(Proxy.newProxyInstance(
+				StubConnectionFactory.class.getClassLoader(),
+				new Class<?>[] { type },
+				new StubHandler()));
+	}
+
+
+	private static class StubHandler implements InvocationHandler {
+
+		private volatile boolean isClosed;
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			switch (method.getName()) {
+				case "close":
+					isClosed = true;
+					return null;
+				case "isClosed":
+					return isClosed;
+				case "isValid":
+					return !isClosed;
+				case "getAutoCommit":
+					return true;
+				case "prepareStatement":
+					return newStub(PreparedStatement.class);
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "equals":
+					return proxy == args[0];
+				case "toString":
+					return "Stub" + method.getDeclaringClass().getSimpleName() + "@" + System.identityHashCode(proxy);
+				default:
+					return defaultValueOf(method.getReturnType());
+			}
+		}
+
+		private static Object defaultValueOf(Class<?> type) {
+			if (!type.isPrimitive() || type == void.class) {
+				return null;
+			}
+			if (type == boolean.class) {
+				return false;
+			}
+			if (type == char.class) {
+				return '\0';
+			}
+			if (type == long.class) {
+				return 0L;
+			}
+			if (type == float.class) {
+				return 0f;
+			}
+			if (type == double.class) {
+				return 0d;
+			}
+			if (type == byte.class) {
+				return (byte) 0;
+			}
+			if (type == short.class) {
+				return (short) 0;
+			}
+			return 0;
+		}
+	}
+
+}
@@ -0,0 +1,102 @@
+package opr.example.connection.benchmark;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import opr.example.connection.pool.ConnectionPool;
+import opr.example.connection.pool.ConnectionPoolConfig;
+
+
+/**
+ * Time for a burst of borrowers to each borrow a connection, hold it for a while and return it,
+ * with the borrowers running either on virtual threads or on a fixed pool of platform threads.
+ *
+ * The connection is held by sleeping, i.e. like waiting for the database. Compiled only with JDK 21 or later.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+public class VirtualThreadBorrowBenchmark {
+
+	@Param({ "10000" })
+	public int borrowers;
+
+	@Param({ "virtual", "platform" })
+	public String threads;
+
+	/** Number of platform threads running the borrowers, unused with virtual threads. */
+	@Param({ "200" })
+	public int platformThreadCount;
+
+	@Param({ "16", "64" })
+	public int poolSize;
+
+	@Param({ "100" })
+	public long holdMicros;
+
+	private ConnectionPool pool;
+	private ExecutorService executor;
+
+
+	@Setup(Level.Trial)
+	public void createPool() throws InterruptedException {
+		ConnectionPoolConfig config = new ConnectionPoolConfig(poolSize);
+		config.setMinIdle(poolSize);
+		pool = new ConnectionPool(config, new StubConnectionFactory(0));
+		pool.warmUp();
+		executor = "virtual".equals(threads)
+				? Executors.newVirtualThreadPerTaskExecutor()
+				: Executors.newFixedThreadPool(platformThreadCount);
+	}
+
+	@TearDown(Level.Trial)
+	public void shutDownPool() {
+		executor.shutdownNow();
+		pool.shutDown();
+	}
+
+
+	@Benchmark
+	public void borrowBurst() throws Exception {
+		List<Future<?>> borrows = new ArrayList<>(borrowers);
+		for (int i = 0; i < borrowers; i++) {
+			borrows.add(executor.submit(() -> {
+				Connection conn = pool.getConnection();
+				try {
+					TimeUnit.MICROSECONDS.sleep(holdMicros);
+				} finally {
+					conn.close();
+				}
+				return null;
+			}));
+		}
+		for (Future<?> borrow : borrows) {
+			borrow.get();
+		}
+	}
+
+}
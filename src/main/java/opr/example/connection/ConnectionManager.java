@@ -2,16 +2,30 @@ package opr.example.connection;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
 
+import opr.example.connection.batch.BatchWriter;
+import opr.example.connection.loadbalancing.ReadConnectionRouter;
 import opr.example.connection.pool.ConnectionPool;
+import opr.example.connection.pool.PoolStats;
+import opr.example.connection.pool.StatementCacheStats;
+import opr.example.connection.pool.WarmUpReport;
+import opr.example.connection.workload.WorkloadStats;
 
 
 public class ConnectionManager {
 
 	private final ConnectionPool connectionPool;
+	private final ReadConnectionRouter readConnectionRouter;
 	
 	ConnectionManager(ConnectionPool connectionPool) {
+		this(connectionPool, null);
+	}
+
+	ConnectionManager(ConnectionPool connectionPool, ReadConnectionRouter readConnectionRouter) {
 		this.connectionPool = connectionPool;
+		this.readConnectionRouter = readConnectionRouter;
 	}
 
 
@@ -19,4 +33,144 @@ public class ConnectionManager {
 		return connectionPool.getConnection();
 	}
 
+	/**
+	 * Waits at most the given time for a connection, so that callers can shed load rather than
+	 * queue up behind a saturated pool.
+	 * @throws java.sql.SQLTransientConnectionException if no connection got available in time
+	 */
+	public Connection getConnection(long timeout, TimeUnit unit) throws InterruptedException, SQLException {
+		return connectionPool.getConnection(timeout, unit);
+	}
+
+	/**
+	 * Returns a connection on behalf of the given workload class, so that noisy workloads cannot starve the others.
+	 * @see ConnectionPool#getConnection(String)
+	 */
+	public Connection getConnection(String workloadName) throws InterruptedException, SQLException {
+		return connectionPool.getConnection(workloadName);
+	}
+
+	/**
+	 * Same as {@link #getConnection(String)}, but waits at most the given time for a connection.
+	 * @throws java.sql.SQLTransientConnectionException if no connection got available in time
+	 */
+	public Connection getConnection(String workloadName, long timeout, TimeUnit unit)
+			throws InterruptedException, SQLException {
+		return connectionPool.getConnection(workloadName, timeout, unit);
+	}
+
+	/**
+	 * Borrows a connection without blocking the calling thread, e.g. for services driven by a small event loop.
+	 * The stage gets completed once a connection is available. Cancelling it stops waiting.
+	 * @see ConnectionPool#getConnectionAsync()
+	 */
+	public CompletionStage<Connection> getConnectionAsync() {
+		return connectionPool.getConnectionAsync();
+	}
+
+	/**
+	 * Same as {@link #getConnectionAsync()}, but the stage fails with
+	 * {@link java.sql.SQLTransientConnectionException} if no connection got available in the given time.
+	 */
+	public CompletionStage<Connection> getConnectionAsync(long timeout, TimeUnit unit) {
+		return connectionPool.getConnectionAsync(timeout, unit);
+	}
+
+	/**
+	 * Returns a connection only if it is available without waiting for other users.
+	 * @return the connection, or null if all connections are in use
+	 */
+	public Connection tryGetConnection() throws SQLException {
+		return connectionPool.tryGetConnection();
+	}
+
+	/**
+	 * Returns a connection meant for read-only work. If the manager has read replicas, the connection
+	 * comes from one of them, otherwise it is the same as {@link #getConnection()}.
+	 */
+	public Connection getReadConnection() throws InterruptedException, SQLException {
+		return (readConnectionRouter != null) ? readConnectionRouter.getConnection() : getConnection();
+	}
+
+	/**
+	 * Same as {@link #getReadConnection()}, but waits at most the given time for a connection.
+	 * @throws java.sql.SQLTransientConnectionException if no connection got available in time
+	 */
+	public Connection getReadConnection(long timeout, TimeUnit unit) throws InterruptedException, SQLException {
+		return (readConnectionRouter != null)
+				? readConnectionRouter.getConnection(timeout, unit)
+				: getConnection(timeout, unit);
+	}
+
+	/**
+	 * Creates a writer coalescing single-row writes of the given statement into batches of up to
+	 * {@value BatchWriter#DEFAULT_MAX_BATCH_SIZE} rows, waiting at most
+	 * {@value BatchWriter#DEFAULT_MAX_DELAY_MILLIS} ms for a batch to get full.
+	 * The writer should be closed once not needed anymore.
+	 * @see BatchWriter
+	 */
+	public BatchWriter batchWriter(String sql) {
+		return batchWriter(sql, BatchWriter.DEFAULT_MAX_BATCH_SIZE, BatchWriter.DEFAULT_MAX_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Same as {@link #batchWriter(String)}, with the given batch size and delay thresholds.
+	 */
+	public BatchWriter batchWriter(String sql, int maxBatchSize, long maxDelay, TimeUnit unit) {
+		return new BatchWriter(connectionPool, sql, maxBatchSize, maxDelay, unit);
+	}
+
+	/**
+	 * Opens the configured minimal number of connections before any traffic arrives.
+	 * @see ConnectionPool#warmUp()
+	 */
+	public WarmUpReport warmUp() throws InterruptedException {
+		if (readConnectionRouter != null) {
+			readConnectionRouter.warmUp();
+		}
+		return connectionPool.warmUp();
+	}
+
+	/**
+	 * Changes the max size of the underlying pool without a restart.
+	 * @see ConnectionPool#setMaxPoolSize(int)
+	 */
+	public void setMaxPoolSize(int maxPoolSize) {
+		connectionPool.setMaxPoolSize(maxPoolSize);
+	}
+
+	/**
+	 * Current state and collected metrics of the underlying pool.
+	 */
+	public PoolStats getStats() {
+		return connectionPool.getStats();
+	}
+
+	/**
+	 * Borrows and wait times of the given workload class.
+	 * @see ConnectionPool#getWorkloadStats(String)
+	 */
+	public WorkloadStats getWorkloadStats(String workloadName) {
+		return connectionPool.getWorkloadStats(workloadName);
+	}
+
+	/**
+	 * Hits, misses and evictions of the prepared statement caches of all pooled connections.
+	 * @see opr.example.connection.pool.ConnectionPoolConfig#setStatementCacheSize(int)
+	 */
+	public StatementCacheStats getStatementCacheStats() {
+		return connectionPool.getStatementCacheStats();
+	}
+
+	/**
+	 * Closes the pooled connections and stops all background activity.
+	 * @see ConnectionPool#shutDown()
+	 */
+	public void shutDown() {
+		connectionPool.shutDown();
+		if (readConnectionRouter != null) {
+			readConnectionRouter.shutDown();
+		}
+	}
+
 }
@@ -1,8 +1,14 @@
 package opr.example.connection;
 
+import java.util.List;
+
 import opr.example.connection.factory.ConnectionFactory;
 import opr.example.connection.failover.FailoverConnectionFactory;
+import opr.example.connection.failover.FailoverListener;
+import opr.example.connection.loadbalancing.LoadBalancingStrategy;
+import opr.example.connection.loadbalancing.ReadConnectionRouter;
 import opr.example.connection.pool.ConnectionPool;
+import opr.example.connection.pool.ConnectionPoolConfig;
 
 
 public class ConnectionManagerFactory {
@@ -17,9 +23,73 @@ public class ConnectionManagerFactory {
 			ConnectionFactory master,
 			ConnectionFactory slave) {
 		
-		ConnectionFactory failoverFactory = new FailoverConnectionFactory(master, slave);
-		ConnectionPool pool = new ConnectionPool(poolSize, failoverFactory);
+		return createWithPoolingAndFailover(new ConnectionPoolConfig(poolSize), master, slave);
+	}
+
+	/**
+	 * Same as {@link #createWithPoolingAndFailover(int, ConnectionFactory, ConnectionFactory)}, but allows
+	 * to tune the pool. If the config asks for a minimal number of idle connections, call
+	 * {@link ConnectionManager#warmUp()} to open them eagerly before the manager gets any traffic.
+	 */
+	public ConnectionManager createWithPoolingAndFailover(
+			ConnectionPoolConfig poolConfig,
+			ConnectionFactory master,
+			ConnectionFactory slave) {
+		
+		ConnectionPool pool = createPoolWithFailover(poolConfig, master, slave);
 		return new ConnectionManager(pool);
 	}
 
+	/**
+	 * Same as {@link #createWithPoolingAndFailover(ConnectionPoolConfig, ConnectionFactory, ConnectionFactory)},
+	 * plus {@link ConnectionManager#getReadConnection() read connections} spread across the given replicas.
+	 * Every replica gets a pool of its own, configured the same way as the master's pool.
+	 */
+	public ConnectionManager createWithPoolingFailoverAndReadReplicas(
+			ConnectionPoolConfig poolConfig,
+			ConnectionFactory master,
+			ConnectionFactory slave,
+			List<? extends ConnectionFactory> replicas,
+			LoadBalancingStrategy strategy) {
+		
+		ConnectionPool pool = createPoolWithFailover(poolConfig, master, slave);
+		ReadConnectionRouter readConnectionRouter = new ReadConnectionRouter(poolConfig, replicas, strategy);
+		return new ConnectionManager(pool, readConnectionRouter);
+	}
+
+	/**
+	 * Once the master fails, all its pooled connections get closed at once. Once it recovers, the slave
+	 * connections opened meanwhile get gradually replaced by master connections.
+	 */
+	private static ConnectionPool createPoolWithFailover(
+			ConnectionPoolConfig poolConfig,
+			ConnectionFactory master,
+			ConnectionFactory slave) {
+		
+		FailoverConnectionFactory failoverFactory = new FailoverConnectionFactory(master, slave);
+		ConnectionPool pool = new ConnectionPool(poolConfig, failoverFactory);
+		failoverFactory.addFailoverListener(new PoolFailoverListener(pool));
+		return pool;
+	}
+
+
+	private static class PoolFailoverListener implements FailoverListener {
+
+		private final ConnectionPool pool;
+
+		PoolFailoverListener(ConnectionPool pool) {
+			this.pool = pool;
+		}
+
+		@Override
+		public void onFailover(ConnectionFactory master, ConnectionFactory slave) {
+			pool.evictConnectionsFrom(master);
+		}
+
+		@Override
+		public void onFailback(ConnectionFactory master, ConnectionFactory slave) {
+			pool.drainConnectionsFrom(slave);
+		}
+	}
+
 }
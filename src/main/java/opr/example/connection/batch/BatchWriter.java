@@ -0,0 +1,213 @@
+package opr.example.connection.batch;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import opr.example.connection.pool.ConnectionPool;
+import opr.example.connection.util.DaemonThreadFactory;
+
+
+/**
+ * Coalesces single-row writes submitted by many threads into JDBC batches, so that many tiny
+ * transactions become a few large ones.
+ *
+ * Submitted rows are queued until the batch gets full or its first row has waited for the max delay.
+ * Then a background thread executes the whole batch with a single statement in a single transaction, on
+ * one connection borrowed from the pool. Each row's future completes with the row's update count once the
+ * transaction commits. If the batch fails, the transaction is rolled back and all its rows' futures fail
+ * with the same exception, i.e. none of the rows has been written.
+ *
+ * Batches are executed one at a time, in the order their rows were submitted.
+ */
+public class BatchWriter implements AutoCloseable {
+
+	public static final int DEFAULT_MAX_BATCH_SIZE = 100;
+	public static final long DEFAULT_MAX_DELAY_MILLIS = 10L;
+
+	private final ConnectionPool connectionPool;
+	private final String sql;
+	private final int maxBatchSize;
+	private final long maxDelayNanos;
+	private final ScheduledExecutorService flusher;
+
+	private final Lock batchLock = new ReentrantLock();
+	//guarded by batchLock
+	private List<Row> batch = new ArrayList<>();
+	private ScheduledFuture<?> delayedFlush;
+	private boolean isClosed = false;
+
+
+	/**
+	 * @param sql the statement executed for every row, with a parameter placeholder for each value of the row
+	 * @param maxBatchSize how many rows are executed at most in one batch
+	 * @param maxDelay how long may a row wait for its batch to get full before the batch is executed anyway
+	 */
+	public BatchWriter(ConnectionPool connectionPool, String sql, int maxBatchSize, long maxDelay, TimeUnit unit) {
+		if (maxBatchSize < 1) {
+			throw new IllegalArgumentException("Max batch size must be positive: " + maxBatchSize);
+		}
+		if (maxDelay <= 0) {
+			throw new IllegalArgumentException("Max delay must be positive: " + maxDelay);
+		}
+		this.connectionPool = connectionPool;
+		this.sql = sql;
+		this.maxBatchSize = maxBatchSize;
+		this.maxDelayNanos = unit.toNanos(maxDelay);
+		ScheduledThreadPoolExecutor executor =
+				new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("BatchWriter flusher"));
+		executor.setRemoveOnCancelPolicy(true);
+		this.flusher = executor;
+	}
+
+
+	/**
+	 * Queues a row to be written with the next batch.
+	 * @param values values of the statement's parameters, in order
+	 * @return the row's update count once its batch got committed
+	 */
+	public CompletableFuture<Integer> submit(Object... values) {
+		Row row = new Row(values);
+		batchLock.lock();
+		try {
+			if (isClosed) {
+				row.result.completeExceptionally(new SQLException("Batch writer has been closed"));
+				return row.result;
+			}
+			batch.add(row);
+			if (batch.size() >= maxBatchSize) {
+				List<Row> fullBatch = takeBatch();
+				flusher.execute(() -> execute(fullBatch));
+			} else if (batch.size() == 1) {
+				delayedFlush = flusher.schedule(this::flushDelayedBatch, maxDelayNanos, TimeUnit.NANOSECONDS);
+			}
+		} finally {
+			batchLock.unlock();
+		}
+		return row.result;
+	}
+
+	private List<Row> takeBatch() {
+		List<Row> takenBatch = batch;
+		batch = new ArrayList<>();
+		if (delayedFlush != null) {
+			delayedFlush.cancel(false);
+			delayedFlush = null;
+		}
+		return takenBatch;
+	}
+
+	private void flushDelayedBatch() {
+		List<Row> delayedBatch;
+		batchLock.lock();
+		try {
+			delayedBatch = takeBatch();
+		} finally {
+			batchLock.unlock();
+		}
+		if (!delayedBatch.isEmpty()) {
+			execute(delayedBatch);
+		}
+	}
+
+	private void execute(List<Row> rows) {
+		int[] updateCounts;
+		try (Connection conn = connectionPool.getConnection()) {
+			updateCounts = executeInTransaction(conn, rows);
+		} catch (SQLException e) {
+			failAll(rows, e);
+			return;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			failAll(rows, new SQLException("Interrupted while waiting for a connection", e));
+			return;
+		} catch (RuntimeException e) {
+			//e.g. a driver failing to bind a value, the rows' futures must not be left pending forever
+			failAll(rows, new SQLException("Failed to write batch", e));
+			return;
+		}
+		for (int i = 0; i < rows.size(); i++) {
+			rows.get(i).result.complete((i < updateCounts.length) ? updateCounts[i] : PreparedStatement.SUCCESS_NO_INFO);
+		}
+	}
+
+	private int[] executeInTransaction(Connection conn, List<Row> rows) throws SQLException {
+		conn.setAutoCommit(false);
+		try (PreparedStatement statement = conn.prepareStatement(sql)) {
+			for (Row row : rows) {
+				row.bindTo(statement);
+				statement.addBatch();
+			}
+			int[] updateCounts = statement.executeBatch();
+			conn.commit();
+			return updateCounts;
+		} catch (SQLException | RuntimeException e) {
+			try {
+				conn.rollback();
+			} catch (SQLException rollbackFailure) {
+				e.addSuppressed(rollbackFailure);
+			}
+			throw e;
+		}
+	}
+
+	private static void failAll(List<Row> rows, SQLException failure) {
+		for (Row row : rows) {
+			row.result.completeExceptionally(failure);
+		}
+	}
+
+
+	/**
+	 * Writes the rows submitted so far and waits until all the batches are done. No rows can be
+	 * submitted afterwards. If interrupted while waiting, returns right away with the interrupt flag set,
+	 * and the remaining batches are still written in background.
+	 */
+	@Override
+	public void close() {
+		List<Row> lastBatch;
+		batchLock.lock();
+		try {
+			isClosed = true;
+			lastBatch = takeBatch();
+		} finally {
+			batchLock.unlock();
+		}
+		if (!lastBatch.isEmpty()) {
+			flusher.execute(() -> execute(lastBatch));
+		}
+		flusher.shutdown();
+		try {
+			flusher.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+
+	private static class Row {
+
+		private final Object[] values;
+		private final CompletableFuture<Integer> result = new CompletableFuture<>();
+
+		Row(Object[] values) {
+			this.values = values;
+		}
+
+		void bindTo(PreparedStatement statement) throws SQLException {
+			for (int i = 0; i < values.length; i++) {
+				statement.setObject(i + 1, values[i]);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,42 @@
+package opr.example.connection.cache;
+
+import java.util.Arrays;
+
+
+/**
+ * Identifies a cached result by the query's SQL and the values of its parameters.
+ */
+final class QueryKey {
+
+	private final String sql;
+	private final Object[] parameters;
+	private final int hashCode;
+
+
+	QueryKey(String sql, Object[] parameters) {
+		this.sql = sql;
+		this.parameters = parameters.clone();
+		this.hashCode = 31 * sql.hashCode() + Arrays.deepHashCode(this.parameters);
+	}
+
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof QueryKey)) {
+			return false;
+		}
+		QueryKey other = (QueryKey) obj;
+		return hashCode == other.hashCode
+				&& sql.equals(other.sql)
+				&& Arrays.deepEquals(parameters, other.parameters);
+	}
+
+	@Override
+	public int hashCode() {
+		return hashCode;
+	}
+
+}
@@ -0,0 +1,303 @@
+package opr.example.connection.cache;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import opr.example.connection.ConnectionManager;
+
+
+/**
+ * Bounded LRU cache of query results, e.g. of repeated lookups in reference tables, in front of a
+ * {@link ConnectionManager}.
+ *
+ * Results are identified by the query's SQL and parameter values. A hit neither borrows a connection
+ * nor goes to the database. A miss runs the query on a {@link ConnectionManager#getReadConnection() read
+ * connection} and caches the rows, unless there are more than {@link #MAX_CACHED_ROWS} of them. Cached
+ * results expire after the given time to live.
+ *
+ * Each statement is tagged by the tables it touches, see {@link TaggedStatement}. Writes done by
+ * {@link #update(TaggedStatement, Object...)} drop the cached results of the tables they write to. Writes
+ * done any other way have to be announced by {@link #invalidate(String)}, or their readers get stale results
+ * until those expire. A query running while its tables are being written to does not cache its result.
+ *
+ * The replicas may lag behind the primary, so that a query reloading an invalidated result from a replica
+ * could read and cache the rows as they were before the write. That is why for the replication lag after
+ * a table gets invalidated, the queries of that table run on the primary instead.
+ */
+public class ResultCache {
+
+	static final int MAX_CACHED_ROWS = 1_000;
+	public static final long DEFAULT_REPLICATION_LAG_MILLIS = 1_000L;
+
+	private final ConnectionManager connectionManager;
+	private final int maxEntries;
+	private final long timeToLiveNanos;
+	private final long replicationLagNanos;
+
+	private final Lock lock = new ReentrantLock();
+	//guarded by lock
+	private final Map<QueryKey, CachedResult> results;
+	private final Map<String, Set<QueryKey>> keysByTable = new HashMap<>();
+	private final Map<String, Long> tableVersions = new HashMap<>();
+	private final Map<String, Long> tableInvalidationNanos = new HashMap<>();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+
+	/**
+	 * Same as {@link #ResultCache(ConnectionManager, int, long, long, TimeUnit)}, with the replicas lagging
+	 * at most {@value #DEFAULT_REPLICATION_LAG_MILLIS} ms behind the primary.
+	 */
+	public ResultCache(ConnectionManager connectionManager, int maxEntries, long timeToLive, TimeUnit unit) {
+		this(connectionManager, maxEntries, unit.toNanos(timeToLive),
+				TimeUnit.MILLISECONDS.toNanos(DEFAULT_REPLICATION_LAG_MILLIS), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @param maxEntries how many results to cache at most; the least recently used ones get evicted
+	 * @param timeToLive how long may a result be served from the cache
+	 * @param replicationLag how long may a write take to reach the replicas, zero to always read from them
+	 */
+	public ResultCache(ConnectionManager connectionManager, int maxEntries, long timeToLive, long replicationLag,
+			TimeUnit unit) {
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException("Max entries must be positive: " + maxEntries);
+		}
+		if (replicationLag < 0) {
+			throw new IllegalArgumentException("Replication lag must not be negative: " + replicationLag);
+		}
+		this.connectionManager = connectionManager;
+		this.maxEntries = maxEntries;
+		this.timeToLiveNanos = unit.toNanos(timeToLive);
+		this.replicationLagNanos = unit.toNanos(replicationLag);
+		this.results = new LinkedHashMap<QueryKey, CachedResult>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<QueryKey, CachedResult> eldest) {
+				if (size() <= ResultCache.this.maxEntries) {
+					return false;
+				}
+				untag(eldest.getKey(), eldest.getValue());
+				return true;
+			}
+		};
+	}
+
+
+	/**
+	 * Returns the cached result of the query, or runs the query if there is none. The query runs on a read
+	 * connection, or on the primary if some of its tables got invalidated within the replication lag.
+	 * @param parameters values of the query's parameters, in order
+	 */
+	public ResultRows query(TaggedStatement query, Object... parameters) throws InterruptedException, SQLException {
+		QueryKey key = new QueryKey(query.getSql(), parameters);
+		ResultRows cached = getCached(key);
+		if (cached != null) {
+			hits.increment();
+			return cached;
+		}
+		misses.increment();
+
+		long[] versionsBefore = versionsOf(query.getTables());
+		boolean isReplicaStale = isAnyRecentlyInvalidated(query.getTables());
+		ResultRows rows;
+		try (Connection conn = isReplicaStale ? connectionManager.getConnection() : connectionManager.getReadConnection();
+				PreparedStatement statement = prepare(conn, query.getSql(), parameters);
+				ResultSet resultSet = statement.executeQuery()) {
+			rows = ResultRows.read(resultSet);
+		}
+		if (rows.getRowCount() <= MAX_CACHED_ROWS) {
+			putIfUnchanged(key, query.getTables(), versionsBefore, rows);
+		}
+		return rows;
+	}
+
+	/**
+	 * Runs a write and drops the cached results of all the tables it is tagged with.
+	 * @return the update count
+	 */
+	public int update(TaggedStatement update, Object... parameters) throws InterruptedException, SQLException {
+		try (Connection conn = connectionManager.getConnection();
+				PreparedStatement statement = prepare(conn, update.getSql(), parameters)) {
+			return statement.executeUpdate();
+		} finally {
+			for (String table : update.getTables()) {
+				invalidate(table);
+			}
+		}
+	}
+
+	private static PreparedStatement prepare(Connection conn, String sql, Object[] parameters) throws SQLException {
+		PreparedStatement statement = conn.prepareStatement(sql);
+		try {
+			for (int i = 0; i < parameters.length; i++) {
+				statement.setObject(i + 1, parameters[i]);
+			}
+			return statement;
+		} catch (SQLException e) {
+			statement.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Drops all the cached results of queries tagged with the given table, e.g. after the table
+	 * got written to without the cache knowing.
+	 */
+	public void invalidate(String table) {
+		lock.lock();
+		try {
+			tableVersions.merge(table, 1L, Long::sum);
+			if (replicationLagNanos > 0) {
+				tableInvalidationNanos.put(table, System.nanoTime());
+			}
+			Set<QueryKey> keys = keysByTable.remove(table);
+			if (keys != null) {
+				for (QueryKey key : keys) {
+					CachedResult result = results.remove(key);
+					if (result != null) {
+						untag(key, result);
+					}
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private ResultRows getCached(QueryKey key) {
+		lock.lock();
+		try {
+			CachedResult result = results.get(key);
+			if (result == null) {
+				return null;
+			}
+			if (System.nanoTime() - result.cachedAtNanos >= timeToLiveNanos) {
+				results.remove(key);
+				untag(key, result);
+				return null;
+			}
+			return result.rows;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private long[] versionsOf(List<String> tables) {
+		lock.lock();
+		try {
+			long[] versions = new long[tables.size()];
+			for (int i = 0; i < versions.length; i++) {
+				versions[i] = tableVersions.getOrDefault(tables.get(i), 0L);
+			}
+			return versions;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return whether some of the tables got invalidated so recently that the replicas may still miss the write
+	 */
+	private boolean isAnyRecentlyInvalidated(List<String> tables) {
+		lock.lock();
+		try {
+			for (String table : tables) {
+				Long invalidationNanos = tableInvalidationNanos.get(table);
+				if (invalidationNanos == null) {
+					continue;
+				}
+				if (System.nanoTime() - invalidationNanos < replicationLagNanos) {
+					return true;
+				}
+				tableInvalidationNanos.remove(table);
+			}
+			return false;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Caches the result, unless some of its tables got invalidated while the query was running.
+	 */
+	private void putIfUnchanged(QueryKey key, List<String> tables, long[] versionsBefore, ResultRows rows) {
+		lock.lock();
+		try {
+			for (int i = 0; i < versionsBefore.length; i++) {
+				if (tableVersions.getOrDefault(tables.get(i), 0L) != versionsBefore[i]) {
+					return;
+				}
+			}
+			CachedResult result = new CachedResult(rows, tables, System.nanoTime());
+			CachedResult replaced = results.put(key, result);
+			if (replaced != null) {
+				untag(key, replaced);
+			}
+			for (String table : tables) {
+				keysByTable.computeIfAbsent(table, t -> new HashSet<>()).add(key);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void untag(QueryKey key, CachedResult result) {
+		for (String table : result.tables) {
+			Set<QueryKey> keys = keysByTable.get(table);
+			if (keys != null) {
+				keys.remove(key);
+				if (keys.isEmpty()) {
+					keysByTable.remove(table);
+				}
+			}
+		}
+	}
+
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public int size() {
+		lock.lock();
+		try {
+			return results.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+
+	private static class CachedResult {
+
+		private final ResultRows rows;
+		private final List<String> tables;
+		private final long cachedAtNanos;
+
+		CachedResult(ResultRows rows, List<String> tables, long cachedAtNanos) {
+			this.rows = rows;
+			this.tables = tables;
+			this.cachedAtNanos = cachedAtNanos;
+		}
+	}
+
+}
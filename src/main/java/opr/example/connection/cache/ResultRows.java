@@ -0,0 +1,76 @@
+package opr.example.connection.cache;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Rows of a query result read completely into memory, so that they can be kept after the connection
+ * has been returned. Rows and columns are numbered from zero.
+ *
+ * The rows are shared by everyone getting them from the {@link ResultCache}, so the values must not be
+ * modified, e.g. the contents of byte arrays.
+ */
+public final class ResultRows {
+
+	private final List<String> columnLabels;
+	private final List<Object[]> rows;
+
+
+	private ResultRows(List<String> columnLabels, List<Object[]> rows) {
+		this.columnLabels = columnLabels;
+		this.rows = rows;
+	}
+
+	/**
+	 * Reads all the remaining rows of the result set.
+	 */
+	static ResultRows read(ResultSet resultSet) throws SQLException {
+		ResultSetMetaData metaData = resultSet.getMetaData();
+		int columnCount = metaData.getColumnCount();
+		String[] columnLabels = new String[columnCount];
+		for (int i = 0; i < columnCount; i++) {
+			columnLabels[i] = metaData.getColumnLabel(i + 1);
+		}
+		List<Object[]> rows = new ArrayList<>();
+		while (resultSet.next()) {
+			Object[] row = new Object[columnCount];
+			for (int i = 0; i < columnCount; i++) {
+				row[i] = resultSet.getObject(i + 1);
+			}
+			rows.add(row);
+		}
+		return new ResultRows(Collections.unmodifiableList(Arrays.asList(columnLabels)), rows);
+	}
+
+
+	public int getRowCount() {
+		return rows.size();
+	}
+
+	public List<String> getColumnLabels() {
+		return columnLabels;
+	}
+
+	public Object get(int row, int column) {
+		return rows.get(row)[column];
+	}
+
+	/**
+	 * @throws IllegalArgumentException if there is no column of the given label
+	 */
+	public Object get(int row, String columnLabel) {
+		for (int i = 0; i < columnLabels.size(); i++) {
+			if (columnLabels.get(i).equalsIgnoreCase(columnLabel)) {
+				return get(row, i);
+			}
+		}
+		throw new IllegalArgumentException("No such column: " + columnLabel);
+	}
+
+}
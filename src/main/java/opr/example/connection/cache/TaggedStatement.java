@@ -0,0 +1,40 @@
+package opr.example.connection.cache;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * SQL statement together with the tables it reads or writes, so that the {@link ResultCache} knows which
+ * cached results a write makes stale. Meant to be defined once, e.g. as a constant, and executed many times.
+ */
+public final class TaggedStatement {
+
+	private final String sql;
+	private final List<String> tables;
+
+
+	/**
+	 * @param tables names of the tables the statement reads, or writes
+	 */
+	public TaggedStatement(String sql, String... tables) {
+		this.sql = sql;
+		this.tables = Collections.unmodifiableList(Arrays.asList(tables.clone()));
+	}
+
+
+	public String getSql() {
+		return sql;
+	}
+
+	public List<String> getTables() {
+		return tables;
+	}
+
+	@Override
+	public String toString() {
+		return sql + " " + tables;
+	}
+
+}
@@ -0,0 +1,16 @@
+package opr.example.connection.factory;
+
+import java.sql.SQLException;
+
+
+/**
+ * Connection factory that delegates to other factories, and can tell which of them created a connection.
+ */
+public interface OriginTrackingConnectionFactory extends ConnectionFactory {
+
+	/**
+	 * Same as {@link #createConnection()}, but tags the connection with the factory that actually created it.
+	 */
+	TaggedConnection createTaggedConnection() throws SQLException;
+
+}
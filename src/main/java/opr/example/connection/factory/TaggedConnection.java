@@ -0,0 +1,29 @@
+package opr.example.connection.factory;
+
+import java.sql.Connection;
+
+
+/**
+ * Connection together with the factory it comes from.
+ */
+public class TaggedConnection {
+
+	private final Connection connection;
+	private final ConnectionFactory origin;
+
+
+	public TaggedConnection(Connection connection, ConnectionFactory origin) {
+		this.connection = connection;
+		this.origin = origin;
+	}
+
+
+	public Connection getConnection() {
+		return connection;
+	}
+
+	public ConnectionFactory getOrigin() {
+		return origin;
+	}
+
+}
@@ -0,0 +1,179 @@
+package opr.example.connection.failover;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * Decides whether requests may go to a resource that has been failing, and probes it for recovery.
+ *
+ * While {@link State#CLOSED}, all requests pass. The first failure opens the breaker and schedules a probe;
+ * the failures of parallel requests that come afterwards change nothing, so there is only one probe in flight.
+ * While {@link State#OPEN}, no request passes. A failed probe schedules the next one with exponential backoff
+ * and jitter. A successful probe makes the breaker {@link State#HALF_OPEN}, letting through a limited number
+ * of trial requests. Once all of them succeed, the breaker closes; any failed trial opens it again.
+ *
+ * The listener is called by whoever reports the outcome that changes the state. Its failures are logged
+ * and swallowed, so that they neither change the state nor get mistaken for the resource failing.
+ */
+class CircuitBreaker {
+
+	enum State { CLOSED, OPEN, HALF_OPEN }
+
+	private static final Logger LOG = Logger.getLogger(CircuitBreaker.class.getName());
+
+	private static final int MAX_BACKOFF_DOUBLINGS = 20;
+
+	private final ScheduledExecutorService scheduler;
+	private final Probe probe;
+	private final Listener listener;
+
+	private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+	private final AtomicBoolean isProbeScheduled = new AtomicBoolean(false);
+	private final AtomicInteger trialPermits = new AtomicInteger(0);
+	private final AtomicInteger trialSuccesses = new AtomicInteger(0);
+	private volatile int failedProbes = 0;
+
+	private volatile long initialBackoffMillis = 1_000L;
+	private volatile long maxBackoffMillis = 60_000L;
+	private volatile int trialBudget = 3;
+
+
+	CircuitBreaker(ScheduledExecutorService scheduler, Probe probe, Listener listener) {
+		this.scheduler = scheduler;
+		this.probe = probe;
+		this.listener = listener;
+	}
+
+
+	void setBackoff(long initialBackoffMillis, long maxBackoffMillis) {
+		this.initialBackoffMillis = initialBackoffMillis;
+		this.maxBackoffMillis = Math.max(initialBackoffMillis, maxBackoffMillis);
+	}
+
+	void setTrialBudget(int trialBudget) {
+		this.trialBudget = trialBudget;
+	}
+
+	State getState() {
+		return state.get();
+	}
+
+
+	/**
+	 * @return true if the request may go to the resource, in which case the caller has to report
+	 *         the outcome by {@link #onSuccess()} or {@link #onFailure()}
+	 */
+	boolean allowRequest() {
+		switch (state.get()) {
+		case CLOSED:
+			return true;
+		case HALF_OPEN:
+			return trialPermits.getAndDecrement() > 0;
+		default:
+			return false;
+		}
+	}
+
+	void onSuccess() {
+		if (state.get() == State.HALF_OPEN && trialSuccesses.incrementAndGet() >= trialBudget
+				&& state.compareAndSet(State.HALF_OPEN, State.CLOSED)) {
+			failedProbes = 0;
+			notifyClosed();
+		}
+	}
+
+	void onFailure() {
+		if (state.compareAndSet(State.CLOSED, State.OPEN)) {
+			notifyOpened();
+			scheduleProbe();
+		} else if (state.compareAndSet(State.HALF_OPEN, State.OPEN)) {
+			scheduleProbe();
+		}
+	}
+
+
+	/**
+	 * Probes the resource right away, without waiting for the scheduled probe.
+	 * @return true if the resource is healthy, i.e. the breaker is not open anymore
+	 */
+	boolean probeNow() {
+		if (state.get() != State.OPEN) {
+			return true;
+		}
+		if (!probe.isHealthy()) {
+			return false;
+		}
+		trialPermits.set(trialBudget);
+		trialSuccesses.set(0);
+		state.compareAndSet(State.OPEN, State.HALF_OPEN);
+		return true;
+	}
+
+	private void notifyOpened() {
+		try {
+			listener.onOpened();
+		} catch (RuntimeException e) {
+			LOG.log(Level.WARNING, "Listener failed to handle the breaker opening", e);
+		}
+	}
+
+	private void notifyClosed() {
+		try {
+			listener.onClosed();
+		} catch (RuntimeException e) {
+			LOG.log(Level.WARNING, "Listener failed to handle the breaker closing", e);
+		}
+	}
+
+	private void scheduleProbe() {
+		if (isProbeScheduled.compareAndSet(false, true)) {
+			scheduler.schedule(this::runScheduledProbe, nextBackoffMillis(), TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void runScheduledProbe() {
+		isProbeScheduled.set(false);
+		if (!probeNow()) {
+			failedProbes++;
+			scheduleProbe();
+		}
+	}
+
+	/**
+	 * Doubles the backoff with every failed probe, and picks the actual delay at random from
+	 * the upper half of it, so that parallel breakers don't probe in lockstep.
+	 */
+	long nextBackoffMillis() {
+		int doublings = Math.min(failedProbes, MAX_BACKOFF_DOUBLINGS);
+		long backoff = Math.min(maxBackoffMillis, initialBackoffMillis << doublings);
+		long halfBackoff = backoff / 2;
+		return halfBackoff + ThreadLocalRandom.current().nextLong(backoff - halfBackoff + 1);
+	}
+
+
+	interface Probe {
+		boolean isHealthy();
+	}
+
+	interface Listener {
+		/**
+		 * The resource has just started failing, i.e. requests are not passing anymore.
+		 * Not called when a trial request fails while half open, since the resource was not
+		 * considered recovered yet.
+		 */
+		void onOpened();
+
+		/**
+		 * The resource has recovered, i.e. all requests pass again.
+		 */
+		void onClosed();
+	}
+
+}
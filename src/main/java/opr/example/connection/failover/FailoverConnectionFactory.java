@@ -2,105 +2,135 @@ package opr.example.connection.failover;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 import opr.example.connection.factory.ConnectionFactory;
+import opr.example.connection.factory.OriginTrackingConnectionFactory;
+import opr.example.connection.factory.TaggedConnection;
+import opr.example.connection.util.DaemonThreadFactory;
+
+
+/**
+ * Creates connections using the master factory, falling back to the slave factory while the master is down.
+ *
+ * The master's health is guarded by a {@link CircuitBreaker}. Once the master fails, connections come from
+ * the slave without touching the master, until a background probe finds the master healthy again. Then only
+ * a few trial connections go to the master, and only if they all succeed, the master takes over again.
+ * The probes run on a scheduler shared by all the factories, rather than on threads of their own.
+ * 
+ * Registered {@link FailoverListener listeners} learn about the master's failures and recoveries, so that
+ * they can close their master connections at once, or replace the connections they got from the slave meanwhile. To tell those apart, the factory tags each
+ * connection with its origin, see {@link #createTaggedConnection()}.
+ */
+public class FailoverConnectionFactory implements OriginTrackingConnectionFactory {
+
+	private static class SharedScheduler {
+		static final ScheduledExecutorService INSTANCE = Executors.newSingleThreadScheduledExecutor(
+				new DaemonThreadFactory("FailoverConnectionFactory recovery"));
+	}
 
-public class FailoverConnectionFactory implements ConnectionFactory {
-
-	private static final SQLException MASTER_ERROR_INDICATOR = new SQLException("Master error");
-	
 	private final ConnectionFactory masterConnFactory;
 	private final ConnectionFactory slaveConnFactory;
-
-	private volatile boolean isMasterHealthy = true;
-
-	private long recoveryIntervalMillis = 60_000L;
+	private final CircuitBreaker masterCircuitBreaker;
+	private final List<FailoverListener> listeners = new CopyOnWriteArrayList<>();
 	
 	
 	public FailoverConnectionFactory(
 			ConnectionFactory masterConnFactory,
 			ConnectionFactory slaveConnFactory) {
+		this(masterConnFactory, slaveConnFactory, SharedScheduler.INSTANCE);
+	}
+
+	/**
+	 * @param recoveryScheduler scheduler to run the master recovery probes on
+	 */
+	public FailoverConnectionFactory(
+			ConnectionFactory masterConnFactory,
+			ConnectionFactory slaveConnFactory,
+			ScheduledExecutorService recoveryScheduler) {
 		this.masterConnFactory = masterConnFactory;
 		this.slaveConnFactory = slaveConnFactory;
+		this.masterCircuitBreaker = new CircuitBreaker(
+				recoveryScheduler, this::isMasterHealthy, new MasterHealthListener());
 	}
 
 
+	public void addFailoverListener(FailoverListener listener) {
+		listeners.add(listener);
+	}
+
+
+
 	//for test purposes
 	void setRecoveryInterval(long recoveryIntervalMillis) {
-		this.recoveryIntervalMillis = recoveryIntervalMillis;
+		masterCircuitBreaker.setBackoff(recoveryIntervalMillis, recoveryIntervalMillis);
 	}
 
 	
 	@Override
 	public Connection createConnection() throws SQLException {
-		try {
-			return createConnectionToMasterIfHealthy();
-		} catch (SQLException e) {
-			return slaveConnFactory.createConnection();
-		}
+		return createTaggedConnection().getConnection();
 	}
 
+	@Override
+	public TaggedConnection createTaggedConnection() throws SQLException {
+		if (masterCircuitBreaker.allowRequest()) {
+			Connection conn = createMasterConnection();
+			if (conn != null) {
+				masterCircuitBreaker.onSuccess();
+				return new TaggedConnection(conn, masterConnFactory);
+			}
+			masterCircuitBreaker.onFailure();
+		}
+		return new TaggedConnection(slaveConnFactory.createConnection(), slaveConnFactory);
+	}
 
-	private Connection createConnectionToMasterIfHealthy() throws SQLException {
-		blowImmediatelyIfMasterUnhealthy();
+	/**
+	 * @return the new master connection, or null if the master failed to create it
+	 */
+	private Connection createMasterConnection() {
 		try {
 			return masterConnFactory.createConnection();
-		} catch (SQLException e) {
-			disableMasterAndStartCheckingForRecovery();
-			throw e;
+		} catch (SQLException | RuntimeException e) {
+			return null;
 		}
 	}
 
-	private void disableMasterAndStartCheckingForRecovery() {
-		isMasterHealthy = false;
-		startRecoveryChecking();
-	}
-
-	private void startRecoveryChecking() {
-		new Thread(new RecoveryCheckTask()).start();
-	}
 
-
-	private void blowImmediatelyIfMasterUnhealthy() throws SQLException {
-		if (!isMasterHealthy) {
-			throw MASTER_ERROR_INDICATOR;
-		}
+	/**
+	 * Checks right away whether the master has recovered, without waiting for the scheduled probe.
+	 */
+	boolean attemptMasterRecovery() {
+		return masterCircuitBreaker.probeNow();
 	}
 
-
-	boolean attemptMasterRecovery() {
+	private boolean isMasterHealthy() {
 		try (Connection conn = masterConnFactory.createConnection()) {
-			checkValidityOf(conn);
-			isMasterHealthy = true;
-		} catch (SQLException e) {
-			//master is still unhealthy, do nothing
+			return conn.isValid(CONN_CREATE_TIMEOUT);
+		} catch (SQLException | RuntimeException e) {
+			return false;
 		}
-		return isMasterHealthy;
 	}
 
-	private void checkValidityOf(Connection conn) throws SQLException {
-		if (conn.isValid(CONN_CREATE_TIMEOUT)) {
-			throw new SQLException("Connection invalid");
-		}
-	}
 
-	
-	private class RecoveryCheckTask implements Runnable {
+	private class MasterHealthListener implements CircuitBreaker.Listener {
+
 		@Override
-		public void run() {
-			sleepQuietly(recoveryIntervalMillis);
-			if (!attemptMasterRecovery()) {
-				startRecoveryChecking();
+		public void onOpened() {
+			for (FailoverListener listener : listeners) {
+				listener.onFailover(masterConnFactory, slaveConnFactory);
 			}
 		}
-		
-		private void sleepQuietly(long delay) {
-			try {
-				Thread.sleep(delay);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-				throw new RuntimeException("Task was interrupted");
+
+		@Override
+		public void onClosed() {
+			for (FailoverListener listener : listeners) {
+				listener.onFailback(masterConnFactory, slaveConnFactory);
 			}
 		}
 	}
+
 }
@@ -0,0 +1,23 @@
+package opr.example.connection.failover;
+
+import opr.example.connection.factory.ConnectionFactory;
+
+
+/**
+ * Gets notified by {@link FailoverConnectionFactory} when its master changes health.
+ */
+public interface FailoverListener {
+
+	/**
+	 * The master has failed and new connections come from the slave. Connections to the master that are
+	 * already open are most likely broken too, so their owner should rather close them right away.
+	 */
+	void onFailover(ConnectionFactory master, ConnectionFactory slave);
+
+	/**
+	 * The master has recovered and new connections come from it again. Connections created by the slave
+	 * in the meantime are still open though, and it's up to their owner to replace them.
+	 */
+	void onFailback(ConnectionFactory master, ConnectionFactory slave);
+
+}
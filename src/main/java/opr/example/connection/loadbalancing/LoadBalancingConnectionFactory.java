@@ -0,0 +1,76 @@
+package opr.example.connection.loadbalancing;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import opr.example.connection.factory.ConnectionFactory;
+
+
+/**
+ * Spreads new connections across several equivalent databases, typically read replicas.
+ *
+ * The replica for each connection is picked by the configured {@link LoadBalancingStrategy}. If the replica
+ * fails to open the connection, the next one is tried, and the failed replica is skipped for the retry interval.
+ * Only if all the replicas fail, the creation fails.
+ */
+public class LoadBalancingConnectionFactory implements ConnectionFactory {
+
+	static final long DEFAULT_RETRY_INTERVAL_MILLIS = 30_000L;
+
+	private final List<Replica> replicas;
+	private final ReplicaSelector selector;
+
+
+	public LoadBalancingConnectionFactory(List<? extends ConnectionFactory> replicaFactories,
+			LoadBalancingStrategy strategy) {
+		this.replicas = createReplicas(replicaFactories, DEFAULT_RETRY_INTERVAL_MILLIS);
+		this.selector = new ReplicaSelector(strategy);
+	}
+
+	static List<Replica> createReplicas(List<? extends ConnectionFactory> replicaFactories, long retryIntervalMillis) {
+		if (replicaFactories.isEmpty()) {
+			throw new IllegalArgumentException("At least one replica is needed");
+		}
+		List<Replica> replicas = new ArrayList<>(replicaFactories.size());
+		for (ConnectionFactory replicaFactory : replicaFactories) {
+			replicas.add(new Replica(replicas.size(), replicaFactory, retryIntervalMillis));
+		}
+		return replicas;
+	}
+
+
+	//for test purposes
+	void setRetryInterval(long retryIntervalMillis) {
+		for (Replica replica : replicas) {
+			replica.setRetryInterval(retryIntervalMillis);
+		}
+	}
+
+
+	@Override
+	public Connection createConnection() throws SQLException {
+		boolean[] tried = new boolean[replicas.size()];
+		SQLException failure = null;
+		Replica replica;
+		while ((replica = selector.select(replicas, tried)) != null) {
+			tried[replica.getIndex()] = true;
+			try {
+				return new ReplicaConnection(replica.createConnection(), replica);
+			} catch (SQLException e) {
+				failure = addSuppressed(failure, e);
+			}
+		}
+		throw failure;
+	}
+
+	static SQLException addSuppressed(SQLException failure, SQLException e) {
+		if (failure == null) {
+			return e;
+		}
+		failure.addSuppressed(e);
+		return failure;
+	}
+
+}
@@ -0,0 +1,28 @@
+package opr.example.connection.loadbalancing;
+
+
+/**
+ * How to pick the replica for the next connection. Replicas that recently failed are skipped
+ * by all the strategies, as long as there is any other replica left.
+ */
+public enum LoadBalancingStrategy {
+
+	/**
+	 * Takes the replicas in turns.
+	 */
+	ROUND_ROBIN,
+
+	/**
+	 * Takes the replica with the fewest connections in use.
+	 */
+	LEAST_OUTSTANDING,
+
+	/**
+	 * Picks a replica at random, preferring the faster replicas in proportion to their speed.
+	 * The speed is judged by how fast the replica opens connections, and with
+	 * {@link ReadConnectionRouter} also by how long its connections stay borrowed, which
+	 * includes the time the replica takes to answer the borrowers' queries.
+	 */
+	LATENCY_WEIGHTED
+
+}
@@ -0,0 +1,131 @@
+package opr.example.connection.loadbalancing;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import opr.example.connection.factory.ConnectionFactory;
+import opr.example.connection.pool.BorrowListener;
+import opr.example.connection.pool.ConnectionPool;
+import opr.example.connection.pool.ConnectionPoolConfig;
+
+
+/**
+ * Lends connections for read-only work from a set of replicas, each of them with a pool of its own.
+ *
+ * The replica to borrow from is picked by the configured {@link LoadBalancingStrategy}. If the borrow fails,
+ * e.g. since the replica is down and its pool cannot open a new connection, the next replica is tried.
+ * The replicas' pools are sized by the same config, i.e. every replica gets up to the max pool size
+ * connections, and the read capacity grows with the number of replicas.
+ *
+ * A replica's connections count as outstanding from their borrow until their pool gets them back, be it
+ * closed by the borrower in any way, or reclaimed once lost. How long a connection has been borrowed
+ * is taken for a sample of the replica's latency, so that a replica that slows down after its
+ * connections have been opened still loses its share of {@link LoadBalancingStrategy#LATENCY_WEIGHTED}
+ * borrows.
+ */
+public class ReadConnectionRouter {
+
+	private final List<Replica> replicas;
+	private final List<ConnectionPool> pools;
+	private final ReplicaSelector selector;
+
+
+	public ReadConnectionRouter(ConnectionPoolConfig poolConfig, List<? extends ConnectionFactory> replicaFactories,
+			LoadBalancingStrategy strategy) {
+		this.replicas = LoadBalancingConnectionFactory.createReplicas(
+				replicaFactories, LoadBalancingConnectionFactory.DEFAULT_RETRY_INTERVAL_MILLIS);
+		this.selector = new ReplicaSelector(strategy);
+		this.pools = new ArrayList<>(replicas.size());
+		for (Replica replica : replicas) {
+			pools.add(new ConnectionPool(replicaPoolConfig(poolConfig, replica), replica::createConnection));
+		}
+	}
+
+	private static ConnectionPoolConfig replicaPoolConfig(ConnectionPoolConfig poolConfig, Replica replica) {
+		ConnectionPoolConfig replicaConfig = new ConnectionPoolConfig(poolConfig);
+		if (poolConfig.getPoolName() != null) {
+			replicaConfig.setPoolName(poolConfig.getPoolName() + " replica " + replica.getIndex());
+		}
+		replicaConfig.setBorrowListener(new ReplicaBorrowListener(replica));
+		return replicaConfig;
+	}
+
+
+	public Connection getConnection() throws InterruptedException, SQLException {
+		return borrow(ConnectionPool::getConnection);
+	}
+
+	/**
+	 * Same as {@link #getConnection()}, but waits at most the given time in total, however many replicas
+	 * get tried. Replicas tried once the time is up only get the chance to lend a free connection at once.
+	 */
+	public Connection getConnection(long timeout, TimeUnit unit) throws InterruptedException, SQLException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		return borrow(pool -> pool.getConnection(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+	}
+
+	private Connection borrow(BorrowOperation borrowOperation) throws InterruptedException, SQLException {
+		boolean[] tried = new boolean[replicas.size()];
+		SQLException failure = null;
+		Replica replica;
+		while ((replica = selector.select(replicas, tried)) != null) {
+			tried[replica.getIndex()] = true;
+			try {
+				return borrowOperation.borrowFrom(pools.get(replica.getIndex()));
+			} catch (SQLException e) {
+				failure = LoadBalancingConnectionFactory.addSuppressed(failure, e);
+			}
+		}
+		throw failure;
+	}
+
+	/**
+	 * Opens the configured min idle connections of every replica.
+	 */
+	public void warmUp() throws InterruptedException {
+		for (ConnectionPool pool : pools) {
+			pool.warmUp();
+		}
+	}
+
+	public void shutDown() {
+		for (ConnectionPool pool : pools) {
+			pool.shutDown();
+		}
+	}
+
+
+	private interface BorrowOperation {
+		Connection borrowFrom(ConnectionPool pool) throws InterruptedException, SQLException;
+	}
+
+
+	private static class ReplicaBorrowListener implements BorrowListener {
+
+		private final Replica replica;
+
+		ReplicaBorrowListener(Replica replica) {
+			this.replica = replica;
+		}
+
+		@Override
+		public void onBorrowed() {
+			replica.onConnectionTaken();
+		}
+
+		@Override
+		public void onReturned(long nanosBorrowed) {
+			replica.onConnectionReleased();
+			replica.recordLatency(nanosBorrowed);
+		}
+
+		@Override
+		public void onReclaimed() {
+			replica.onConnectionReleased();
+		}
+	}
+
+}
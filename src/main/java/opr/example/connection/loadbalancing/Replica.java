@@ -0,0 +1,107 @@
+package opr.example.connection.loadbalancing;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import opr.example.connection.factory.ConnectionFactory;
+
+
+/**
+ * One of the databases to balance the load across, together with what is known about its health and load.
+ *
+ * A replica that fails to open a connection is considered down for the retry interval. Once the interval
+ * passes, the next connection attempt serves as a probe - if it succeeds, the replica is back up.
+ */
+class Replica {
+
+	private static final int LATENCY_SMOOTHING_SHIFT = 3; //i.e. every sample weighs 1/8
+
+	private final int index;
+	private final ConnectionFactory connectionFactory;
+	private volatile long retryIntervalNanos;
+
+	private final AtomicInteger outstandingConnections = new AtomicInteger(0);
+	private volatile long latencyNanos = 0L;
+	private volatile boolean isDown = false;
+	private volatile long retryAtNanos;
+
+
+	Replica(int index, ConnectionFactory connectionFactory, long retryIntervalMillis) {
+		this.index = index;
+		this.connectionFactory = connectionFactory;
+		setRetryInterval(retryIntervalMillis);
+	}
+
+
+	void setRetryInterval(long retryIntervalMillis) {
+		this.retryIntervalNanos = TimeUnit.MILLISECONDS.toNanos(retryIntervalMillis);
+	}
+
+
+	/**
+	 * Opens a connection to the replica, keeping track of its health and latency.
+	 */
+	Connection createConnection() throws SQLException {
+		long start = System.nanoTime();
+		Connection conn;
+		try {
+			conn = connectionFactory.createConnection();
+		} catch (SQLException | RuntimeException e) {
+			retryAtNanos = System.nanoTime() + retryIntervalNanos;
+			isDown = true;
+			throw e;
+		}
+		recordLatency(System.nanoTime() - start);
+		isDown = false;
+		return conn;
+	}
+
+	/**
+	 * Smooths the latency with an exponentially weighted moving average. Parallel updates may get lost,
+	 * which is fine for a load balancing hint.
+	 */
+	void recordLatency(long sampleNanos) {
+		long current = latencyNanos;
+		long smoothed = (current == 0L)
+				? sampleNanos
+				: current + ((sampleNanos - current) >> LATENCY_SMOOTHING_SHIFT);
+		//zero would mean not measured yet
+		latencyNanos = Math.max(smoothed, 1L);
+	}
+
+	boolean isAvailable() {
+		return !isDown || System.nanoTime() - retryAtNanos >= 0;
+	}
+
+	int getIndex() {
+		return index;
+	}
+
+	/**
+	 * @return smoothed time it takes to open a connection or, for pooled replicas, mostly how long
+	 *         a borrower keeps a connection; zero if no connection has been opened yet
+	 */
+	long getLatencyNanos() {
+		return latencyNanos;
+	}
+
+	int getOutstandingConnections() {
+		return outstandingConnections.get();
+	}
+
+	void onConnectionTaken() {
+		outstandingConnections.incrementAndGet();
+	}
+
+	void onConnectionReleased() {
+		outstandingConnections.decrementAndGet();
+	}
+
+	@Override
+	public String toString() {
+		return "Replica #" + index + (isDown ? " (down)" : "");
+	}
+
+}
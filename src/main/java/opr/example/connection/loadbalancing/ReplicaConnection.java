@@ -0,0 +1,38 @@
+package opr.example.connection.loadbalancing;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import opr.example.connection.util.DelegateConnection;
+
+
+/**
+ * Connection handed out on behalf of a {@link Replica}, counted as outstanding until closed.
+ * Closing it closes the delegate, which for a pooled delegate means returning it to its pool.
+ */
+class ReplicaConnection extends DelegateConnection {
+
+	private final Replica replica;
+	private boolean isReleased = false;
+
+
+	ReplicaConnection(Connection delegate, Replica replica) {
+		super(delegate, false);
+		this.replica = replica;
+		replica.onConnectionTaken();
+	}
+
+
+	@Override
+	public void close() throws SQLException {
+		try {
+			super.close();
+		} finally {
+			if (!isReleased) {
+				isReleased = true;
+				replica.onConnectionReleased();
+			}
+		}
+	}
+
+}
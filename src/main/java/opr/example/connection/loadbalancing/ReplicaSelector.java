@@ -0,0 +1,101 @@
+package opr.example.connection.loadbalancing;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Picks replicas according to a {@link LoadBalancingStrategy}.
+ */
+class ReplicaSelector {
+
+	private final LoadBalancingStrategy strategy;
+	private final AtomicInteger nextRoundRobin = new AtomicInteger(0);
+
+
+	ReplicaSelector(LoadBalancingStrategy strategy) {
+		this.strategy = strategy;
+	}
+
+
+	/**
+	 * Picks one of the replicas not tried yet, preferring the available ones. Replicas that are down
+	 * are picked only once there is no available one left, so that the caller can still try its luck.
+	 * @param tried replicas the caller has already tried, by index
+	 * @return the replica, or null if all of them have been tried
+	 */
+	Replica select(List<Replica> replicas, boolean[] tried) {
+		Replica replica = select(replicas, tried, true);
+		return (replica != null) ? replica : select(replicas, tried, false);
+	}
+
+	private Replica select(List<Replica> replicas, boolean[] tried, boolean availableOnly) {
+		switch (strategy) {
+		case LEAST_OUTSTANDING:
+			return selectLeastOutstanding(replicas, tried, availableOnly);
+		case LATENCY_WEIGHTED:
+			return selectLatencyWeighted(replicas, tried, availableOnly);
+		default:
+			return selectRoundRobin(replicas, tried, availableOnly);
+		}
+	}
+
+	private Replica selectRoundRobin(List<Replica> replicas, boolean[] tried, boolean availableOnly) {
+		int start = nextRoundRobin.getAndIncrement();
+		for (int i = 0; i < replicas.size(); i++) {
+			Replica replica = replicas.get(Math.floorMod(start + i, replicas.size()));
+			if (isCandidate(replica, tried, availableOnly)) {
+				return replica;
+			}
+		}
+		return null;
+	}
+
+	private static Replica selectLeastOutstanding(List<Replica> replicas, boolean[] tried, boolean availableOnly) {
+		Replica best = null;
+		for (Replica replica : replicas) {
+			if (isCandidate(replica, tried, availableOnly)
+					&& (best == null || replica.getOutstandingConnections() < best.getOutstandingConnections())) {
+				best = replica;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Weighs every replica by the inverse of its latency. Replicas with no latency known yet
+	 * are picked first, so that every replica gets measured.
+	 */
+	private static Replica selectLatencyWeighted(List<Replica> replicas, boolean[] tried, boolean availableOnly) {
+		double totalWeight = 0;
+		for (Replica replica : replicas) {
+			if (isCandidate(replica, tried, availableOnly)) {
+				if (replica.getLatencyNanos() == 0L) {
+					return replica;
+				}
+				totalWeight += 1.0 / replica.getLatencyNanos();
+			}
+		}
+		if (totalWeight == 0) {
+			return null;
+		}
+		double point = ThreadLocalRandom.current().nextDouble(totalWeight);
+		Replica last = null;
+		for (Replica replica : replicas) {
+			if (isCandidate(replica, tried, availableOnly)) {
+				last = replica;
+				point -= 1.0 / replica.getLatencyNanos();
+				if (point < 0) {
+					return replica;
+				}
+			}
+		}
+		return last;
+	}
+
+	private static boolean isCandidate(Replica replica, boolean[] tried, boolean availableOnly) {
+		return !tried[replica.getIndex()] && (!availableOnly || replica.isAvailable());
+	}
+
+}
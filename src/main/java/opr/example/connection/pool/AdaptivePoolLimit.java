@@ -0,0 +1,104 @@
+package opr.example.connection.pool;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * AIMD controller of how many connections a {@link ConnectionPool} may open, kept between configured bounds.
+ *
+ * The pool asks for a new limit periodically and the controller looks at what the pool's metrics recorded
+ * since the last time. If the connections got slower, i.e. the mean time they are borrowed for or the mean
+ * validation round-trip grew past the tolerance over its long-term average, the database is taken as overloaded
+ * and the limit drops by the backoff ratio. Otherwise, if borrowers had to wait while the pool was at its limit,
+ * the limit grows by one.
+ */
+class AdaptivePoolLimit {
+
+	static final double BACKOFF_RATIO = 0.9;
+	static final double LATENCY_TOLERANCE = 2.0;
+	static final long WAIT_THRESHOLD_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private static final double LONG_TERM_WEIGHT = 0.1;
+
+
+	private final Window borrowWait;
+	private final Window usage;
+	private final Window validation;
+
+
+	AdaptivePoolLimit(PoolMetrics metrics) {
+		this.borrowWait = new Window(metrics.borrowWait);
+		this.usage = new Window(metrics.usage);
+		this.validation = new Window(metrics.validation);
+	}
+
+
+	/**
+	 * @param limit the current limit
+	 * @param isAtLimit whether the pool has as many connections as the current limit allows
+	 * @param waitingBorrowers number of borrowers waiting for a connection right now
+	 * @return the new limit, between the given bounds
+	 */
+	int update(int limit, int minLimit, int maxLimit, boolean isAtLimit, int waitingBorrowers) {
+		long meanWaitNanos = borrowWait.next();
+		boolean isUsageSlower = usage.nextIsSlower();
+		boolean isValidationSlower = validation.nextIsSlower();
+
+		int newLimit = limit;
+		if (isUsageSlower || isValidationSlower) {
+			newLimit = (int) (limit * BACKOFF_RATIO);
+		} else if (isAtLimit && (waitingBorrowers > 0 || meanWaitNanos > WAIT_THRESHOLD_NANOS)) {
+			newLimit = limit + 1;
+		}
+		return Math.max(minLimit, Math.min(newLimit, maxLimit));
+	}
+
+
+	/**
+	 * Durations recorded by a histogram since the last look at it.
+	 */
+	private static class Window {
+
+		private final LatencyHistogram histogram;
+		private long lastCount;
+		private long lastTotalNanos;
+		private double longTermMeanNanos = -1;
+
+		Window(LatencyHistogram histogram) {
+			this.histogram = histogram;
+			this.lastCount = histogram.count();
+			this.lastTotalNanos = histogram.totalNanos();
+		}
+
+		/**
+		 * @return mean of the durations recorded since the last call, -1 if there are none
+		 */
+		long next() {
+			long count = histogram.count();
+			long totalNanos = histogram.totalNanos();
+			long windowCount = count - lastCount;
+			long windowTotalNanos = totalNanos - lastTotalNanos;
+			lastCount = count;
+			lastTotalNanos = totalNanos;
+			return (windowCount > 0) ? windowTotalNanos / windowCount : -1;
+		}
+
+		/**
+		 * @return whether the durations recorded since the last call are slower than usual beyond the tolerance
+		 */
+		boolean nextIsSlower() {
+			long meanNanos = next();
+			if (meanNanos < 0) {
+				return false;
+			}
+			if (longTermMeanNanos < 0) {
+				longTermMeanNanos = meanNanos;
+				return false;
+			}
+			boolean isSlower = meanNanos > longTermMeanNanos * LATENCY_TOLERANCE;
+			longTermMeanNanos += (meanNanos - longTermMeanNanos) * LONG_TERM_WEIGHT;
+			return isSlower;
+		}
+	}
+
+}
@@ -0,0 +1,29 @@
+package opr.example.connection.pool;
+
+
+/**
+ * Gets told whenever the pool lends one of its connections and whenever it gets it back,
+ * see {@link ConnectionPoolConfig#setBorrowListener(BorrowListener)}.
+ *
+ * Called by the borrowing and returning threads, or by the pool's housekeeper for the reclaimed
+ * connections, so it has to be thread-safe and quick, and must not throw.
+ */
+public interface BorrowListener {
+
+	/**
+	 * A connection has just been lent to a borrower.
+	 */
+	void onBorrowed();
+
+	/**
+	 * The borrower has closed its connection, however it got to closing it.
+	 * @param nanosBorrowed how long the connection has been borrowed
+	 */
+	void onReturned(long nanosBorrowed);
+
+	/**
+	 * The borrower has lost its connection without closing it, and the pool has reclaimed it,
+	 * see {@link ConnectionPoolConfig#setReclaimLeakedConnections(boolean)}.
+	 */
+	void onReclaimed();
+}
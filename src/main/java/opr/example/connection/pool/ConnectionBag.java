@@ -0,0 +1,396 @@
+package opr.example.connection.pool;
+
+import static opr.example.connection.pool.PoolEntry.STATE_IN_USE;
+import static opr.example.connection.pool.PoolEntry.STATE_NOT_IN_USE;
+import static opr.example.connection.pool.PoolEntry.STATE_REMOVED;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import opr.example.connection.util.VirtualThreads;
+
+
+/**
+ * Concurrent container of {@link PoolEntry pool entries} optimized for the borrow/return cycle.
+ *
+ * A borrowing thread first looks at the entries it has returned itself most recently (thread-local
+ * affinity list), then it tries to steal any free entry from the shared list, and only if both fail
+ * it blocks until some other thread hands an entry over directly. Asynchronous borrowers don't block
+ * at all, they wait as futures in a FIFO queue instead, and a returned or added entry completes the oldest
+ * of them right away. Such waiters are served before the blocked threads.
+ *
+ * Neither the thread-local nor the shared lookup takes a lock. The shared list is copy-on-write,
+ * which is cheap since entries are added or removed only when connections get created or closed.
+ * It can be split into shards, each thread starting its lookup in the shard given by its id and stealing
+ * from the sibling shards only if its own has no free entry. That way threads on many cores don't all
+ * compete for the same first few entries.
+ * The bag never creates entries by itself. Instead, it tells its {@link ConnectionBagListener} whenever
+ * a thread starts waiting, and it's up to the listener to add new entries (or report a failure to do so).
+ *
+ * Virtual threads skip the thread-local list. They are typically created per request, so they would
+ * never see their list again, while each of them would keep its own list and the entries in it alive.
+ * Waiting only parks the thread and never holds a monitor, so it does not pin the virtual thread's carrier.
+ */
+class ConnectionBag {
+
+	private static final int MAX_THREAD_LOCAL_ENTRIES = 16;
+
+	private final List<List<PoolEntry>> shards;
+	private final ThreadLocal<List<PoolEntry>> threadList =
+			ThreadLocal.withInitial(() -> new ArrayList<>(MAX_THREAD_LOCAL_ENTRIES));
+
+	private final PaddedAtomicInteger waiters = new PaddedAtomicInteger(0);
+	private final SynchronousQueue<PoolEntry> handoffQueue = new SynchronousQueue<>(true);
+	private final PaddedAtomicInteger asyncWaiters = new PaddedAtomicInteger(0);
+	private final Queue<CompletableFuture<PoolEntry>> asyncWaiterQueue = new ConcurrentLinkedQueue<>();
+
+	private final ConnectionBagListener listener;
+
+
+	ConnectionBag(ConnectionBagListener listener) {
+		this(listener, 1);
+	}
+
+	/**
+	 * @param shardCount number of shards the free entries are split into
+	 */
+	ConnectionBag(ConnectionBagListener listener, int shardCount) {
+		this.listener = listener;
+		this.shards = new ArrayList<>(shardCount);
+		for (int i = 0; i < shardCount; i++) {
+			shards.add(new CopyOnWriteArrayList<>());
+		}
+	}
+
+	/**
+	 * Borrows a free entry without ever blocking.
+	 * @return the borrowed entry, or null if there is no free one at the moment
+	 */
+	PoolEntry poll() {
+		PoolEntry entry = pollThreadLocal();
+		return (entry != null) ? entry : pollShared();
+	}
+
+	/**
+	 * Borrows a free entry, waiting for one to be returned or added if necessary.
+	 * @throws SQLException the failure reported by {@link #failWaiter(SQLException)} while waiting
+	 */
+	PoolEntry take() throws InterruptedException, SQLException {
+		return borrow(false, 0L);
+	}
+
+	/**
+	 * Borrows a free entry, waiting at most the given time for one to be returned or added.
+	 * @return the borrowed entry, or null if the time has elapsed before any entry got free
+	 */
+	PoolEntry poll(long timeout, TimeUnit unit) throws InterruptedException, SQLException {
+		return borrow(true, unit.toNanos(timeout));
+	}
+
+	/**
+	 * Borrows a free entry without blocking the calling thread. If there is no free entry, the returned
+	 * future gets completed by the thread returning or adding one, or by {@link #failWaiter(SQLException)}.
+	 * Completing the future otherwise, e.g. cancelling it, removes the waiter.
+	 */
+	CompletableFuture<PoolEntry> borrowAsync() {
+		PoolEntry entry = poll();
+		if (entry != null) {
+			return CompletableFuture.completedFuture(entry);
+		}
+
+		CompletableFuture<PoolEntry> waiter = new CompletableFuture<>();
+		int waitingBorrowers = waiters.get() + asyncWaiters.incrementAndGet();
+		asyncWaiterQueue.add(waiter);
+		waiter.whenComplete((borrowed, failure) -> {
+			if (waiter.isCompletedExceptionally()) {
+				removeAsyncWaiter(waiter);
+			}
+		});
+		//an entry might have got free before the waiter was queued, without anyone seeing the waiter
+		entry = pollShared();
+		if (entry != null) {
+			if (!waiter.complete(entry)) {
+				requite(entry);
+			}
+			removeAsyncWaiter(waiter);
+			return waiter;
+		}
+		listener.onBorrowMiss(waitingBorrowers);
+		return waiter;
+	}
+
+	private void removeAsyncWaiter(CompletableFuture<PoolEntry> waiter) {
+		if (asyncWaiterQueue.remove(waiter)) {
+			asyncWaiters.decrementAndGet();
+		}
+	}
+
+	private PoolEntry borrow(boolean timed, long timeoutNanos) throws InterruptedException, SQLException {
+		PoolEntry entry = pollThreadLocal();
+		if (entry != null) {
+			return entry;
+		}
+
+		int waitingBorrowers = waiters.incrementAndGet() + asyncWaiters.get();
+		try {
+			long deadline = System.nanoTime() + timeoutNanos;
+			entry = pollShared();
+			if (entry == null) {
+				listener.onBorrowMiss(waitingBorrowers);
+			}
+			while (entry == null) {
+				if (timed) {
+					long remainingNanos = deadline - System.nanoTime();
+					entry = (remainingNanos > 0) ? handoffQueue.poll(remainingNanos, TimeUnit.NANOSECONDS) : null;
+					if (entry == null) {
+						return null;
+					}
+				} else {
+					entry = handoffQueue.take();
+				}
+				if (entry instanceof CreationFailure) {
+					throw ((CreationFailure) entry).cause;
+				} else if (!entry.compareAndSetState(STATE_NOT_IN_USE, STATE_IN_USE)) {
+					entry = null;
+				}
+			}
+			return entry;
+		} finally {
+			waiters.decrementAndGet();
+		}
+	}
+
+	private PoolEntry pollThreadLocal() {
+		if (VirtualThreads.isVirtual(Thread.currentThread())) {
+			return null;
+		}
+		List<PoolEntry> localEntries = threadList.get();
+		for (int i = localEntries.size() - 1; i >= 0; i--) {
+			PoolEntry entry = localEntries.remove(i);
+			if (entry.compareAndSetState(STATE_NOT_IN_USE, STATE_IN_USE)) {
+				return entry;
+			}
+		}
+		return null;
+	}
+
+	private PoolEntry pollShared() {
+		int shardCount = shards.size();
+		int homeShard = (shardCount > 1) ? homeShardOf(Thread.currentThread(), shardCount) : 0;
+		for (int i = 0; i < shardCount; i++) {
+			for (PoolEntry entry : shards.get((homeShard + i) % shardCount)) {
+				if (entry.compareAndSetState(STATE_NOT_IN_USE, STATE_IN_USE)) {
+					return entry;
+				}
+			}
+		}
+		return null;
+	}
+
+	private static int homeShardOf(Thread thread, int shardCount) {
+		//thread ids are sequential, spread them so that neighbouring threads land in different shards evenly
+		long hash = thread.getId() * 0x9E3779B97F4A7C15L;
+		return (int) ((hash >>> 32) % shardCount);
+	}
+
+
+	/**
+	 * Returns a previously borrowed entry, handing it directly to a waiting thread if there is any.
+	 */
+	void requite(PoolEntry entry) {
+		entry.setState(STATE_NOT_IN_USE);
+		if (handOffToWaiter(entry) || VirtualThreads.isVirtual(Thread.currentThread())) {
+			return;
+		}
+		List<PoolEntry> localEntries = threadList.get();
+		//entries removed meanwhile by other threads must not be kept reachable from here
+		localEntries.removeIf(localEntry -> localEntry.getState() == STATE_REMOVED);
+		if (localEntries.size() < MAX_THREAD_LOCAL_ENTRIES) {
+			localEntries.add(entry);
+		}
+	}
+
+	/**
+	 * Adds a newly created free entry.
+	 */
+	void add(PoolEntry entry) {
+		smallestShard().add(entry);
+		handOffToWaiter(entry);
+	}
+
+	private List<PoolEntry> smallestShard() {
+		List<PoolEntry> smallestShard = shards.get(0);
+		for (List<PoolEntry> shard : shards) {
+			if (shard.size() < smallestShard.size()) {
+				smallestShard = shard;
+			}
+		}
+		return smallestShard;
+	}
+
+	/**
+	 * Wakes up one of the waiting threads, if there is any, and makes it fail with the given exception.
+	 * Used when the owner fails to create an entry some thread is waiting for.
+	 */
+	void failWaiter(SQLException cause) {
+		CompletableFuture<PoolEntry> waiter;
+		while ((waiter = pollAsyncWaiter()) != null) {
+			if (waiter.completeExceptionally(cause)) {
+				return;
+			}
+		}
+		//only to a blocked thread, an asynchronous waiter arriving meanwhile must not get the failure as an entry
+		handOffToBlockedWaiter(new CreationFailure(cause));
+	}
+
+	/**
+	 * Makes all the asynchronous borrowers waiting at the moment fail with the given exception.
+	 */
+	void failAsyncWaiters(SQLException cause) {
+		CompletableFuture<PoolEntry> waiter;
+		while ((waiter = pollAsyncWaiter()) != null) {
+			waiter.completeExceptionally(cause);
+		}
+	}
+
+	private CompletableFuture<PoolEntry> pollAsyncWaiter() {
+		CompletableFuture<PoolEntry> waiter = asyncWaiterQueue.poll();
+		if (waiter != null) {
+			asyncWaiters.decrementAndGet();
+		}
+		return waiter;
+	}
+
+	private boolean handOffToWaiter(PoolEntry entry) {
+		return (asyncWaiters.get() > 0 && handOffToAsyncWaiter(entry)) || handOffToBlockedWaiter(entry);
+	}
+
+	private boolean handOffToBlockedWaiter(PoolEntry entry) {
+		//waiters register before scanning the shared list, so while there is one we cannot just leave,
+		//it might have already missed this entry
+		for (int i = 0; waiters.get() > 0; i++) {
+			if (entry.getState() != STATE_NOT_IN_USE || handoffQueue.offer(entry)) {
+				return true;
+			} else if ((i & 0xff) == 0xff) {
+				LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(10));
+			} else {
+				Thread.yield();
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Completes the oldest asynchronous waiter with the entry, skipping those that gave up meanwhile.
+	 * @return false if there was no waiter left to take the entry, true if it got taken by a waiter or by anyone else
+	 */
+	private boolean handOffToAsyncWaiter(PoolEntry entry) {
+		//like with the blocked threads, a waiter that has registered might have already missed the entry
+		while (asyncWaiters.get() > 0) {
+			if (!entry.compareAndSetState(STATE_NOT_IN_USE, STATE_IN_USE)) {
+				return true;
+			}
+			CompletableFuture<PoolEntry> waiter = pollAsyncWaiter();
+			if (waiter != null && waiter.complete(entry)) {
+				return true;
+			}
+			entry.setState(STATE_NOT_IN_USE);
+		}
+		return false;
+	}
+
+	/**
+	 * Marks a free entry as borrowed without handing it to any borrower, so that its owner can
+	 * safely remove it from the bag.
+	 * @return false if the entry is not free anymore
+	 */
+	boolean reserve(PoolEntry entry) {
+		return entry.compareAndSetState(STATE_NOT_IN_USE, STATE_IN_USE);
+	}
+
+	/**
+	 * Permanently removes a borrowed entry from the bag.
+	 * @return false if the entry was not borrowed, i.e. it could not have been removed
+	 */
+	boolean remove(PoolEntry entry) {
+		if (!entry.compareAndSetState(STATE_IN_USE, STATE_REMOVED)) {
+			return false;
+		}
+		for (List<PoolEntry> shard : shards) {
+			if (shard.remove(entry)) {
+				break;
+			}
+		}
+		if (!VirtualThreads.isVirtual(Thread.currentThread())) {
+			threadList.get().remove(entry);
+		}
+		return true;
+	}
+
+
+	/**
+	 * @return snapshot of all the entries in the bag, whether borrowed or not
+	 */
+	List<PoolEntry> entries() {
+		List<PoolEntry> entries = new ArrayList<>();
+		for (List<PoolEntry> shard : shards) {
+			entries.addAll(shard);
+		}
+		return entries;
+	}
+
+	/**
+	 * @return number of entries that are free to be borrowed at the moment
+	 */
+	int getFreeCount() {
+		int freeCount = 0;
+		for (List<PoolEntry> shard : shards) {
+			for (PoolEntry entry : shard) {
+				if (entry.getState() == STATE_NOT_IN_USE) {
+					freeCount++;
+				}
+			}
+		}
+		return freeCount;
+	}
+
+	/**
+	 * @return number of borrowers waiting for an entry, both blocked threads and asynchronous ones
+	 */
+	int getWaitingBorrowerCount() {
+		return waiters.get() + asyncWaiters.get();
+	}
+
+	int size() {
+		int size = 0;
+		for (List<PoolEntry> shard : shards) {
+			size += shard.size();
+		}
+		return size;
+	}
+
+	//for test purposes
+	List<PoolEntry> threadLocalEntries() {
+		return threadList.get();
+	}
+
+
+	private static class CreationFailure extends PoolEntry {
+
+		private final SQLException cause;
+
+		CreationFailure(SQLException cause) {
+			super(null);
+			this.cause = cause;
+		}
+	}
+
+}
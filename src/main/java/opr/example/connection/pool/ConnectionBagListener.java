@@ -0,0 +1,11 @@
+package opr.example.connection.pool;
+
+
+interface ConnectionBagListener {
+
+	/**
+	 * Called whenever a borrower is about to wait for an entry because there is no free one.
+	 * @param waitingBorrowers number of borrowers waiting, including the calling one
+	 */
+	void onBorrowMiss(int waitingBorrowers);
+}
@@ -1,15 +1,37 @@
 package opr.example.connection.pool;
 
-import static opr.example.connection.factory.ConnectionFactory.CONN_CREATE_TIMEOUT;
-
+import java.lang.management.ManagementFactory;
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 import opr.example.connection.factory.ConnectionFactory;
+import opr.example.connection.factory.OriginTrackingConnectionFactory;
+import opr.example.connection.factory.TaggedConnection;
 import opr.example.connection.factory.SimpleConnectionFactory;
+import opr.example.connection.util.DaemonThreadFactory;
+import opr.example.connection.workload.WorkloadGate;
+import opr.example.connection.workload.WorkloadStats;
 
 
 /**
@@ -18,77 +40,1027 @@ import opr.example.connection.factory.SimpleConnectionFactory;
  * Actual connections are obtained using the given {@link SimpleConnectionFactory}.
  * 
  * New connections are being created lazily, i.e. only if someone requests it and
- * there is no free connection available. Once created, the connection remains in the
- * pool until a "higher force" makes it closed or invalid. This can for example happen
- * due to a DB error, but is generally independent from how the pool operates. 
+ * there is no free connection available. The creation itself runs on background filler
+ * threads, while the requesting thread takes whichever connection comes first - either
+ * the newly created one, or one returned meanwhile by someone else.
+ * 
+ * The pool can be used from virtual threads. Borrowing, returning and creating connections never
+ * block while holding a monitor, so a waiting virtual thread does not pin its carrier. The creation
+ * runs on a bounded number of platform filler threads, so the blocking connect of the driver, which
+ * typically holds monitors, never pins a carrier either, no matter how many virtual threads are waiting.
+ * 
+ * Optionally, the pool can keep a minimal number of connections open all the time. Those
+ * are opened by {@link #warmUp()} before the pool gets any traffic, and they are being
+ * re-opened in background whenever some get closed.
+ * 
+ * Once created, the connection remains in the pool until a "higher force" makes it
+ * closed or invalid. This can for example happen due to a DB error, but is generally
+ * independent from how the pool operates. Broken connections are detected by validation,
+ * done either on return or on borrow as configured by {@link ValidationMode}. Optionally,
+ * a background housekeeper retires connections that have been idle or alive for too long.
+ * It can also report connections borrowed for too long, and reclaim those that have been lost
+ * by their borrowers without being closed, see {@link LeakDetector}.
+ * 
+ * Each connection remembers the factory it comes from, which may differ from the pool's factory if that
+ * one is an {@link OriginTrackingConnectionFactory}. This allows to gradually replace connections of
+ * some origin, see {@link #drainConnectionsFrom(ConnectionFactory)}, or to close them all at once when their
+ * origin fails, see {@link #evictConnectionsFrom(ConnectionFactory)}.
+ * 
+ * Returned connections get their open transaction rolled back and the session properties changed
+ * by the borrower restored, see {@link ConnectionState}.
+ * 
+ * Free connections are kept in a {@link ConnectionBag}, so a thread usually gets back
+ * the very connection it has returned last, without contending with other threads.
+ * 
+ * The max pool size can be changed at runtime, see {@link #setMaxPoolSize(int)}. Optionally, the pool
+ * limits itself further by adapting to the observed load, see {@link AdaptivePoolLimit}. Lowering the limit
+ * closes free connections above it right away and borrowed ones once returned.
+ * 
+ * Borrowers can be split into workload classes, each with a guaranteed and a max share of the pool
+ * and a priority, see {@link #getConnection(String)}.
+ * 
+ * The pool keeps counters and duration histograms of its activity, see {@link #getStats()}.
+ * Given a name, it also registers itself as {@link ConnectionPoolMXBean} with the platform MBean server.
  */
-public class ConnectionPool {
+public class ConnectionPool implements ConnectionPoolMXBean {
+
+	private static final int MAX_BACKGROUND_THREADS = 4;
+	private static final long BACKGROUND_THREAD_KEEP_ALIVE_SECONDS = 60L;
+	private static final int MAX_LIFETIME_JITTER_DIVISOR = 40; //i.e. up to 2.5% shorter lifetime
+	private static final int VALIDATION_WATCHDOG_CHECKS_PER_TIMEOUT = 4;
+	private static final String MBEAN_NAME_PREFIX = "opr.example.connection:type=ConnectionPool,name=";
 
-	private final int maxPoolSize;
+	private final int minIdle;
+	private final ValidationMode validationMode;
+	private final long validationIntervalNanos;
+	private final ConnectionValidator validator;
+	private final long validationTimeoutNanos;
+	private final int validationTimeoutSeconds;
+	private final AtomicBoolean isValidationWatchdogStarted = new AtomicBoolean(false);
+	private final long idleTimeoutNanos;
+	private final long maxLifetimeNanos;
+	private final int statementCacheSize;
+	private final PoolMetrics metrics = new PoolMetrics();
 	private final ConnectionFactory connectionFactory;
+	private final OriginTrackingConnectionFactory originTrackingFactory;
+	private final long drainPeriodNanos;
 	
-	private final AtomicInteger poolSize = new AtomicInteger(0);
-	private final BlockingQueue<Connection> freeConnections;
+	private final PaddedAtomicInteger poolSize = new PaddedAtomicInteger(0);
+	private final PaddedAtomicInteger pendingCreations = new PaddedAtomicInteger(0);
+	private final ConnectionBag freeConnections;
+	private final ThreadPoolExecutor connectionFiller;
+	private final ThreadPoolExecutor backgroundValidator;
+	private final LeakDetector leakDetector;
+	private final ScheduledExecutorService housekeeper;
+	private final ObjectName mbeanName;
+
+	private final WorkloadGate workloadGate;
+	private final BorrowListener borrowListener;
+	private final AdaptivePoolLimit adaptiveLimit;
+	private final int minPoolSizeLimit;
+
+	private final Lock sizingLock = new ReentrantLock();
+	//written under sizingLock
+	private volatile int maxPoolSize;
+	private volatile int poolSizeLimit;
+
+	private final Lock drainLock = new ReentrantLock();
+	//guarded by drainLock
+	private ConnectionFactory drainedOrigin;
+	private ScheduledFuture<?> drainTask;
+
+	private volatile boolean isShutDown = false;
 	
 	
 	public ConnectionPool(int maxPoolSize, ConnectionFactory connectionFactory) {
-		this.maxPoolSize = maxPoolSize;
+		this(new ConnectionPoolConfig(maxPoolSize), connectionFactory);
+	}
+
+	public ConnectionPool(ConnectionPoolConfig config, ConnectionFactory connectionFactory) {
+		this.maxPoolSize = config.getMaxPoolSize();
+		this.poolSizeLimit = maxPoolSize;
+		this.minPoolSizeLimit = config.getMinPoolSizeLimit();
+		this.adaptiveLimit = config.isAdaptiveSizing() ? new AdaptivePoolLimit(metrics) : null;
+		this.workloadGate = new WorkloadGate(config.getWorkloadClasses(), this::getPoolSizeLimit);
+		this.borrowListener = config.getBorrowListener();
+		this.minIdle = config.getMinIdle();
+		this.validationMode = config.getValidationMode();
+		this.validationIntervalNanos = TimeUnit.MILLISECONDS.toNanos(config.getValidationIntervalMillis());
+		this.validator = config.getValidator();
+		this.validationTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(config.getValidationTimeoutMillis());
+		//rounded up, as zero would mean no timeout at all to the driver
+		this.validationTimeoutSeconds = (int) Math.max(1L,
+				TimeUnit.MILLISECONDS.toSeconds(config.getValidationTimeoutMillis() + 999L));
 		this.connectionFactory = connectionFactory;
-		this.freeConnections = new ArrayBlockingQueue<>(maxPoolSize, true);
+		this.originTrackingFactory = (connectionFactory instanceof OriginTrackingConnectionFactory)
+				? (OriginTrackingConnectionFactory) connectionFactory
+				: null;
+		this.drainPeriodNanos = TimeUnit.SECONDS.toNanos(1) / config.getDrainRatePerSecond();
+		this.freeConnections = new ConnectionBag(this::addConnectionsFor, config.getShardCount());
+		int backgroundThreadCount = Math.min(maxPoolSize, MAX_BACKGROUND_THREADS);
+		this.connectionFiller = createBackgroundExecutor(backgroundThreadCount, "ConnectionPool filler");
+		this.backgroundValidator = (validationMode == ValidationMode.ON_RETURN_ASYNC)
+				? createBackgroundExecutor(backgroundThreadCount, "ConnectionPool validator")
+				: null;
+		this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(config.getIdleTimeoutMillis());
+		this.maxLifetimeNanos = TimeUnit.MILLISECONDS.toNanos(config.getMaxLifetimeMillis());
+		this.statementCacheSize = config.getStatementCacheSize();
+		long leakDetectionThresholdMillis = config.getLeakDetectionThresholdMillis();
+		this.leakDetector = (leakDetectionThresholdMillis > 0 || config.isReclaimLeakedConnections())
+				? new LeakDetector(TimeUnit.MILLISECONDS.toNanos(leakDetectionThresholdMillis),
+						config.isReclaimLeakedConnections())
+				: null;
+		long housekeepingPeriodMillis = (leakDetectionThresholdMillis > 0)
+				? Math.min(config.getHousekeepingPeriodMillis(), leakDetectionThresholdMillis)
+				: config.getHousekeepingPeriodMillis();
+		this.housekeeper = createHousekeeper();
+		if (idleTimeoutNanos > 0 || maxLifetimeNanos > 0 || minIdle > 0 || leakDetector != null) {
+			//the housekeeper's thread gets started only once there is some work scheduled
+			housekeeper.scheduleWithFixedDelay(
+					this::keepHouse, housekeepingPeriodMillis, housekeepingPeriodMillis, TimeUnit.MILLISECONDS);
+		}
+		if (adaptiveLimit != null) {
+			long adaptiveSizingPeriodMillis = config.getAdaptiveSizingPeriodMillis();
+			housekeeper.scheduleWithFixedDelay(this::adaptPoolSizeLimit,
+					adaptiveSizingPeriodMillis, adaptiveSizingPeriodMillis, TimeUnit.MILLISECONDS);
+		}
+		this.mbeanName = (config.getPoolName() != null) ? registerMBean(config.getPoolName()) : null;
+	}
+
+	private ObjectName registerMBean(String poolName) {
+		try {
+			ObjectName name = new ObjectName(MBEAN_NAME_PREFIX + ObjectName.quote(poolName));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+			return name;
+		} catch (JMException e) {
+			throw new IllegalStateException("Cannot register MBean of connection pool " + poolName, e);
+		}
+	}
+
+	private static ScheduledExecutorService createHousekeeper() {
+		ScheduledThreadPoolExecutor executor =
+				new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("ConnectionPool housekeeper"));
+		//timeouts of asynchronous borrows get mostly cancelled, they must not pile up until they are due
+		executor.setRemoveOnCancelPolicy(true);
+		return executor;
+	}
+
+	private void resizeBackgroundExecutors(int threadCount) {
+		resizeBackgroundExecutor(connectionFiller, threadCount);
+		if (backgroundValidator != null) {
+			resizeBackgroundExecutor(backgroundValidator, threadCount);
+		}
+	}
+
+	private static void resizeBackgroundExecutor(ThreadPoolExecutor executor, int threadCount) {
+		//the core size must never get above the max size, not even in between
+		if (threadCount > executor.getMaximumPoolSize()) {
+			executor.setMaximumPoolSize(threadCount);
+			executor.setCorePoolSize(threadCount);
+		} else {
+			executor.setCorePoolSize(threadCount);
+			executor.setMaximumPoolSize(threadCount);
+		}
+	}
+
+	private static ThreadPoolExecutor createBackgroundExecutor(int threadCount, String threadName) {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(
+				threadCount, threadCount,
+				BACKGROUND_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(),
+				new DaemonThreadFactory(threadName));
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
 	}
 
 
 	public Connection getConnection() throws InterruptedException, SQLException {
-		createConnectionIfNoOneIsFreeButLimitAllows();
-		Connection conn = freeConnections.take();
-		return wrapConnection(conn);
+		blowIfShutDown();
+		return borrow(null);
+	}
+
+	/**
+	 * Same as {@link #getConnection()}, but waits at most the given time for a connection to get free.
+	 * @throws ConnectionTimeoutException if no connection got free in time
+	 */
+	public Connection getConnection(long timeout, TimeUnit unit) throws InterruptedException, SQLException {
+		blowIfShutDown();
+		return borrow(timeout, unit, null);
+	}
+
+	/**
+	 * Same as {@link #getConnection()}, on behalf of the given {@link ConnectionPoolConfig#addWorkloadClass
+	 * workload class}. The borrower may have to wait for its turn first, see {@link WorkloadGate}.
+	 * @throws IllegalArgumentException if there is no workload class of the given name
+	 */
+	public Connection getConnection(String workloadName) throws InterruptedException, SQLException {
+		blowIfShutDown();
+		workloadGate.enter(workloadName, -1L);
+		try {
+			return borrow(workloadName);
+		} catch (InterruptedException | SQLException | RuntimeException e) {
+			workloadGate.release(workloadName);
+			throw e;
+		}
+	}
+
+	/**
+	 * Same as {@link #getConnection(String)}, but waits at most the given time for the turn and for a connection.
+	 * @throws ConnectionTimeoutException if no connection got free in time
+	 */
+	public Connection getConnection(String workloadName, long timeout, TimeUnit unit)
+			throws InterruptedException, SQLException {
+		blowIfShutDown();
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		if (!workloadGate.enter(workloadName, unit.toNanos(timeout))) {
+			metrics.timeouts.increment();
+			throw new ConnectionTimeoutException("Workload " + workloadName + " got no turn within "
+					+ unit.toMillis(timeout) + " ms, pool size is " + poolSize.get());
+		}
+		try {
+			long remainingNanos = Math.max(deadline - System.nanoTime(), 0L);
+			return borrow(remainingNanos, TimeUnit.NANOSECONDS, workloadName);
+		} catch (InterruptedException | SQLException | RuntimeException e) {
+			workloadGate.release(workloadName);
+			throw e;
+		}
+	}
+
+	/**
+	 * @param workloadName the workload class to release once the connection is returned, null if none
+	 */
+	private Connection borrow(String workloadName) throws InterruptedException, SQLException {
+		long start = System.nanoTime();
+		PoolEntry entry;
+		do {
+			entry = freeConnections.take();
+		} while (!isValidOnBorrow(entry));
+		return wrapConnection(entry, start, workloadName);
+	}
+
+	private Connection borrow(long timeout, TimeUnit unit, String workloadName)
+			throws InterruptedException, SQLException {
+		long start = System.nanoTime();
+		long deadline = start + unit.toNanos(timeout);
+		PoolEntry entry;
+		do {
+			entry = freeConnections.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+			if (entry == null) {
+				metrics.timeouts.increment();
+				throw new ConnectionTimeoutException(
+						"No connection got free within " + unit.toMillis(timeout) + " ms, pool size is " + poolSize.get());
+			}
+		} while (!isValidOnBorrow(entry));
+		return wrapConnection(entry, start, workloadName);
+	}
+
+	/**
+	 * Same as {@link #getConnection()}, but never blocks the calling thread. If no connection is free,
+	 * the returned stage gets completed once one is returned or created, by the thread returning or
+	 * creating it; heavy work depending on the stage should rather be run by its *Async methods.
+	 * Cancelling the stage, see {@link CompletionStage#toCompletableFuture()}, stops waiting.
+	 */
+	public CompletionStage<Connection> getConnectionAsync() {
+		CompletableFuture<Connection> result = new CompletableFuture<>();
+		if (isShutDown) {
+			result.completeExceptionally(new SQLException("Connection pool has been shut down"));
+			return result;
+		}
+		borrowAsync(result, System.nanoTime());
+		return result;
+	}
+
+	/**
+	 * Same as {@link #getConnectionAsync()}, but waits at most the given time for a connection to get free.
+	 * The stage fails with {@link ConnectionTimeoutException} if no connection got free in time.
+	 */
+	public CompletionStage<Connection> getConnectionAsync(long timeout, TimeUnit unit) {
+		CompletableFuture<Connection> result = getConnectionAsync().toCompletableFuture();
+		if (result.isDone()) {
+			return result;
+		}
+		ScheduledFuture<?> timeoutTask = housekeeper.schedule(() -> {
+			if (result.completeExceptionally(new ConnectionTimeoutException(
+					"No connection got free within " + unit.toMillis(timeout) + " ms, pool size is " + poolSize.get()))) {
+				metrics.timeouts.increment();
+			}
+		}, timeout, unit);
+		result.whenComplete((conn, failure) -> timeoutTask.cancel(false));
+		return result;
+	}
+
+	private void borrowAsync(CompletableFuture<Connection> result, long start) {
+		CompletableFuture<PoolEntry> waiter = freeConnections.borrowAsync();
+		//the waiter gets removed from the bag once the borrower gives up
+		result.whenComplete((conn, failure) -> waiter.cancel(false));
+		waiter.whenComplete((entry, failure) -> {
+			if (failure != null) {
+				result.completeExceptionally(failure);
+			} else if (result.isDone()) {
+				freeConnections.requite(entry);
+			} else if (!isValidOnBorrow(entry)) {
+				borrowAsync(result, start);
+			} else {
+				Connection conn = wrapConnection(entry, start, null);
+				if (!result.complete(conn)) {
+					doQuietly(conn::close);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Returns a connection only if one is free right now, never waiting for other users to return
+	 * theirs nor for a new one to be created. If the pool is not saturated yet, the miss makes
+	 * the pool create a new connection in background, so that a later attempt can succeed.
+	 * @return the connection, or null if there is no free connection
+	 */
+	public Connection tryGetConnection() throws SQLException {
+		blowIfShutDown();
+		long start = System.nanoTime();
+		PoolEntry entry;
+		do {
+			entry = freeConnections.poll();
+			if (entry == null) {
+				addConnectionsFor(freeConnections.getWaitingBorrowerCount() + 1);
+				return null;
+			}
+		} while (!isValidOnBorrow(entry));
+		return wrapConnection(entry, start, null);
+	}
+
+	/**
+	 * Eagerly opens connections up to the configured {@link ConnectionPoolConfig#setMinIdle(int) min idle}
+	 * count, in parallel, and waits until all the attempts finish. Meant to be called on startup,
+	 * before the pool gets any traffic.
+	 */
+	public WarmUpReport warmUp() throws InterruptedException {
+		long start = System.nanoTime();
+		List<Future<Boolean>> creations = new ArrayList<>();
+		int missingConnections = minIdle - poolSize.get();
+		for (; missingConnections > 0 && reservePoolSlot(Math.min(minIdle, poolSizeLimit)); missingConnections--) {
+			pendingCreations.incrementAndGet();
+			try {
+				creations.add(connectionFiller.submit(this::createFreeConnection));
+			} catch (RejectedExecutionException e) {
+				releaseCreationSlot();
+				break;
+			}
+		}
+
+		int failedConnections = 0;
+		for (Future<Boolean> creation : creations) {
+			if (!waitFor(creation)) {
+				failedConnections++;
+			}
+		}
+		long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		return new WarmUpReport(creations.size() - failedConnections, failedConnections, durationMillis);
+	}
+
+	private static boolean waitFor(Future<Boolean> creation) throws InterruptedException {
+		try {
+			return creation.get();
+		} catch (ExecutionException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Stops all background activity of the pool and closes its free connections. Connections that are
+	 * borrowed at the moment get closed once returned. The pool cannot be used anymore afterwards.
+	 */
+	public void shutDown() {
+		isShutDown = true;
+		connectionFiller.shutdown();
+		if (backgroundValidator != null) {
+			backgroundValidator.shutdown();
+		}
+		housekeeper.shutdown();
+		freeConnections.failAsyncWaiters(new SQLException("Connection pool has been shut down"));
+		if (mbeanName != null) {
+			unregisterMBean();
+		}
+		for (PoolEntry entry : freeConnections.entries()) {
+			if (freeConnections.reserve(entry)) {
+				discardConnection(entry);
+			}
+		}
+	}
+
+	private void unregisterMBean() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+		} catch (JMException ignore) {}
+	}
+
+	/**
+	 * @return current state of the pool together with all the metrics collected so far
+	 */
+	@Override
+	public PoolStats getStats() {
+		int idleConnections = freeConnections.getFreeCount();
+		return new PoolStats(
+				maxPoolSize,
+				poolSizeLimit,
+				Math.max(freeConnections.size() - idleConnections, 0),
+				idleConnections,
+				pendingCreations.get(),
+				freeConnections.getWaitingBorrowerCount(),
+				metrics);
+	}
+
+	@Override
+	public int getMaxPoolSize() {
+		return maxPoolSize;
+	}
+
+	/**
+	 * Changes the max pool size at runtime. Lowering it closes free connections above the new size
+	 * right away and borrowed ones once returned. With adaptive sizing, the current limit is kept
+	 * within the new max pool size.
+	 */
+	@Override
+	public void setMaxPoolSize(int maxPoolSize) {
+		if (maxPoolSize < 1) {
+			throw new IllegalArgumentException("Max pool size must be positive: " + maxPoolSize);
+		}
+		sizingLock.lock();
+		try {
+			this.maxPoolSize = maxPoolSize;
+			resizeBackgroundExecutors(Math.min(maxPoolSize, MAX_BACKGROUND_THREADS));
+			int newLimit = (adaptiveLimit != null)
+					? Math.max(Math.min(minPoolSizeLimit, maxPoolSize), Math.min(poolSizeLimit, maxPoolSize))
+					: maxPoolSize;
+			changePoolSizeLimit(newLimit);
+		} finally {
+			sizingLock.unlock();
+		}
+	}
+
+	/**
+	 * @return how many connections may the pool open at the moment, i.e. the max pool size, or less if
+	 * adaptive sizing has lowered it
+	 */
+	@Override
+	public int getPoolSizeLimit() {
+		return poolSizeLimit;
+	}
+
+	//for test purposes
+	int getConnectionFillerThreadCount() {
+		return connectionFiller.getMaximumPoolSize();
+	}
+
+	//for test purposes
+	void adaptPoolSizeLimit() {
+		sizingLock.lock();
+		try {
+			int limit = poolSizeLimit;
+			changePoolSizeLimit(adaptiveLimit.update(limit, Math.min(minPoolSizeLimit, maxPoolSize), maxPoolSize,
+					poolSize.get() >= limit, freeConnections.getWaitingBorrowerCount()));
+		} finally {
+			sizingLock.unlock();
+		}
+	}
+
+	private void changePoolSizeLimit(int newLimit) {
+		int oldLimit = poolSizeLimit;
+		poolSizeLimit = newLimit;
+		if (newLimit < oldLimit) {
+			retireConnectionsAboveLimit();
+		} else if (newLimit > oldLimit) {
+			addConnectionsFor(freeConnections.getWaitingBorrowerCount());
+			workloadGate.onPoolSizeLimitRaised();
+		}
+	}
+
+	private void retireConnectionsAboveLimit() {
+		for (PoolEntry entry : freeConnections.entries()) {
+			if (poolSize.get() <= poolSizeLimit) {
+				return;
+			}
+			if (freeConnections.reserve(entry)) {
+				discardConnection(entry);
+			}
+		}
+	}
+
+	@Override
+	public int getActiveConnections() {
+		return Math.max(freeConnections.size() - freeConnections.getFreeCount(), 0);
+	}
+
+	@Override
+	public int getIdleConnections() {
+		return freeConnections.getFreeCount();
+	}
+
+	@Override
+	public int getPendingCreations() {
+		return pendingCreations.get();
+	}
+
+	@Override
+	public int getWaitingThreads() {
+		return freeConnections.getWaitingBorrowerCount();
+	}
+
+	/**
+	 * @return activity of the given workload class
+	 * @throws IllegalArgumentException if there is no workload class of the given name
+	 */
+	public WorkloadStats getWorkloadStats(String workloadName) {
+		return workloadGate.getStats(workloadName);
+	}
+
+	public StatementCacheStats getStatementCacheStats() {
+		return metrics.statementCache.snapshot();
+	}
+
+	/**
+	 * Gradually replaces the connections created by the given factory with new ones, e.g. the slave connections
+	 * with master connections once the master has recovered. Free connections of that origin are retired one by one
+	 * at the configured {@link ConnectionPoolConfig#setDrainRatePerSecond(int) rate}, each of them replaced
+	 * in background right away. Borrowed ones get marked as evicted, so that they are closed once returned.
+	 * Only one origin is drained at a time, a new drain replaces the previous one.
+	 */
+	public void drainConnectionsFrom(ConnectionFactory origin) {
+		drainLock.lock();
+		try {
+			if (isShutDown) {
+				return;
+			}
+			stopDrain();
+			drainedOrigin = origin;
+			drainTask = housekeeper.scheduleWithFixedDelay(
+					this::drainOneConnection, drainPeriodNanos, drainPeriodNanos, TimeUnit.NANOSECONDS);
+		} finally {
+			drainLock.unlock();
+		}
+	}
+
+	/**
+	 * Closes all connections created by the given factory, e.g. once the factory is known to have failed,
+	 * so that borrowers don't discover the broken connections one by one. Free connections are aborted right away,
+	 * see {@link Connection#abort(java.util.concurrent.Executor)}, so that the caller does not wait for a database that may not answer
+	 * anymore. Borrowed ones get closed once returned, and replacements are created as needed by the waiting
+	 * borrowers.
+	 */
+	public void evictConnectionsFrom(ConnectionFactory origin) {
+		drainLock.lock();
+		try {
+			if (drainedOrigin == origin) {
+				stopDrain();
+			}
+		} finally {
+			drainLock.unlock();
+		}
+		for (PoolEntry entry : freeConnections.entries()) {
+			if (entry.getOrigin() == origin) {
+				//marking first, so that a parallel borrower taking the entry meanwhile discards it
+				entry.markEvicted();
+				if (freeConnections.reserve(entry)) {
+					discardUnresponsiveConnection(entry);
+				}
+			}
+		}
+	}
+
+	private void stopDrain() {
+		drainLock.lock();
+		try {
+			if (drainTask != null) {
+				drainTask.cancel(false);
+				drainTask = null;
+				drainedOrigin = null;
+			}
+		} finally {
+			drainLock.unlock();
+		}
+	}
+
+	private void drainOneConnection() {
+		ConnectionFactory origin;
+		drainLock.lock();
+		try {
+			origin = drainedOrigin;
+		} finally {
+			drainLock.unlock();
+		}
+		boolean isAnyLeft = false;
+		for (PoolEntry entry : freeConnections.entries()) {
+			if (entry.getOrigin() != origin) {
+				continue;
+			}
+			isAnyLeft = true;
+			if (freeConnections.reserve(entry)) {
+				discardConnection(entry);
+				replaceConnection();
+				return;
+			}
+			//borrowed, so let it be closed once returned rather than get back among the free ones
+			entry.markEvicted();
+		}
+		if (!isAnyLeft) {
+			stopDrain();
+		}
+	}
+
+	private void replaceConnection() {
+		if (!isShutDown && reservePoolSlot(poolSizeLimit)) {
+			createConnectionInBackground();
+		}
+	}
+
+	private void blowIfShutDown() throws SQLException {
+		if (isShutDown) {
+			throw new SQLException("Connection pool has been shut down");
+		}
+	}
+
+	private Connection wrapConnection(PoolEntry entry, long borrowStartNanos, String workloadName) {
+		entry.markBorrowed();
+		entry.setWorkloadName(workloadName);
+		metrics.borrows.increment();
+		metrics.borrowWait.record(entry.getBorrowNanos() - borrowStartNanos);
+		PooledConnectionListener returnListener = entry.getReturnListener();
+		if (returnListener == null) {
+			returnListener = closedConnection -> onPooledConnectionClose(entry);
+			entry.setReturnListener(returnListener);
+		}
+		//a new wrapper for every borrow, so that the closed wrappers of the previous borrowers stay closed
+		PooledConnection connection = new PooledConnection(
+				entry.getConnection(),
+				returnListener,
+				entry.getStatementCache(),
+				entry.getConnectionState(),
+				entry.getOpenStatements());
+		if (leakDetector != null) {
+			leakDetector.onBorrow(entry, connection);
+		}
+		if (borrowListener != null) {
+			borrowListener.onBorrowed();
+		}
+		return connection;
+	}
+
+
+	/**
+	 * Makes sure there are enough connections being created for the given number of waiting borrowers,
+	 * as far as the pool size limit allows. Creations requested by parallel borrowers are coalesced,
+	 * i.e. a borrower will not request a new connection if there already is one being created for it.
+	 */
+	private void addConnectionsFor(int waitingBorrowers) {
+		if (isShutDown) {
+			return;
+		}
+		int missingConnections = waitingBorrowers - pendingCreations.get();
+		for (; missingConnections > 0 && reservePoolSlot(poolSizeLimit); missingConnections--) {
+			if (!createConnectionInBackground()) {
+				return;
+			}
+		}
 	}
 
-	private Connection wrapConnection(Connection conn) {
-		return new PooledConnection(conn, this::onPooledConnectionClose);
+	/**
+	 * Tops the pool up to the configured min idle count in background.
+	 */
+	private void fillToMinIdle() {
+		if (isShutDown) {
+			return;
+		}
+		//the number of attempts is fixed upfront, failing creations release their slots right away
+		//and must not be retried over and over again while the database is down
+		int missingConnections = minIdle - poolSize.get();
+		for (; missingConnections > 0 && reservePoolSlot(Math.min(minIdle, poolSizeLimit)); missingConnections--) {
+			if (!createConnectionInBackground()) {
+				return;
+			}
+		}
 	}
 
-	private void createConnectionIfNoOneIsFreeButLimitAllows() throws SQLException {
-		if (freeConnections.isEmpty()) {
-			createConnectionIfLimitAllows();
+	/**
+	 * Has a connection created by the filler, for the pool slot the caller has reserved.
+	 * @return false if the filler has been shut down meanwhile, in which case the slot is released
+	 */
+	private boolean createConnectionInBackground() {
+		pendingCreations.incrementAndGet();
+		try {
+			connectionFiller.execute(this::createFreeConnection);
+			return true;
+		} catch (RejectedExecutionException e) {
+			releaseCreationSlot();
+			return false;
 		}
 	}
 
-	private void createConnectionIfLimitAllows() throws SQLException {
+	private void releaseCreationSlot() {
+		pendingCreations.decrementAndGet();
+		poolSize.decrementAndGet();
+	}
+
+	private boolean reservePoolSlot(int sizeLimit) {
 		while (true) {
 			int currentSize = poolSize.get();
-			boolean isSaturated = (currentSize >= maxPoolSize);
+			boolean isSaturated = (currentSize >= sizeLimit);
 			if (isSaturated) {
-				return;
+				return false;
 			} else if (poolSize.compareAndSet(currentSize, currentSize+1)) {
-				createFreeConnection();
-				return;
+				return true;
 			} else {
 				//someone just interfered with the pool changing it's size, let's retry
 			}
 		}
 	}
 
-	private void createFreeConnection() throws SQLException {
-		Connection conn = connectionFactory.createConnection();
-		freeConnections.offer(conn);
+	private boolean createFreeConnection() {
+		Connection conn;
+		ConnectionFactory origin;
+		long start = System.nanoTime();
+		try {
+			if (originTrackingFactory != null) {
+				TaggedConnection tagged = originTrackingFactory.createTaggedConnection();
+				conn = tagged.getConnection();
+				origin = tagged.getOrigin();
+			} else {
+				conn = connectionFactory.createConnection();
+				origin = connectionFactory;
+			}
+		} catch (SQLException | RuntimeException e) {
+			metrics.creationFailures.increment();
+			releaseCreationSlot();
+			freeConnections.failWaiter(asSQLException(e));
+			return false;
+		}
+		//rather stop counting the creation as pending a bit early, at worst a parallel borrower requests
+		//one connection more than needed, instead of waiting for a connection nobody creates
+		pendingCreations.decrementAndGet();
+		metrics.creation.record(System.nanoTime() - start);
+		StatementCache statementCache = (statementCacheSize > 0)
+				? new StatementCache(statementCacheSize, metrics.statementCache)
+				: null;
+		PoolEntry entry = new PoolEntry(conn, origin, randomizedLifetimeNanos(), statementCache);
+		freeConnections.add(entry);
+		return !discardIfShutDown(entry);
+	}
+
+	/**
+	 * Shutting down closes only the free connections it finds, so a connection that gets free meanwhile
+	 * has to be closed by whoever has freed it.
+	 * @return true if the pool has been shut down and the connection discarded
+	 */
+	private boolean discardIfShutDown(PoolEntry entry) {
+		if (isShutDown && freeConnections.reserve(entry)) {
+			discardConnection(entry);
+			return true;
+		}
+		return false;
+	}
+
+	private long randomizedLifetimeNanos() {
+		if (maxLifetimeNanos <= 0) {
+			return Long.MAX_VALUE;
+		}
+		long jitter = ThreadLocalRandom.current().nextLong(maxLifetimeNanos / MAX_LIFETIME_JITTER_DIVISOR + 1);
+		return maxLifetimeNanos - jitter;
+	}
+
+	private static SQLException asSQLException(Exception e) {
+		return (e instanceof SQLException) ? (SQLException) e : new SQLException("Failed to create connection", e);
 	}
 
 	
-	private void onPooledConnectionClose(PooledConnection closedConnection) {
-		Connection delegate = closedConnection.getDelegate();
-		if (isConnectionOperational(delegate)) {
-			freeConnections.offer(delegate);
+	private void onPooledConnectionClose(PoolEntry entry) {
+		entry.markReturned();
+		releaseWorkload(entry);
+		metrics.usage.record(entry.getNanosBorrowed());
+		if (borrowListener != null) {
+			borrowListener.onReturned(entry.getNanosBorrowed());
+		}
+		//still on the returning thread, before anybody else can get the connection
+		int unclosedStatements = entry.getOpenStatements().closeAll();
+		if (unclosedStatements > 0) {
+			metrics.unclosedStatements.add(unclosedStatements);
+		}
+		if (leakDetector != null) {
+			if (unclosedStatements > 0) {
+				leakDetector.reportUnclosedStatements(entry, unclosedStatements);
+			}
+			leakDetector.onReturn(entry);
+		}
+		if (isShutDown || entry.isExpired() || entry.isEvicted() || poolSize.get() > poolSizeLimit) {
+			discardConnection(entry);
+			return;
+		}
+		switch (validationMode) {
+		case ON_RETURN:
+			returnIfOperational(entry);
+			break;
+		case ON_RETURN_ASYNC:
+			try {
+				backgroundValidator.execute(() -> returnIfOperational(entry));
+			} catch (RejectedExecutionException e) {
+				//shut down after the check above
+				discardConnection(entry);
+			}
+			break;
+		case ON_BORROW:
+			if (isConnectionOpen(entry.getConnection()) && isStateReset(entry)) {
+				entry.markAlive();
+				freeConnections.requite(entry);
+			} else {
+				discardConnection(entry);
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Lets the workload class the connection was borrowed on behalf of know it is done with it. Done by
+	 * the pool rather than by the connection handed to the borrower, so that it happens however the
+	 * connection comes back, be it closed through one of its statements, or reclaimed once lost.
+	 */
+	private void releaseWorkload(PoolEntry entry) {
+		String workloadName = entry.getWorkloadName();
+		if (workloadName != null) {
+			entry.setWorkloadName(null);
+			workloadGate.release(workloadName);
+		}
+	}
+
+	private void reclaimConnection(PoolEntry entry) {
+		releaseWorkload(entry);
+		if (borrowListener != null) {
+			borrowListener.onReclaimed();
+		}
+		discardConnection(entry);
+	}
+
+	private void returnIfOperational(PoolEntry entry) {
+		if (isConnectionOperational(entry) && isStateReset(entry)) {
+			freeConnections.requite(entry);
+			//validated in background, while the pool may have been shut down
+			discardIfShutDown(entry);
 		} else {
-			doQuietly(() -> delegate.close());
-			poolSize.decrementAndGet();
-			doQuietly(() -> createConnectionIfLimitAllows());
+			discardConnection(entry);
+		}
+	}
+
+	/**
+	 * Undoes whatever the borrower did to the connection's session, see {@link ConnectionState}.
+	 * @return false if the connection failed to reset, i.e. it should not be used anymore
+	 */
+	private static boolean isStateReset(PoolEntry entry) {
+		try {
+			entry.getConnectionState().reset(entry.getConnection());
+			return true;
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	private boolean isValidOnBorrow(PoolEntry entry) {
+		if (entry.isEvicted()) {
+			discardConnection(entry);
+			return false;
+		}
+		if (validationMode != ValidationMode.ON_BORROW || isConnectionOperational(entry)) {
+			return true;
+		}
+		discardConnection(entry);
+		return false;
+	}
+
+	private void discardConnection(PoolEntry entry) {
+		freeConnections.remove(entry);
+		doQuietly(() -> entry.getConnection().close());
+		onConnectionDiscarded();
+	}
+
+	/**
+	 * Same as {@link #discardConnection(PoolEntry)}, but aborts the connection rather than closing it.
+	 * The actual closing runs on the filler, or right away once the filler has been shut down.
+	 */
+	private void discardUnresponsiveConnection(PoolEntry entry) {
+		freeConnections.remove(entry);
+		Connection delegate = entry.getConnection();
+		try {
+			delegate.abort(connectionFiller);
+		} catch (SQLException | RuntimeException e) {
+			doQuietly(delegate::close);
+		}
+		onConnectionDiscarded();
+	}
+
+	private void onConnectionDiscarded() {
+		metrics.evictions.increment();
+		poolSize.decrementAndGet();
+		addConnectionsFor(freeConnections.getWaitingBorrowerCount());
+		fillToMinIdle();
+	}
+
+	/**
+	 * Retires free connections that are expired or that have been idle for too long, as far as the
+	 * pool stays at min idle size at least. Borrowed connections are never touched; the expired ones
+	 * get retired once returned, or reclaimed when lost by their borrowers.
+	 */
+	private void keepHouse() {
+		if (leakDetector != null) {
+			leakDetector.reportLeaks(freeConnections.entries());
+			leakDetector.reclaimCollected(this::reclaimConnection);
+		}
+		int connectionsAboveMinIdle = poolSize.get() - minIdle;
+		for (PoolEntry entry : freeConnections.entries()) {
+			boolean isIdleForTooLong = (idleTimeoutNanos > 0)
+					&& (connectionsAboveMinIdle > 0)
+					&& (entry.getNanosSinceReturned() >= idleTimeoutNanos);
+			if ((isIdleForTooLong || entry.isExpired()) && freeConnections.reserve(entry)) {
+				discardConnection(entry);
+				connectionsAboveMinIdle--;
+			}
+		}
+		fillToMinIdle();
+	}
+
+	/**
+	 * Checks the connection with a round-trip to the database, unless it has been proven alive
+	 * within the validation interval, in which case only the cheap local check is done.
+	 * A connection that does not pass the check within the validation timeout gets aborted by the watchdog,
+	 * see {@link #abortOverdueValidations()}.
+	 */
+	private boolean isConnectionOperational(PoolEntry entry) {
+		Connection delegate = entry.getConnection();
+		if (entry.getNanosSinceAlive() < validationIntervalNanos) {
+			return countValidation(isConnectionOpen(delegate));
+		}
+		startValidationWatchdog();
+		long start = System.nanoTime();
+		entry.startValidation(start + validationTimeoutNanos);
+		boolean isOperational;
+		try {
+			isOperational = !delegate.isClosed() && validator.isValid(delegate, validationTimeoutSeconds);
+		} catch (SQLException e) {
+			isOperational = false;
+		}
+		if (!entry.finishValidation()) {
+			//aborted or being aborted, whatever the validator said
+			isOperational = false;
 		}
+		metrics.validation.record(System.nanoTime() - start);
+		if (isOperational) {
+			entry.markAlive();
+		}
+		return countValidation(isOperational);
+	}
+
+	private boolean countValidation(boolean isOperational) {
+		if (!isOperational) {
+			metrics.validationFailures.increment();
+		}
+		return isOperational;
+	}
+
+	/**
+	 * Starts the watchdog aborting connections that do not answer their validation in time, unless
+	 * already running. It is started only once some connection gets validated with a round-trip.
+	 */
+	private void startValidationWatchdog() {
+		if (isValidationWatchdogStarted.get() || !isValidationWatchdogStarted.compareAndSet(false, true)) {
+			return;
+		}
+		long periodNanos = Math.max(validationTimeoutNanos / VALIDATION_WATCHDOG_CHECKS_PER_TIMEOUT,
+				TimeUnit.MILLISECONDS.toNanos(1));
+		try {
+			housekeeper.scheduleAtFixedRate(this::abortOverdueValidations, periodNanos, periodNanos, TimeUnit.NANOSECONDS);
+		} catch (RejectedExecutionException ignore) {
+			//the pool has been shut down meanwhile, it does not validate anymore
+		}
+	}
+
+	private void abortOverdueValidations() {
+		long now = System.nanoTime();
+		for (PoolEntry entry : freeConnections.entries()) {
+			if (entry.abortValidationIfOverdue(now)) {
+				abortConnection(entry.getConnection());
+			}
+		}
+	}
+
+	/**
+	 * Closes the connection without waiting for the database, failing whatever blocks on it.
+	 * The actual closing runs on the filler, so that it does not hold up the housekeeper.
+	 */
+	private void abortConnection(Connection delegate) {
+		metrics.validationAborts.increment();
+		try {
+			delegate.abort(connectionFiller);
+		} catch (SQLException | RuntimeException ignore) {}
 	}
 
-	private boolean isConnectionOperational(Connection delegate) {
+	private static boolean isConnectionOpen(Connection delegate) {
 		try {
-			return !delegate.isClosed() && delegate.isValid(CONN_CREATE_TIMEOUT);
+			return !delegate.isClosed();
 		} catch (SQLException e) {
 			return false;
 		}
@@ -0,0 +1,394 @@
+package opr.example.connection.pool;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import opr.example.connection.workload.WorkloadClass;
+
+
+/**
+ * Settings of a {@link ConnectionPool}. Only the maximal pool size is mandatory, all other
+ * settings have defaults that make the pool behave as a plain lazy bounded pool.
+ * 
+ * The config is read once, when the pool is being created. Changing it later has no effect
+ * on pools that already exist.
+ */
+public class ConnectionPoolConfig {
+
+	private final int maxPoolSize;
+	private int minIdle = 0;
+	private ValidationMode validationMode = ValidationMode.ON_RETURN;
+	private long validationIntervalMillis = 0L;
+	private ConnectionValidator validator = ConnectionValidator.driverCheck();
+	private long validationTimeoutMillis = 5_000L;
+	private long idleTimeoutMillis = 0L;
+	private long maxLifetimeMillis = 0L;
+	private long housekeepingPeriodMillis = 30_000L;
+	private int statementCacheSize = 0;
+	private String poolName = null;
+	private long leakDetectionThresholdMillis = 0L;
+	private boolean reclaimLeakedConnections = false;
+	private int drainRatePerSecond = 10;
+	private int shardCount = 1;
+	private boolean adaptiveSizing = false;
+	private int minPoolSizeLimit = 1;
+	private long adaptiveSizingPeriodMillis = 1_000L;
+	private BorrowListener borrowListener = null;
+	private final List<WorkloadClass> workloadClasses = new ArrayList<>();
+
+
+	public ConnectionPoolConfig(int maxPoolSize) {
+		if (maxPoolSize < 1) {
+			throw new IllegalArgumentException("Max pool size must be positive: " + maxPoolSize);
+		}
+		this.maxPoolSize = maxPoolSize;
+	}
+
+	/**
+	 * Copies all the settings of the given config.
+	 */
+	public ConnectionPoolConfig(ConnectionPoolConfig other) {
+		this.maxPoolSize = other.maxPoolSize;
+		this.minIdle = other.minIdle;
+		this.validationMode = other.validationMode;
+		this.validationIntervalMillis = other.validationIntervalMillis;
+		this.validator = other.validator;
+		this.validationTimeoutMillis = other.validationTimeoutMillis;
+		this.idleTimeoutMillis = other.idleTimeoutMillis;
+		this.maxLifetimeMillis = other.maxLifetimeMillis;
+		this.housekeepingPeriodMillis = other.housekeepingPeriodMillis;
+		this.statementCacheSize = other.statementCacheSize;
+		this.poolName = other.poolName;
+		this.leakDetectionThresholdMillis = other.leakDetectionThresholdMillis;
+		this.reclaimLeakedConnections = other.reclaimLeakedConnections;
+		this.drainRatePerSecond = other.drainRatePerSecond;
+		this.shardCount = other.shardCount;
+		this.adaptiveSizing = other.adaptiveSizing;
+		this.minPoolSizeLimit = other.minPoolSizeLimit;
+		this.adaptiveSizingPeriodMillis = other.adaptiveSizingPeriodMillis;
+		this.borrowListener = other.borrowListener;
+		this.workloadClasses.addAll(other.workloadClasses);
+	}
+
+
+	public int getMaxPoolSize() {
+		return maxPoolSize;
+	}
+
+
+	public int getMinIdle() {
+		return minIdle;
+	}
+
+	/**
+	 * Number of connections the pool keeps open even if nobody uses them. The pool opens them
+	 * on {@link ConnectionPool#warmUp()} and replaces them in background whenever some get
+	 * closed. Zero by default, i.e. all connections are created lazily.
+	 */
+	public void setMinIdle(int minIdle) {
+		if (minIdle < 0 || minIdle > maxPoolSize) {
+			throw new IllegalArgumentException("Min idle must be between 0 and max pool size: " + minIdle);
+		}
+		this.minIdle = minIdle;
+	}
+
+
+	public ValidationMode getValidationMode() {
+		return validationMode;
+	}
+
+	/**
+	 * When should the pool validate its connections. {@link ValidationMode#ON_RETURN} by default.
+	 */
+	public void setValidationMode(ValidationMode validationMode) {
+		this.validationMode = validationMode;
+	}
+
+
+	public long getValidationIntervalMillis() {
+		return validationIntervalMillis;
+	}
+
+	/**
+	 * How long is a connection trusted to be alive after it was created, successfully validated,
+	 * or (in {@link ValidationMode#ON_BORROW} mode) last used. Within the interval the pool only
+	 * checks that the connection hasn't been closed, without any round-trip to the database.
+	 * Zero by default, i.e. every validation does the round-trip.
+	 */
+	public void setValidationIntervalMillis(long validationIntervalMillis) {
+		if (validationIntervalMillis < 0) {
+			throw new IllegalArgumentException("Validation interval must not be negative: " + validationIntervalMillis);
+		}
+		this.validationIntervalMillis = validationIntervalMillis;
+	}
+
+
+	public ConnectionValidator getValidator() {
+		return validator;
+	}
+
+	/**
+	 * How should the pool check its connections. {@link ConnectionValidator#driverCheck()} by default.
+	 */
+	public void setValidator(ConnectionValidator validator) {
+		if (validator == null) {
+			throw new IllegalArgumentException("Validator must not be null");
+		}
+		this.validator = validator;
+	}
+
+
+	public long getValidationTimeoutMillis() {
+		return validationTimeoutMillis;
+	}
+
+	/**
+	 * How long may a validation round-trip take. A connection that does not answer in time gets aborted
+	 * and replaced, so that a half-open connection does not stall the validating thread. 5 seconds by default.
+	 * The running validations are checked four times per timeout, so the abort may come up to a quarter
+	 * of the timeout late.
+	 */
+	public void setValidationTimeoutMillis(long validationTimeoutMillis) {
+		if (validationTimeoutMillis <= 0) {
+			throw new IllegalArgumentException("Validation timeout must be positive: " + validationTimeoutMillis);
+		}
+		this.validationTimeoutMillis = validationTimeoutMillis;
+	}
+
+
+	public long getIdleTimeoutMillis() {
+		return idleTimeoutMillis;
+	}
+
+	/**
+	 * How long may a connection stay unused in the pool before it gets closed. Connections are
+	 * retired this way only while there are more than {@link #setMinIdle(int) min idle} of them.
+	 * Zero by default, i.e. idle connections are kept forever.
+	 */
+	public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+		if (idleTimeoutMillis < 0) {
+			throw new IllegalArgumentException("Idle timeout must not be negative: " + idleTimeoutMillis);
+		}
+		this.idleTimeoutMillis = idleTimeoutMillis;
+	}
+
+
+	public long getMaxLifetimeMillis() {
+		return maxLifetimeMillis;
+	}
+
+	/**
+	 * How long may a connection be used since it was created. Each connection gets a slightly
+	 * shorter lifetime picked at random, so that connections created together don't expire all
+	 * at once. Expired connections are retired when returned or while idle, never while borrowed.
+	 * Zero by default, i.e. the lifetime is unlimited.
+	 */
+	public void setMaxLifetimeMillis(long maxLifetimeMillis) {
+		if (maxLifetimeMillis < 0) {
+			throw new IllegalArgumentException("Max lifetime must not be negative: " + maxLifetimeMillis);
+		}
+		this.maxLifetimeMillis = maxLifetimeMillis;
+	}
+
+
+	public long getHousekeepingPeriodMillis() {
+		return housekeepingPeriodMillis;
+	}
+
+	/**
+	 * How often does the pool look for idle and expired connections, and re-opens connections
+	 * up to min idle if some failed to open before. 30 seconds by default.
+	 */
+	public void setHousekeepingPeriodMillis(long housekeepingPeriodMillis) {
+		if (housekeepingPeriodMillis <= 0) {
+			throw new IllegalArgumentException("Housekeeping period must be positive: " + housekeepingPeriodMillis);
+		}
+		this.housekeepingPeriodMillis = housekeepingPeriodMillis;
+	}
+
+
+	public int getStatementCacheSize() {
+		return statementCacheSize;
+	}
+
+	/**
+	 * How many prepared statements to cache per connection. Statements are identified by their SQL
+	 * and all the other arguments they were prepared with; the least recently used ones get evicted.
+	 * Zero by default, i.e. statements are not cached.
+	 */
+	public void setStatementCacheSize(int statementCacheSize) {
+		if (statementCacheSize < 0) {
+			throw new IllegalArgumentException("Statement cache size must not be negative: " + statementCacheSize);
+		}
+		this.statementCacheSize = statementCacheSize;
+	}
+
+
+	public String getPoolName() {
+		return poolName;
+	}
+
+	/**
+	 * Name under which the pool registers its {@link ConnectionPoolMXBean} with the platform MBean server.
+	 * No MBean is registered by default.
+	 */
+	public void setPoolName(String poolName) {
+		this.poolName = poolName;
+	}
+
+
+	public long getLeakDetectionThresholdMillis() {
+		return leakDetectionThresholdMillis;
+	}
+
+	/**
+	 * How long may a connection stay borrowed before the pool logs it as a possible leak, together
+	 * with the stack trace of the place where it was borrowed. The check is done by the housekeeper,
+	 * at least as often as the threshold. Zero by default, i.e. leaks are not detected.
+	 *
+	 * Mind that capturing the stack trace makes every borrow walk the borrower's stack and allocate
+	 * an exception, which costs microseconds rather than the nanoseconds of a plain borrow.
+	 */
+	public void setLeakDetectionThresholdMillis(long leakDetectionThresholdMillis) {
+		if (leakDetectionThresholdMillis < 0) {
+			throw new IllegalArgumentException(
+					"Leak detection threshold must not be negative: " + leakDetectionThresholdMillis);
+		}
+		this.leakDetectionThresholdMillis = leakDetectionThresholdMillis;
+	}
+
+
+	public boolean isReclaimLeakedConnections() {
+		return reclaimLeakedConnections;
+	}
+
+	/**
+	 * Whether the pool should take back connections whose borrowers lost them without closing them,
+	 * once they get garbage collected. Such connections are closed rather than reused, since they may
+	 * have been left in any state. Disabled by default.
+	 *
+	 * Costs a phantom reference per borrow. The borrow site of the reclaimed connection is logged only
+	 * if the {@link #setLeakDetectionThresholdMillis(long) leak detection threshold} is set as well.
+	 */
+	public void setReclaimLeakedConnections(boolean reclaimLeakedConnections) {
+		this.reclaimLeakedConnections = reclaimLeakedConnections;
+	}
+
+
+	public int getDrainRatePerSecond() {
+		return drainRatePerSecond;
+	}
+
+	/**
+	 * How many connections per second may the pool retire while {@link ConnectionPool#drainConnectionsFrom
+	 * draining} connections of some origin, e.g. the slave connections after the master recovered.
+	 * 10 by default.
+	 */
+	public void setDrainRatePerSecond(int drainRatePerSecond) {
+		if (drainRatePerSecond < 1) {
+			throw new IllegalArgumentException("Drain rate must be positive: " + drainRatePerSecond);
+		}
+		this.drainRatePerSecond = drainRatePerSecond;
+	}
+
+
+	public int getShardCount() {
+		return shardCount;
+	}
+
+	/**
+	 * Into how many shards to split the free connections. Each thread borrows from its own shard first
+	 * and from the other ones only if its shard has no free connection, so that threads on many cores
+	 * compete less for the same connections. The max pool size still applies to all shards together.
+	 * One by default, i.e. all threads look at the connections in the same order.
+	 */
+	public void setShardCount(int shardCount) {
+		if (shardCount < 1) {
+			throw new IllegalArgumentException("Shard count must be positive: " + shardCount);
+		}
+		this.shardCount = shardCount;
+	}
+
+
+	public boolean isAdaptiveSizing() {
+		return adaptiveSizing;
+	}
+
+	/**
+	 * Whether the pool should adapt how many connections it may open to the observed load, see
+	 * {@link AdaptivePoolLimit}. The limit starts at the max pool size and moves between the
+	 * {@link #setMinPoolSizeLimit(int) min limit} and the max pool size. Disabled by default,
+	 * i.e. the pool may always open up to max pool size connections.
+	 */
+	public void setAdaptiveSizing(boolean adaptiveSizing) {
+		this.adaptiveSizing = adaptiveSizing;
+	}
+
+
+	public int getMinPoolSizeLimit() {
+		return minPoolSizeLimit;
+	}
+
+	/**
+	 * The lowest number of connections adaptive sizing may limit the pool to. 1 by default.
+	 */
+	public void setMinPoolSizeLimit(int minPoolSizeLimit) {
+		if (minPoolSizeLimit < 1 || minPoolSizeLimit > maxPoolSize) {
+			throw new IllegalArgumentException("Min pool size limit must be between 1 and max pool size: " + minPoolSizeLimit);
+		}
+		this.minPoolSizeLimit = minPoolSizeLimit;
+	}
+
+
+	public long getAdaptiveSizingPeriodMillis() {
+		return adaptiveSizingPeriodMillis;
+	}
+
+	/**
+	 * How often does adaptive sizing reconsider the pool's limit. 1 second by default.
+	 */
+	public void setAdaptiveSizingPeriodMillis(long adaptiveSizingPeriodMillis) {
+		if (adaptiveSizingPeriodMillis <= 0) {
+			throw new IllegalArgumentException("Adaptive sizing period must be positive: " + adaptiveSizingPeriodMillis);
+		}
+		this.adaptiveSizingPeriodMillis = adaptiveSizingPeriodMillis;
+	}
+
+
+	public BorrowListener getBorrowListener() {
+		return borrowListener;
+	}
+
+	/**
+	 * Who should be told about every borrow and return of the pool's connections. None by default.
+	 */
+	public void setBorrowListener(BorrowListener borrowListener) {
+		this.borrowListener = borrowListener;
+	}
+
+
+	public List<WorkloadClass> getWorkloadClasses() {
+		return Collections.unmodifiableList(workloadClasses);
+	}
+
+	/**
+	 * Adds a class of borrowers with its own share of the pool, see {@link ConnectionPool#getConnection(String)}.
+	 * No classes by default.
+	 * @throws IllegalArgumentException if the class does not fit in the pool together with the classes added before
+	 */
+	public void addWorkloadClass(WorkloadClass workloadClass) {
+		int reservedConnections = workloadClass.getMinConnections();
+		for (WorkloadClass other : workloadClasses) {
+			if (other.getName().equals(workloadClass.getName())) {
+				throw new IllegalArgumentException("Duplicate workload: " + workloadClass.getName());
+			}
+			reservedConnections += other.getMinConnections();
+		}
+		if (reservedConnections > maxPoolSize) {
+			throw new IllegalArgumentException("Min connections of all workloads exceed max pool size: " + workloadClass);
+		}
+		workloadClasses.add(workloadClass);
+	}
+
+}
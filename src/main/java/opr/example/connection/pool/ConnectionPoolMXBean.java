@@ -0,0 +1,26 @@
+package opr.example.connection.pool;
+
+
+/**
+ * Management interface of a {@link ConnectionPool}, registered with the platform MBean server
+ * when the pool is given a {@link ConnectionPoolConfig#setPoolName(String) name}.
+ */
+public interface ConnectionPoolMXBean {
+
+	int getMaxPoolSize();
+
+	void setMaxPoolSize(int maxPoolSize);
+
+	int getPoolSizeLimit();
+
+	int getActiveConnections();
+
+	int getIdleConnections();
+
+	int getPendingCreations();
+
+	int getWaitingThreads();
+
+	PoolStats getStats();
+
+}
@@ -0,0 +1,183 @@
+package opr.example.connection.pool;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+
+
+/**
+ * Locally cached session properties of a single physical connection, so that the pool can restore
+ * the properties a borrower has changed before the connection gets to the next borrower.
+ *
+ * The driver's value of a property is read only once, the first time a borrower sets it; from then on
+ * the cache knows both the default and the current value. Setting the value the connection already has
+ * is skipped, and on return only the properties that differ from their defaults are reset. Changes made
+ * behind the pool's back, e.g. by executing SET SCHEMA, are not tracked.
+ *
+ * Same as the connection itself, the state is touched only by the thread that has the connection borrowed.
+ */
+class ConnectionState {
+
+	private static final int AUTO_COMMIT = 1;
+	private static final int READ_ONLY = 1 << 1;
+	private static final int TRANSACTION_ISOLATION = 1 << 2;
+	private static final int CATALOG = 1 << 3;
+	private static final int SCHEMA = 1 << 4;
+	private static final int NETWORK_TIMEOUT = 1 << 5;
+
+	private int knownProperties;
+	private int dirtyProperties;
+
+	private boolean defaultAutoCommit;
+	private boolean autoCommit;
+	private boolean defaultReadOnly;
+	private boolean readOnly;
+	private int defaultTransactionIsolation;
+	private int transactionIsolation;
+	private String defaultCatalog;
+	private String catalog;
+	private String defaultSchema;
+	private String schema;
+	private int defaultNetworkTimeout;
+	private int networkTimeout;
+	private Executor networkTimeoutExecutor;
+
+
+	void setAutoCommit(Connection conn, boolean newAutoCommit) throws SQLException {
+		if (!isKnown(AUTO_COMMIT)) {
+			defaultAutoCommit = autoCommit = conn.getAutoCommit();
+			knownProperties |= AUTO_COMMIT;
+		}
+		if (autoCommit != newAutoCommit) {
+			conn.setAutoCommit(newAutoCommit);
+			autoCommit = newAutoCommit;
+			markDirty(AUTO_COMMIT, autoCommit != defaultAutoCommit);
+		}
+	}
+
+	void setReadOnly(Connection conn, boolean newReadOnly) throws SQLException {
+		if (!isKnown(READ_ONLY)) {
+			defaultReadOnly = readOnly = conn.isReadOnly();
+			knownProperties |= READ_ONLY;
+		}
+		if (readOnly != newReadOnly) {
+			conn.setReadOnly(newReadOnly);
+			readOnly = newReadOnly;
+			markDirty(READ_ONLY, readOnly != defaultReadOnly);
+		}
+	}
+
+	void setTransactionIsolation(Connection conn, int newTransactionIsolation) throws SQLException {
+		if (!isKnown(TRANSACTION_ISOLATION)) {
+			defaultTransactionIsolation = transactionIsolation = conn.getTransactionIsolation();
+			knownProperties |= TRANSACTION_ISOLATION;
+		}
+		if (transactionIsolation != newTransactionIsolation) {
+			conn.setTransactionIsolation(newTransactionIsolation);
+			transactionIsolation = newTransactionIsolation;
+			markDirty(TRANSACTION_ISOLATION, transactionIsolation != defaultTransactionIsolation);
+		}
+	}
+
+	void setCatalog(Connection conn, String newCatalog) throws SQLException {
+		if (!isKnown(CATALOG)) {
+			defaultCatalog = catalog = conn.getCatalog();
+			knownProperties |= CATALOG;
+		}
+		if (!Objects.equals(catalog, newCatalog)) {
+			conn.setCatalog(newCatalog);
+			catalog = newCatalog;
+			markDirty(CATALOG, !Objects.equals(catalog, defaultCatalog));
+		}
+	}
+
+	void setSchema(Connection conn, String newSchema) throws SQLException {
+		if (!isKnown(SCHEMA)) {
+			defaultSchema = schema = conn.getSchema();
+			knownProperties |= SCHEMA;
+		}
+		if (!Objects.equals(schema, newSchema)) {
+			conn.setSchema(newSchema);
+			schema = newSchema;
+			markDirty(SCHEMA, !Objects.equals(schema, defaultSchema));
+		}
+	}
+
+	void setNetworkTimeout(Connection conn, Executor executor, int newNetworkTimeout) throws SQLException {
+		if (!isKnown(NETWORK_TIMEOUT)) {
+			defaultNetworkTimeout = networkTimeout = conn.getNetworkTimeout();
+			knownProperties |= NETWORK_TIMEOUT;
+		}
+		if (networkTimeout != newNetworkTimeout) {
+			conn.setNetworkTimeout(executor, newNetworkTimeout);
+			networkTimeout = newNetworkTimeout;
+			networkTimeoutExecutor = executor;
+			markDirty(NETWORK_TIMEOUT, networkTimeout != defaultNetworkTimeout);
+		}
+	}
+
+	/**
+	 * @return true if the borrower has switched the connection to a catalog or schema other than its default
+	 */
+	boolean isCatalogOrSchemaChanged() {
+		return (dirtyProperties & (CATALOG | SCHEMA)) != 0;
+	}
+
+	private boolean isKnown(int property) {
+		return (knownProperties & property) != 0;
+	}
+
+	private void markDirty(int property, boolean isDirty) {
+		if (isDirty) {
+			dirtyProperties |= property;
+		} else {
+			dirtyProperties &= ~property;
+		}
+	}
+
+
+	/**
+	 * Rolls back whatever transaction the borrower may have left open, and restores the defaults
+	 * of the properties the borrower has changed.
+	 */
+	void reset(Connection conn) throws SQLException {
+		if (!isKnown(AUTO_COMMIT)) {
+			//read once per connection, so that connections in auto-commit mode don't need a rollback ever
+			defaultAutoCommit = autoCommit = conn.getAutoCommit();
+			knownProperties |= AUTO_COMMIT;
+		}
+		if (!autoCommit) {
+			conn.rollback();
+		}
+		if (dirtyProperties == 0) {
+			return;
+		}
+		if ((dirtyProperties & AUTO_COMMIT) != 0) {
+			conn.setAutoCommit(defaultAutoCommit);
+			autoCommit = defaultAutoCommit;
+		}
+		if ((dirtyProperties & READ_ONLY) != 0) {
+			conn.setReadOnly(defaultReadOnly);
+			readOnly = defaultReadOnly;
+		}
+		if ((dirtyProperties & TRANSACTION_ISOLATION) != 0) {
+			conn.setTransactionIsolation(defaultTransactionIsolation);
+			transactionIsolation = defaultTransactionIsolation;
+		}
+		if ((dirtyProperties & CATALOG) != 0) {
+			conn.setCatalog(defaultCatalog);
+			catalog = defaultCatalog;
+		}
+		if ((dirtyProperties & SCHEMA) != 0) {
+			conn.setSchema(defaultSchema);
+			schema = defaultSchema;
+		}
+		if ((dirtyProperties & NETWORK_TIMEOUT) != 0) {
+			conn.setNetworkTimeout(networkTimeoutExecutor, defaultNetworkTimeout);
+			networkTimeout = defaultNetworkTimeout;
+		}
+		dirtyProperties = 0;
+	}
+
+}
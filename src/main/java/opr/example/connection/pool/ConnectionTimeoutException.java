@@ -0,0 +1,20 @@
+package opr.example.connection.pool;
+
+import java.sql.SQLTransientConnectionException;
+
+
+/**
+ * Thrown when no pooled connection became available within the time the caller was willing to wait.
+ *
+ * The condition is transient by nature - the very same request may succeed once some of the
+ * borrowed connections get returned to the pool.
+ */
+public class ConnectionTimeoutException extends SQLTransientConnectionException {
+
+	private static final long serialVersionUID = 1L;
+
+	public ConnectionTimeoutException(String reason) {
+		super(reason);
+	}
+
+}
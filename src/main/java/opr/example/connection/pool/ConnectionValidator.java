@@ -0,0 +1,47 @@
+package opr.example.connection.pool;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+
+/**
+ * How the {@link ConnectionPool} checks with a round-trip to the database that a connection still works.
+ *
+ * The pool does not rely on the validator to honour the timeout. A connection that does not pass
+ * the check within the {@link ConnectionPoolConfig#setValidationTimeoutMillis(long) validation timeout}
+ * gets aborted, see {@link Connection#abort(java.util.concurrent.Executor)}, which makes the blocked
+ * validation fail right away instead of waiting for the network.
+ */
+@FunctionalInterface
+public interface ConnectionValidator {
+
+	/**
+	 * @param timeoutSeconds how long may the check take, at least 1
+	 * @return false, or an exception, if the connection should not be used anymore
+	 */
+	boolean isValid(Connection connection, int timeoutSeconds) throws SQLException;
+
+
+	/**
+	 * The driver's own check, {@link Connection#isValid(int)}. This is the default.
+	 */
+	static ConnectionValidator driverCheck() {
+		return Connection::isValid;
+	}
+
+	/**
+	 * Runs the given query, e.g. {@code SELECT 1}. Some drivers recognize a special query and answer it
+	 * with a lightweight ping instead of a real statement, e.g. MySQL's {@code /* ping *}{@code /}.
+	 */
+	static ConnectionValidator testQuery(String sql) {
+		return (connection, timeoutSeconds) -> {
+			try (Statement statement = connection.createStatement()) {
+				statement.setQueryTimeout(timeoutSeconds);
+				statement.execute(sql);
+				return true;
+			}
+		};
+	}
+
+}
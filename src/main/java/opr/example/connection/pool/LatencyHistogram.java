@@ -0,0 +1,101 @@
+package opr.example.connection.pool;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Lock-free histogram of durations with power-of-two buckets.
+ *
+ * Recording is a couple of {@link LongAdder} increments, so it neither blocks nor allocates
+ * (apart from the adders' cells growing once under contention). The price is the precision:
+ * percentiles are reported as the upper bound of the bucket they fall into, i.e. at most twice
+ * the real value.
+ */
+class LatencyHistogram {
+
+	private static final int BUCKET_COUNT = 64;
+
+	private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+	private final LongAdder totalNanos = new LongAdder();
+	private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0L);
+
+
+	LatencyHistogram() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+
+	void record(long nanos) {
+		long duration = Math.max(nanos, 0L);
+		buckets[bucketOf(duration)].increment();
+		totalNanos.add(duration);
+		maxNanos.accumulate(duration);
+	}
+
+	/**
+	 * Bucket i holds durations from 2^i up to 2^(i+1) - 1 nanos, except bucket 0 which also holds zero.
+	 */
+	private static int bucketOf(long nanos) {
+		return (nanos == 0L) ? 0 : 63 - Long.numberOfLeadingZeros(nanos);
+	}
+
+	private static long upperBoundOf(int bucket) {
+		return (bucket >= 62) ? Long.MAX_VALUE : (2L << bucket) - 1;
+	}
+
+
+	/**
+	 * @return number of durations recorded so far
+	 */
+	long count() {
+		long count = 0;
+		for (LongAdder bucket : buckets) {
+			count += bucket.sum();
+		}
+		return count;
+	}
+
+	/**
+	 * @return sum of all durations recorded so far
+	 */
+	long totalNanos() {
+		return totalNanos.sum();
+	}
+
+	/**
+	 * Reads the histogram. Durations being recorded meanwhile may or may not be included.
+	 */
+	LatencyStats snapshot() {
+		long[] counts = new long[BUCKET_COUNT];
+		long count = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			counts[i] = buckets[i].sum();
+			count += counts[i];
+		}
+		return new LatencyStats(
+				count,
+				(count == 0) ? 0L : totalNanos.sum() / count,
+				percentile(counts, count, 0.50),
+				percentile(counts, count, 0.99),
+				maxNanos.get());
+	}
+
+	private static long percentile(long[] counts, long count, double percentile) {
+		if (count == 0) {
+			return 0L;
+		}
+		long rank = (long) Math.ceil(count * percentile);
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return upperBoundOf(i);
+			}
+		}
+		return upperBoundOf(BUCKET_COUNT - 1);
+	}
+
+}
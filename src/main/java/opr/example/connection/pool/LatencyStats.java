@@ -0,0 +1,55 @@
+package opr.example.connection.pool;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Snapshot of a duration histogram kept by {@link ConnectionPool}. Percentiles are approximate,
+ * rounded up to the nearest power of two nanoseconds.
+ */
+public class LatencyStats {
+
+	private final long count;
+	private final long meanNanos;
+	private final long p50Nanos;
+	private final long p99Nanos;
+	private final long maxNanos;
+
+
+	LatencyStats(long count, long meanNanos, long p50Nanos, long p99Nanos, long maxNanos) {
+		this.count = count;
+		this.meanNanos = meanNanos;
+		this.p50Nanos = p50Nanos;
+		this.p99Nanos = p99Nanos;
+		this.maxNanos = maxNanos;
+	}
+
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getMeanMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(meanNanos);
+	}
+
+	public long getP50Micros() {
+		return TimeUnit.NANOSECONDS.toMicros(p50Nanos);
+	}
+
+	public long getP99Micros() {
+		return TimeUnit.NANOSECONDS.toMicros(p99Nanos);
+	}
+
+	public long getMaxMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(maxNanos);
+	}
+
+
+	@Override
+	public String toString() {
+		return "count: " + count + ", mean: " + getMeanMicros() + " us, p50: " + getP50Micros()
+				+ " us, p99: " + getP99Micros() + " us, max: " + getMaxMicros() + " us";
+	}
+
+}
@@ -0,0 +1,153 @@
+package opr.example.connection.pool;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * Finds connections that have been borrowed for suspiciously long, and optionally reclaims those
+ * whose {@link PooledConnection} got garbage collected without ever being closed.
+ *
+ * Every borrow gets a {@link Lease}. With a leak threshold set, the lease also remembers where
+ * the connection was borrowed, captured as an exception. Filling in its stack trace costs a walk
+ * of the borrower's stack on every borrow, although the JVM resolves the frames lazily, only once
+ * it gets logged. Reclaiming alone does not pay for that, its reports just lack the borrow site.
+ * Pools with leak detection disabled don't have any detector at all, so they pay nothing.
+ */
+class LeakDetector {
+
+	private static final Logger LOG = Logger.getLogger(LeakDetector.class.getName());
+
+	private final long thresholdNanos;
+	private final boolean captureBorrowSite;
+	private final ReferenceQueue<PooledConnection> collectedConnections;
+	private final Set<Lease> reclaimableLeases;
+
+
+	/**
+	 * @param thresholdNanos how long may a connection be borrowed before it is reported as leaked,
+	 *                       zero to report nothing
+	 * @param reclaim whether to reclaim connections that got garbage collected without being closed
+	 */
+	LeakDetector(long thresholdNanos, boolean reclaim) {
+		this.thresholdNanos = thresholdNanos;
+		this.captureBorrowSite = thresholdNanos > 0;
+		this.collectedConnections = reclaim ? new ReferenceQueue<>() : null;
+		this.reclaimableLeases = reclaim ? ConcurrentHashMap.newKeySet() : null;
+	}
+
+
+	void onBorrow(PoolEntry entry, PooledConnection connection) {
+		Lease lease = new Lease(connection, collectedConnections, entry,
+				captureBorrowSite ? new BorrowSite() : null);
+		if (reclaimableLeases != null) {
+			reclaimableLeases.add(lease);
+		}
+		entry.setLease(lease);
+	}
+
+	void onReturn(PoolEntry entry) {
+		Lease lease = entry.getLease();
+		if (lease == null) {
+			return;
+		}
+		entry.setLease(null);
+		if (reclaimableLeases != null) {
+			reclaimableLeases.remove(lease);
+			lease.clear();
+		}
+		if (lease.isReported) {
+			LOG.info("Connection previously reported as leaked by " + lease.threadName + " was returned after "
+					+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lease.borrowNanos) + " ms");
+		}
+	}
+
+	/**
+	 * Logs the borrow site of a connection returned with some statements left open.
+	 */
+	void reportUnclosedStatements(PoolEntry entry, int unclosedStatements) {
+		Lease lease = entry.getLease();
+		if (lease == null) {
+			return;
+		}
+		LOG.log(Level.WARNING, "Connection borrowed by " + lease.threadName + " was returned with "
+				+ unclosedStatements + " statements left open", lease.borrowSite);
+	}
+
+	/**
+	 * Logs the borrow sites of connections held longer than the threshold, each connection once per borrow.
+	 */
+	void reportLeaks(Iterable<PoolEntry> entries) {
+		if (thresholdNanos <= 0) {
+			return;
+		}
+		for (PoolEntry entry : entries) {
+			Lease lease = entry.getLease();
+			if (lease != null && !lease.isReported && System.nanoTime() - lease.borrowNanos >= thresholdNanos) {
+				lease.isReported = true;
+				LOG.log(Level.WARNING, "Connection borrowed by " + lease.threadName + " has not been returned for "
+						+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lease.borrowNanos) + " ms, possible leak",
+						lease.borrowSite);
+			}
+		}
+	}
+
+	/**
+	 * Hands the entries of garbage collected, never closed connections to the given reclaimer.
+	 * The physical connections may be in any state, so they should rather be discarded than reused.
+	 */
+	void reclaimCollected(Consumer<PoolEntry> reclaimer) {
+		if (collectedConnections == null) {
+			return;
+		}
+		Lease lease;
+		while ((lease = (Lease) collectedConnections.poll()) != null) {
+			if (reclaimableLeases.remove(lease)) {
+				LOG.log(Level.WARNING, "Connection borrowed by " + lease.threadName
+						+ " was garbage collected without being closed, reclaiming it", lease.borrowSite);
+				reclaimer.accept(lease.entry);
+			}
+		}
+	}
+
+
+	/**
+	 * A single borrow of a pooled connection. Doubles as a phantom reference to the connection
+	 * handed to the borrower, so that the detector learns when it gets collected.
+	 */
+	static class Lease extends PhantomReference<PooledConnection> {
+
+		private final PoolEntry entry;
+		private final long borrowNanos = System.nanoTime();
+		private final String threadName = Thread.currentThread().getName();
+		private final BorrowSite borrowSite;
+		private volatile boolean isReported;
+
+		/**
+		 * @param borrowSite where the connection was borrowed, null if not captured
+		 */
+		Lease(PooledConnection connection, ReferenceQueue<PooledConnection> queue, PoolEntry entry,
+				BorrowSite borrowSite) {
+			super(connection, queue);
+			this.entry = entry;
+			this.borrowSite = borrowSite;
+		}
+	}
+
+
+	private static class BorrowSite extends Exception {
+
+		private static final long serialVersionUID = 1L;
+
+		BorrowSite() {
+			super("Connection was borrowed here");
+		}
+	}
+
+}
@@ -0,0 +1,66 @@
+package opr.example.connection.pool;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+
+
+/**
+ * Statements currently open on a single physical connection, so that the pool can close those
+ * the borrower forgot about before the connection gets lent to somebody else. Result sets get
+ * closed together with their statements.
+ *
+ * The statements are kept in a plain array that belongs to the {@link PoolEntry}, i.e. it is reused
+ * by all borrows of the connection and grows only when a borrower keeps more statements open
+ * than any borrower before. Tracking a statement thus allocates nothing.
+ *
+ * Same as the connection itself, it is meant to be used by one thread at a time.
+ */
+class OpenStatements {
+
+	private static final int INITIAL_CAPACITY = 4;
+
+	private Statement[] statements = new Statement[INITIAL_CAPACITY];
+	private int size = 0;
+
+
+	void add(Statement statement) {
+		if (size == statements.length) {
+			statements = Arrays.copyOf(statements, size * 2);
+		}
+		statements[size++] = statement;
+	}
+
+	void remove(Statement statement) {
+		//statements tend to be closed in reverse order of opening
+		for (int i = size - 1; i >= 0; i--) {
+			if (statements[i] == statement) {
+				statements[i] = statements[--size];
+				statements[size] = null;
+				return;
+			}
+		}
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Closes all the statements still open, ignoring any failures.
+	 * @return number of statements that were open
+	 */
+	int closeAll() {
+		int openCount = size;
+		while (size > 0) {
+			Statement statement = statements[--size];
+			//untracked before closing, so that its removal does not find it anymore
+			statements[size] = null;
+			try {
+				statement.close();
+			} catch (SQLException ignore) {}
+		}
+		return openCount;
+	}
+
+}
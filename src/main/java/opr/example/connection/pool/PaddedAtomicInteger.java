@@ -0,0 +1,62 @@
+package opr.example.connection.pool;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+
+/**
+ * Atomic counter alone on its cache line, so that counters updated by many threads don't slow down
+ * each other, nor their neighbours in memory, by false sharing. Offers the subset of {@link AtomicInteger}
+ * the pool needs.
+ *
+ * The value is padded on both sides. The padding before it lives in a superclass, since the JVM lays out
+ * superclass fields first; subclassing {@link AtomicInteger} could pad only behind the value.
+ */
+class PaddedAtomicInteger extends PaddedAtomicIntegerValue {
+
+	private static final AtomicIntegerFieldUpdater<PaddedAtomicIntegerValue> VALUE_UPDATER =
+			AtomicIntegerFieldUpdater.newUpdater(PaddedAtomicIntegerValue.class, "value");
+
+	//fill up a whole 64 byte cache line behind the value
+	long p11, p12, p13, p14, p15, p16, p17, p18;
+
+
+	PaddedAtomicInteger(int initialValue) {
+		value = initialValue;
+	}
+
+
+	int get() {
+		return value;
+	}
+
+	int incrementAndGet() {
+		return VALUE_UPDATER.incrementAndGet(this);
+	}
+
+	int decrementAndGet() {
+		return VALUE_UPDATER.decrementAndGet(this);
+	}
+
+	boolean compareAndSet(int expectedValue, int newValue) {
+		return VALUE_UPDATER.compareAndSet(this, expectedValue, newValue);
+	}
+
+	@Override
+	public String toString() {
+		return Integer.toString(value);
+	}
+
+}
+
+
+abstract class PaddedAtomicIntegerLeftPadding {
+	//the int takes the gap behind the object header, where the JVM could otherwise put the value
+	int p00;
+	long p01, p02, p03, p04, p05, p06, p07, p08;
+}
+
+
+abstract class PaddedAtomicIntegerValue extends PaddedAtomicIntegerLeftPadding {
+	volatile int value;
+}
@@ -0,0 +1,218 @@
+package opr.example.connection.pool;
+
+import java.sql.Connection;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import opr.example.connection.factory.ConnectionFactory;
+
+
+/**
+ * Bookkeeping record of a single physical connection owned by the {@link ConnectionPool}.
+ *
+ * The entry's state decides who may use the connection. Any thread wanting to borrow
+ * it has to win the transition from {@link #STATE_NOT_IN_USE} to {@link #STATE_IN_USE}.
+ */
+class PoolEntry {
+
+	static final int STATE_REMOVED = -1;
+	static final int STATE_NOT_IN_USE = 0;
+	static final int STATE_IN_USE = 1;
+
+	private static final AtomicIntegerFieldUpdater<PoolEntry> STATE_UPDATER =
+			AtomicIntegerFieldUpdater.newUpdater(PoolEntry.class, "state");
+
+	private static final int VALIDATION_NONE = 0;
+	private static final int VALIDATION_RUNNING = 1;
+	private static final int VALIDATION_ABORTED = 2;
+
+	private static final AtomicIntegerFieldUpdater<PoolEntry> VALIDATION_UPDATER =
+			AtomicIntegerFieldUpdater.newUpdater(PoolEntry.class, "validation");
+
+	private final Connection connection;
+	private final ConnectionFactory origin;
+	private final long creationNanos;
+	private final long lifetimeNanos;
+	private final StatementCache statementCache;
+	private final ConnectionState connectionState = new ConnectionState();
+	private final OpenStatements openStatements = new OpenStatements();
+
+	private volatile int state = STATE_NOT_IN_USE;
+	private volatile LeakDetector.Lease lease;
+	private volatile boolean isEvicted = false;
+	private volatile int validation = VALIDATION_NONE;
+	private volatile long validationDeadlineNanos;
+
+	//guarded by the state, i.e. touched only by the thread that has the entry borrowed
+	private long lastAliveNanos;
+	private long lastReturnNanos;
+	private long lastBorrowNanos;
+	private PooledConnectionListener returnListener;
+	private String workloadName;
+
+
+	PoolEntry(Connection connection) {
+		this(connection, null, Long.MAX_VALUE, null);
+	}
+
+	/**
+	 * @param origin factory that created the connection
+	 * @param lifetimeNanos how long may the connection be used before it gets retired
+	 * @param statementCache cache of the connection's prepared statements, or null if they should not be cached
+	 */
+	PoolEntry(Connection connection, ConnectionFactory origin, long lifetimeNanos, StatementCache statementCache) {
+		this.connection = connection;
+		this.origin = origin;
+		this.lifetimeNanos = lifetimeNanos;
+		this.statementCache = statementCache;
+		this.creationNanos = System.nanoTime();
+		this.lastAliveNanos = creationNanos;
+		this.lastReturnNanos = creationNanos;
+	}
+
+
+	Connection getConnection() {
+		return connection;
+	}
+
+	ConnectionFactory getOrigin() {
+		return origin;
+	}
+
+	StatementCache getStatementCache() {
+		return statementCache;
+	}
+
+	ConnectionState getConnectionState() {
+		return connectionState;
+	}
+
+	OpenStatements getOpenStatements() {
+		return openStatements;
+	}
+
+	/**
+	 * Remembers that the connection has just been proven to work.
+	 */
+	void markAlive() {
+		lastAliveNanos = System.nanoTime();
+	}
+
+	long getNanosSinceAlive() {
+		return System.nanoTime() - lastAliveNanos;
+	}
+
+	/**
+	 * Marks the start of a validation round-trip, which should be done by the given time.
+	 */
+	void startValidation(long deadlineNanos) {
+		validationDeadlineNanos = deadlineNanos;
+		validation = VALIDATION_RUNNING;
+	}
+
+	/**
+	 * Marks the end of the validation round-trip.
+	 * @return false if the validation has been aborted meanwhile, see {@link #abortValidationIfOverdue(long)}
+	 */
+	boolean finishValidation() {
+		if (VALIDATION_UPDATER.compareAndSet(this, VALIDATION_RUNNING, VALIDATION_NONE)) {
+			return true;
+		}
+		validation = VALIDATION_NONE;
+		return false;
+	}
+
+	/**
+	 * Called by the watchdog looking for validations that take too long. Only one of this and
+	 * {@link #finishValidation()} wins, so that a validation is either finished, or aborted.
+	 * @return true if the validation is past its deadline and the caller should abort the connection
+	 */
+	boolean abortValidationIfOverdue(long nowNanos) {
+		return validation == VALIDATION_RUNNING
+				&& nowNanos - validationDeadlineNanos >= 0
+				&& VALIDATION_UPDATER.compareAndSet(this, VALIDATION_RUNNING, VALIDATION_ABORTED);
+	}
+
+	/**
+	 * @return the listener returning the connection to the pool once its borrower closes it, null if not set yet
+	 */
+	PooledConnectionListener getReturnListener() {
+		return returnListener;
+	}
+
+	void setReturnListener(PooledConnectionListener returnListener) {
+		this.returnListener = returnListener;
+	}
+
+	/**
+	 * @return the workload class the connection is borrowed on behalf of, null if none
+	 */
+	String getWorkloadName() {
+		return workloadName;
+	}
+
+	void setWorkloadName(String workloadName) {
+		this.workloadName = workloadName;
+	}
+
+	void markBorrowed() {
+		lastBorrowNanos = System.nanoTime();
+	}
+
+	long getBorrowNanos() {
+		return lastBorrowNanos;
+	}
+
+	/**
+	 * @return how long the connection has been borrowed, i.e. from its last borrow until its last return
+	 */
+	long getNanosBorrowed() {
+		return lastReturnNanos - lastBorrowNanos;
+	}
+
+	/**
+	 * @return the current borrow as tracked by the {@link LeakDetector}, null if not borrowed or not tracked
+	 */
+	LeakDetector.Lease getLease() {
+		return lease;
+	}
+
+	void setLease(LeakDetector.Lease lease) {
+		this.lease = lease;
+	}
+
+	void markReturned() {
+		lastReturnNanos = System.nanoTime();
+	}
+
+	long getNanosSinceReturned() {
+		return System.nanoTime() - lastReturnNanos;
+	}
+
+	/**
+	 * Marks the connection to be closed as soon as possible, i.e. right away if free, or once returned.
+	 */
+	void markEvicted() {
+		isEvicted = true;
+	}
+
+	boolean isEvicted() {
+		return isEvicted;
+	}
+
+	boolean isExpired() {
+		return System.nanoTime() - creationNanos >= lifetimeNanos;
+	}
+
+	int getState() {
+		return state;
+	}
+
+	void setState(int newState) {
+		state = newState;
+	}
+
+	boolean compareAndSetState(int expectedState, int newState) {
+		return STATE_UPDATER.compareAndSet(this, expectedState, newState);
+	}
+
+}
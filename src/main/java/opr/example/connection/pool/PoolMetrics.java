@@ -0,0 +1,27 @@
+package opr.example.connection.pool;
+
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Counters and histograms recorded by a {@link ConnectionPool}. Recording never blocks nor allocates,
+ * so it is safe to do on the borrow/return path.
+ */
+class PoolMetrics {
+
+	final LatencyHistogram borrowWait = new LatencyHistogram();
+	final LatencyHistogram usage = new LatencyHistogram();
+	final LatencyHistogram creation = new LatencyHistogram();
+	final LatencyHistogram validation = new LatencyHistogram();
+
+	final LongAdder borrows = new LongAdder();
+	final LongAdder timeouts = new LongAdder();
+	final LongAdder creationFailures = new LongAdder();
+	final LongAdder validationFailures = new LongAdder();
+	final LongAdder validationAborts = new LongAdder();
+	final LongAdder evictions = new LongAdder();
+	final LongAdder unclosedStatements = new LongAdder();
+
+	final StatementCache.Counters statementCache = new StatementCache.Counters();
+
+}
@@ -0,0 +1,181 @@
+package opr.example.connection.pool;
+
+
+/**
+ * Point-in-time view of a {@link ConnectionPool}: how many connections there are and what they are doing,
+ * plus the counters and duration histograms collected since the pool was created.
+ *
+ * The values are read one by one while the pool keeps working, so they need not add up exactly.
+ */
+public class PoolStats {
+
+	private final int maxPoolSize;
+	private final int poolSizeLimit;
+	private final int activeConnections;
+	private final int idleConnections;
+	private final int pendingCreations;
+	private final int waitingThreads;
+
+	private final long borrows;
+	private final long timeouts;
+	private final long creationFailures;
+	private final long validationFailures;
+	private final long validationAborts;
+	private final long evictions;
+	private final long unclosedStatements;
+
+	private final LatencyStats borrowWait;
+	private final LatencyStats usage;
+	private final LatencyStats creation;
+	private final LatencyStats validation;
+	private final StatementCacheStats statementCache;
+
+
+	PoolStats(int maxPoolSize, int poolSizeLimit, int activeConnections, int idleConnections, int pendingCreations,
+			int waitingThreads, PoolMetrics metrics) {
+		this.maxPoolSize = maxPoolSize;
+		this.poolSizeLimit = poolSizeLimit;
+		this.activeConnections = activeConnections;
+		this.idleConnections = idleConnections;
+		this.pendingCreations = pendingCreations;
+		this.waitingThreads = waitingThreads;
+		this.borrows = metrics.borrows.sum();
+		this.timeouts = metrics.timeouts.sum();
+		this.creationFailures = metrics.creationFailures.sum();
+		this.validationFailures = metrics.validationFailures.sum();
+		this.validationAborts = metrics.validationAborts.sum();
+		this.evictions = metrics.evictions.sum();
+		this.unclosedStatements = metrics.unclosedStatements.sum();
+		this.borrowWait = metrics.borrowWait.snapshot();
+		this.usage = metrics.usage.snapshot();
+		this.creation = metrics.creation.snapshot();
+		this.validation = metrics.validation.snapshot();
+		this.statementCache = metrics.statementCache.snapshot();
+	}
+
+
+	/**
+	 * @return the max pool size, see {@link ConnectionPool#getMaxPoolSize()}
+	 */
+	public int getMaxPoolSize() {
+		return maxPoolSize;
+	}
+
+	/**
+	 * @return how many connections may the pool open at the moment, see {@link ConnectionPool#getPoolSizeLimit()}
+	 */
+	public int getPoolSizeLimit() {
+		return poolSizeLimit;
+	}
+
+	/**
+	 * @return number of connections borrowed at the moment
+	 */
+	public int getActiveConnections() {
+		return activeConnections;
+	}
+
+	/**
+	 * @return number of open connections free to be borrowed
+	 */
+	public int getIdleConnections() {
+		return idleConnections;
+	}
+
+	/**
+	 * @return number of connections being created at the moment
+	 */
+	public int getPendingCreations() {
+		return pendingCreations;
+	}
+
+	/**
+	 * @return number of borrowers waiting for a connection, both blocked threads and asynchronous ones
+	 */
+	public int getWaitingThreads() {
+		return waitingThreads;
+	}
+
+	public long getBorrows() {
+		return borrows;
+	}
+
+	/**
+	 * @return number of borrowers that gave up waiting for a connection
+	 */
+	public long getTimeouts() {
+		return timeouts;
+	}
+
+	public long getCreationFailures() {
+		return creationFailures;
+	}
+
+	public long getValidationFailures() {
+		return validationFailures;
+	}
+
+	/**
+	 * @return number of connections aborted for not answering the validation in time, see
+	 * {@link ConnectionPoolConfig#setValidationTimeoutMillis(long)}
+	 */
+	public long getValidationAborts() {
+		return validationAborts;
+	}
+
+	/**
+	 * @return number of connections closed by the pool, whether broken, expired, idle or shut down
+	 */
+	public long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * @return number of statements the borrowers left open, closed by the pool once the connections got returned
+	 */
+	public long getUnclosedStatements() {
+		return unclosedStatements;
+	}
+
+	/**
+	 * @return how long borrowers waited for a connection
+	 */
+	public LatencyStats getBorrowWait() {
+		return borrowWait;
+	}
+
+	/**
+	 * @return how long borrowers held the connections
+	 */
+	public LatencyStats getUsage() {
+		return usage;
+	}
+
+	public LatencyStats getCreation() {
+		return creation;
+	}
+
+	/**
+	 * @return duration of validation round-trips to the database
+	 */
+	public LatencyStats getValidation() {
+		return validation;
+	}
+
+	public StatementCacheStats getStatementCache() {
+		return statementCache;
+	}
+
+
+	@Override
+	public String toString() {
+		return "Pool of max " + maxPoolSize + " connections, limited to " + poolSizeLimit + ": " + activeConnections + " active, "
+				+ idleConnections + " idle, " + pendingCreations + " being created, " + waitingThreads + " threads waiting; "
+				+ borrows + " borrows, " + timeouts + " timeouts, " + creationFailures + " creation failures, "
+				+ validationFailures + " validation failures, " + validationAborts + " validation aborts, "
+				+ evictions + " evictions, " + unclosedStatements + " unclosed statements; "
+				+ "borrow wait [" + borrowWait + "], usage [" + usage + "], creation [" + creation + "], "
+				+ "validation [" + validation + "]; " + statementCache;
+	}
+
+}
@@ -1,26 +1,351 @@
 package opr.example.connection.pool;
 
+import java.sql.CallableStatement;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
+import opr.example.connection.util.DelegateCallableStatement;
 import opr.example.connection.util.DelegateConnection;
+import opr.example.connection.util.DelegatePreparedStatement;
+import opr.example.connection.util.DelegateStatement;
 
 
+/**
+ * Connection handed to a borrower, a new one for every borrow. Closing it returns the physical connection
+ * to the pool, only the first close counts. Once closed, it rejects all calls for good, so that a borrower
+ * keeping it after close can neither use the physical connection lent to somebody else meanwhile, nor
+ * return it to the pool a second time.
+ *
+ * All the statements it creates are wrapped and tracked in {@link OpenStatements}, so that the pool
+ * can close those the borrower leaves open, and so that they report this connection as their own.
+ * The pool keeps only the wrapped statements, which know nothing about this connection. So a connection
+ * lost by its borrower can still get garbage collected and reclaimed, while its statements keep it
+ * reachable for as long as the borrower holds any of them.
+ */
 class PooledConnection extends DelegateConnection implements Connection {
 
+	private static final int STATE_OPEN = 0;
+	private static final int STATE_CLOSED = 1;
+
+	private static final AtomicIntegerFieldUpdater<PooledConnection> STATE_UPDATER =
+			AtomicIntegerFieldUpdater.newUpdater(PooledConnection.class, "state");
+
 	private final PooledConnectionListener listener;
+	private final StatementCache statementCache;
+	private final ConnectionState connectionState;
+	private final OpenStatements openStatements;
+
+	private volatile int state = STATE_OPEN;
 
 
 	PooledConnection(Connection delegate, PooledConnectionListener listener) {
+		this(delegate, listener, null, null, new OpenStatements());
+	}
+
+	/**
+	 * @param statementCache cache of the delegate's prepared statements, or null if they should not be cached
+	 * @param connectionState tracker of the delegate's session properties, or null if they should not be tracked
+	 * @param openStatements tracker of the delegate's open statements
+	 */
+	PooledConnection(Connection delegate, PooledConnectionListener listener,
+			StatementCache statementCache, ConnectionState connectionState, OpenStatements openStatements) {
 		super(delegate, true);
 		this.listener = listener;
+		this.statementCache = statementCache;
+		this.connectionState = connectionState;
+		this.openStatements = openStatements;
 	}
 
 	
 	@Override
 	public void close() throws SQLException {
-		super.close();
-		listener.onClose(this);
+		if (STATE_UPDATER.compareAndSet(this, STATE_OPEN, STATE_CLOSED)) {
+			listener.onClose(this);
+		}
+	}
+
+	@Override
+	protected void blowIfClosed() throws SQLException {
+		if (state != STATE_OPEN) {
+			throw new SQLException("Connection has been closed");
+		}
+	}
+
+
+	@Override
+	public void setAutoCommit(boolean autoCommit) throws SQLException {
+		if (connectionState == null) {
+			super.setAutoCommit(autoCommit);
+			return;
+		}
+		blowIfClosed();
+		connectionState.setAutoCommit(getDelegate(), autoCommit);
+	}
+
+	@Override
+	public void setReadOnly(boolean readOnly) throws SQLException {
+		if (connectionState == null) {
+			super.setReadOnly(readOnly);
+			return;
+		}
+		blowIfClosed();
+		connectionState.setReadOnly(getDelegate(), readOnly);
+	}
+
+	@Override
+	public void setTransactionIsolation(int level) throws SQLException {
+		if (connectionState == null) {
+			super.setTransactionIsolation(level);
+			return;
+		}
+		blowIfClosed();
+		connectionState.setTransactionIsolation(getDelegate(), level);
+	}
+
+	@Override
+	public void setCatalog(String catalog) throws SQLException {
+		if (connectionState == null) {
+			super.setCatalog(catalog);
+			return;
+		}
+		blowIfClosed();
+		connectionState.setCatalog(getDelegate(), catalog);
+	}
+
+	@Override
+	public void setSchema(String schema) throws SQLException {
+		if (connectionState == null) {
+			super.setSchema(schema);
+			return;
+		}
+		blowIfClosed();
+		connectionState.setSchema(getDelegate(), schema);
+	}
+
+	@Override
+	public void setNetworkTimeout(Executor executor, int milliseconds) throws SQLException {
+		if (connectionState == null) {
+			super.setNetworkTimeout(executor, milliseconds);
+			return;
+		}
+		blowIfClosed();
+		connectionState.setNetworkTimeout(getDelegate(), executor, milliseconds);
+	}
+
+
+	@Override
+	public Statement createStatement() throws SQLException {
+		return track(super.createStatement());
+	}
+
+	@Override
+	public Statement createStatement(int resultSetType, int resultSetConcurrency) throws SQLException {
+		return track(super.createStatement(resultSetType, resultSetConcurrency));
+	}
+
+	@Override
+	public Statement createStatement(int resultSetType, int resultSetConcurrency, int resultSetHoldability)
+			throws SQLException {
+		return track(super.createStatement(resultSetType, resultSetConcurrency, resultSetHoldability));
+	}
+
+
+	@Override
+	public PreparedStatement prepareStatement(String sql) throws SQLException {
+		if (!isStatementCacheUsable()) {
+			return track(super.prepareStatement(sql));
+		}
+		blowIfClosed();
+		return track(statementCache.prepare(StatementKey.of(sql), () -> getDelegate().prepareStatement(sql)));
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency)
+			throws SQLException {
+		if (!isStatementCacheUsable()) {
+			return track(super.prepareStatement(sql, resultSetType, resultSetConcurrency));
+		}
+		blowIfClosed();
+		return track(statementCache.prepare(
+				StatementKey.of(sql, resultSetType, resultSetConcurrency),
+				() -> getDelegate().prepareStatement(sql, resultSetType, resultSetConcurrency)));
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency,
+			int resultSetHoldability) throws SQLException {
+		if (!isStatementCacheUsable()) {
+			return track(super.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability));
+		}
+		blowIfClosed();
+		return track(statementCache.prepare(
+				StatementKey.of(sql, resultSetType, resultSetConcurrency, resultSetHoldability),
+				() -> getDelegate().prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability)));
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+		if (!isStatementCacheUsable()) {
+			return track(super.prepareStatement(sql, autoGeneratedKeys));
+		}
+		blowIfClosed();
+		return track(statementCache.prepare(
+				StatementKey.withGeneratedKeys(sql, autoGeneratedKeys),
+				() -> getDelegate().prepareStatement(sql, autoGeneratedKeys)));
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
+		if (!isStatementCacheUsable()) {
+			return track(super.prepareStatement(sql, columnIndexes));
+		}
+		blowIfClosed();
+		return track(statementCache.prepare(
+				StatementKey.withGeneratedKeys(sql, columnIndexes),
+				() -> getDelegate().prepareStatement(sql, columnIndexes)));
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
+		if (!isStatementCacheUsable()) {
+			return track(super.prepareStatement(sql, columnNames));
+		}
+		blowIfClosed();
+		return track(statementCache.prepare(
+				StatementKey.withGeneratedKeys(sql, columnNames),
+				() -> getDelegate().prepareStatement(sql, columnNames)));
+	}
+
+
+	/**
+	 * The cached statements have all been prepared with the connection's default catalog and schema,
+	 * so they must not be handed out while the borrower has switched to another one.
+	 */
+	private boolean isStatementCacheUsable() {
+		return statementCache != null && (connectionState == null || !connectionState.isCatalogOrSchemaChanged());
+	}
+
+
+	@Override
+	public CallableStatement prepareCall(String sql) throws SQLException {
+		return track(super.prepareCall(sql));
+	}
+
+	@Override
+	public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+		return track(super.prepareCall(sql, resultSetType, resultSetConcurrency));
+	}
+
+	@Override
+	public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency,
+			int resultSetHoldability) throws SQLException {
+		return track(super.prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability));
+	}
+
+	private Statement track(Statement statement) {
+		openStatements.add(statement);
+		return new TrackedStatement(statement, openStatements, this);
+	}
+
+	private PreparedStatement track(PreparedStatement statement) {
+		openStatements.add(statement);
+		return new TrackedPreparedStatement(statement, openStatements, this);
+	}
+
+	private CallableStatement track(CallableStatement statement) {
+		openStatements.add(statement);
+		return new TrackedCallableStatement(statement, openStatements, this);
+	}
+
+
+	private static class TrackedStatement extends DelegateStatement {
+
+		private final OpenStatements openStatements;
+		private final PooledConnection connection;
+		private boolean isReleased;
+
+		TrackedStatement(Statement delegate, OpenStatements openStatements, PooledConnection connection) {
+			super(delegate, false);
+			this.openStatements = openStatements;
+			this.connection = connection;
+		}
+
+		@Override
+		public void close() throws SQLException {
+			if (!isReleased) {
+				isReleased = true;
+				openStatements.remove(getDelegate());
+			}
+			super.close();
+		}
+
+		@Override
+		public Connection getConnection() throws SQLException {
+			blowIfClosed();
+			return connection;
+		}
+	}
+
+
+	private static class TrackedPreparedStatement extends DelegatePreparedStatement {
+
+		private final OpenStatements openStatements;
+		private final PooledConnection connection;
+		private boolean isReleased;
+
+		TrackedPreparedStatement(PreparedStatement delegate, OpenStatements openStatements, PooledConnection connection) {
+			super(delegate, false);
+			this.openStatements = openStatements;
+			this.connection = connection;
+		}
+
+		@Override
+		public void close() throws SQLException {
+			if (!isReleased) {
+				isReleased = true;
+				openStatements.remove(getDelegate());
+			}
+			super.close();
+		}
+
+		@Override
+		public Connection getConnection() throws SQLException {
+			blowIfClosed();
+			return connection;
+		}
+	}
+
+
+	private static class TrackedCallableStatement extends DelegateCallableStatement {
+
+		private final OpenStatements openStatements;
+		private final PooledConnection connection;
+		private boolean isReleased;
+
+		TrackedCallableStatement(CallableStatement delegate, OpenStatements openStatements, PooledConnection connection) {
+			super(delegate, false);
+			this.openStatements = openStatements;
+			this.connection = connection;
+		}
+
+		@Override
+		public void close() throws SQLException {
+			if (!isReleased) {
+				isReleased = true;
+				openStatements.remove(getDelegate());
+			}
+			super.close();
+		}
+
+		@Override
+		public Connection getConnection() throws SQLException {
+			blowIfClosed();
+			return connection;
+		}
 	}
 
 }
@@ -0,0 +1,156 @@
+package opr.example.connection.pool;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import opr.example.connection.util.DelegatePreparedStatement;
+
+
+/**
+ * Bounded LRU cache of prepared statements of a single physical connection.
+ * 
+ * Borrowers get the cached statements wrapped, so that closing the wrapper only returns
+ * the statement back to the cache. The real statement gets closed once evicted from the cache,
+ * or together with its physical connection.
+ * 
+ * Same as the connection itself, the cache is meant to be used by one thread at a time,
+ * i.e. by the thread that has the connection borrowed.
+ */
+class StatementCache {
+
+	private final int maxSize;
+	private final Counters counters;
+	private final Map<StatementKey, CachedStatement> statements;
+
+
+	StatementCache(int maxSize, Counters counters) {
+		this.maxSize = maxSize;
+		this.counters = counters;
+		this.statements = new LinkedHashMap<StatementKey, CachedStatement>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<StatementKey, CachedStatement> eldest) {
+				if (size() <= StatementCache.this.maxSize) {
+					return false;
+				}
+				evict(eldest.getValue());
+				return true;
+			}
+		};
+	}
+
+
+	/**
+	 * Returns the cached statement for the key, or prepares a new one using the given preparer.
+	 */
+	PreparedStatement prepare(StatementKey key, StatementPreparer preparer) throws SQLException {
+		CachedStatement cached = statements.get(key);
+		if (cached != null && !cached.isInUse) {
+			counters.hits.increment();
+			cached.isInUse = true;
+			return new CachedPreparedStatement(cached);
+		}
+
+		counters.misses.increment();
+		PreparedStatement statement = preparer.prepare();
+		if (cached != null) {
+			//the same statement is in use already, the new one won't be cached
+			return statement;
+		}
+		cached = new CachedStatement(statement);
+		cached.isInUse = true;
+		statements.put(key, cached);
+		return new CachedPreparedStatement(cached);
+	}
+
+	private void release(CachedStatement cached) {
+		cached.isInUse = false;
+		if (cached.isEvicted) {
+			closeQuietly(cached.statement);
+			return;
+		}
+		try {
+			cached.statement.clearParameters();
+			cached.statement.clearBatch();
+		} catch (SQLException e) {
+			statements.values().remove(cached);
+			closeQuietly(cached.statement);
+		}
+	}
+
+	private void evict(CachedStatement cached) {
+		counters.evictions.increment();
+		cached.isEvicted = true;
+		if (!cached.isInUse) {
+			closeQuietly(cached.statement);
+		}
+	}
+
+	int size() {
+		return statements.size();
+	}
+
+	private static void closeQuietly(PreparedStatement statement) {
+		try {
+			statement.close();
+		} catch (SQLException ignore) {}
+	}
+
+
+	interface StatementPreparer {
+		PreparedStatement prepare() throws SQLException;
+	}
+
+
+	private static class CachedStatement {
+
+		private final PreparedStatement statement;
+		private boolean isInUse;
+		private boolean isEvicted;
+
+		CachedStatement(PreparedStatement statement) {
+			this.statement = statement;
+		}
+	}
+
+
+	private class CachedPreparedStatement extends DelegatePreparedStatement {
+
+		private final CachedStatement cached;
+		private boolean isReleased;
+
+		CachedPreparedStatement(CachedStatement cached) {
+			super(cached.statement, true);
+			this.cached = cached;
+		}
+
+		@Override
+		public void close() throws SQLException {
+			super.close();
+			if (!isReleased) {
+				isReleased = true;
+				release(cached);
+			}
+		}
+	}
+
+
+	/**
+	 * Statistics shared by the caches of all connections in a pool.
+	 */
+	static class Counters {
+
+		private final LongAdder hits = new LongAdder();
+		private final LongAdder misses = new LongAdder();
+		private final LongAdder evictions = new LongAdder();
+
+		StatementCacheStats snapshot() {
+			return new StatementCacheStats(hits.sum(), misses.sum(), evictions.sum());
+		}
+	}
+
+}
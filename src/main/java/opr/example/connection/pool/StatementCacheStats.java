@@ -0,0 +1,39 @@
+package opr.example.connection.pool;
+
+
+/**
+ * Snapshot of how the prepared statement caches of all connections in a {@link ConnectionPool} performed.
+ */
+public class StatementCacheStats {
+
+	private final long hits;
+	private final long misses;
+	private final long evictions;
+
+
+	StatementCacheStats(long hits, long misses, long evictions) {
+		this.hits = hits;
+		this.misses = misses;
+		this.evictions = evictions;
+	}
+
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	public long getEvictions() {
+		return evictions;
+	}
+
+
+	@Override
+	public String toString() {
+		return "Statement cache hits: " + hits + ", misses: " + misses + ", evictions: " + evictions;
+	}
+
+}
@@ -0,0 +1,91 @@
+package opr.example.connection.pool;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+
+/**
+ * Identifies a prepared statement by everything that was passed to the
+ * {@link java.sql.Connection#prepareStatement(String) prepareStatement(...)} call creating it.
+ */
+final class StatementKey {
+
+	private static final int UNSPECIFIED = Integer.MIN_VALUE;
+
+	private final String sql;
+	private final int resultSetType;
+	private final int resultSetConcurrency;
+	private final int resultSetHoldability;
+	private final int autoGeneratedKeys;
+	private final int[] columnIndexes;
+	private final String[] columnNames;
+	private final int hashCode;
+
+
+	private StatementKey(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability,
+			int autoGeneratedKeys, int[] columnIndexes, String[] columnNames) {
+		this.sql = sql;
+		this.resultSetType = resultSetType;
+		this.resultSetConcurrency = resultSetConcurrency;
+		this.resultSetHoldability = resultSetHoldability;
+		this.autoGeneratedKeys = autoGeneratedKeys;
+		this.columnIndexes = columnIndexes;
+		this.columnNames = columnNames;
+		this.hashCode = computeHashCode();
+	}
+
+	static StatementKey of(String sql) {
+		return new StatementKey(sql, UNSPECIFIED, UNSPECIFIED, UNSPECIFIED, UNSPECIFIED, null, null);
+	}
+
+	static StatementKey of(String sql, int resultSetType, int resultSetConcurrency) {
+		return new StatementKey(sql, resultSetType, resultSetConcurrency, UNSPECIFIED, UNSPECIFIED, null, null);
+	}
+
+	static StatementKey of(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) {
+		return new StatementKey(sql, resultSetType, resultSetConcurrency, resultSetHoldability, UNSPECIFIED, null, null);
+	}
+
+	static StatementKey withGeneratedKeys(String sql, int autoGeneratedKeys) {
+		return new StatementKey(sql, UNSPECIFIED, UNSPECIFIED, UNSPECIFIED, autoGeneratedKeys, null, null);
+	}
+
+	static StatementKey withGeneratedKeys(String sql, int[] columnIndexes) {
+		return new StatementKey(sql, UNSPECIFIED, UNSPECIFIED, UNSPECIFIED, UNSPECIFIED, columnIndexes.clone(), null);
+	}
+
+	static StatementKey withGeneratedKeys(String sql, String[] columnNames) {
+		return new StatementKey(sql, UNSPECIFIED, UNSPECIFIED, UNSPECIFIED, UNSPECIFIED, null, columnNames.clone());
+	}
+
+
+	private int computeHashCode() {
+		int result = Objects.hash(sql, resultSetType, resultSetConcurrency, resultSetHoldability, autoGeneratedKeys);
+		result = 31 * result + Arrays.hashCode(columnIndexes);
+		return 31 * result + Arrays.hashCode(columnNames);
+	}
+
+	@Override
+	public int hashCode() {
+		return hashCode;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		} else if (!(obj instanceof StatementKey)) {
+			return false;
+		}
+		StatementKey other = (StatementKey) obj;
+		return hashCode == other.hashCode
+				&& sql.equals(other.sql)
+				&& resultSetType == other.resultSetType
+				&& resultSetConcurrency == other.resultSetConcurrency
+				&& resultSetHoldability == other.resultSetHoldability
+				&& autoGeneratedKeys == other.autoGeneratedKeys
+				&& Arrays.equals(columnIndexes, other.columnIndexes)
+				&& Arrays.equals(columnNames, other.columnNames);
+	}
+
+}
@@ -0,0 +1,29 @@
+package opr.example.connection.pool;
+
+
+/**
+ * Decides when the {@link ConnectionPool} checks that its connections still work.
+ * 
+ * Whatever the mode, a connection that has been proven alive within the configured
+ * {@link ConnectionPoolConfig#setValidationIntervalMillis(long) validation interval} gets only
+ * a cheap local check (whether it has been closed), instead of a round-trip to the database.
+ */
+public enum ValidationMode {
+
+	/**
+	 * The returning thread validates the connection before it gets back to the pool.
+	 */
+	ON_RETURN,
+
+	/**
+	 * The connection is validated in background after being returned, so that the returning
+	 * thread does not have to wait. It becomes available to borrowers once the validation passes.
+	 */
+	ON_RETURN_ASYNC,
+
+	/**
+	 * The borrowing thread validates the connection before using it, but only if the connection
+	 * has been idle for longer than the validation interval. Returns do only the cheap local check.
+	 */
+	ON_BORROW,
+}
@@ -0,0 +1,40 @@
+package opr.example.connection.pool;
+
+
+/**
+ * Outcome of {@link ConnectionPool#warmUp()}.
+ */
+public class WarmUpReport {
+
+	private final int createdConnections;
+	private final int failedConnections;
+	private final long durationMillis;
+
+
+	WarmUpReport(int createdConnections, int failedConnections, long durationMillis) {
+		this.createdConnections = createdConnections;
+		this.failedConnections = failedConnections;
+		this.durationMillis = durationMillis;
+	}
+
+
+	public int getCreatedConnections() {
+		return createdConnections;
+	}
+
+	public int getFailedConnections() {
+		return failedConnections;
+	}
+
+	public long getDurationMillis() {
+		return durationMillis;
+	}
+
+
+	@Override
+	public String toString() {
+		return "Warm-up took " + durationMillis + " ms, created " + createdConnections
+				+ " connections, " + failedConnections + " failed";
+	}
+
+}
@@ -0,0 +1,29 @@
+package opr.example.connection.util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Creates daemon threads named after the given prefix, so that background work of the
+ * connection manager never prevents the JVM from exiting.
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+
+	private final String namePrefix;
+	private final AtomicInteger threadCounter = new AtomicInteger(0);
+
+
+	public DaemonThreadFactory(String namePrefix) {
+		this.namePrefix = namePrefix;
+	}
+
+
+	@Override
+	public Thread newThread(Runnable task) {
+		Thread thread = new Thread(task, namePrefix + " #" + threadCounter.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	}
+
+}
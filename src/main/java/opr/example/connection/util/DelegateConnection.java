@@ -47,7 +47,7 @@ public class DelegateConnection implements Connection {
 		}
 	}
 	
-	private void blowIfClosed() throws SQLException {
+	protected void blowIfClosed() throws SQLException {
 		if (isClosed) {
 			throw new SQLException("Connection has been closed");
 		}
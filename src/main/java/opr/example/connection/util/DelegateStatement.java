@@ -0,0 +1,349 @@
+package opr.example.connection.util;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.Statement;
+
+
+public class DelegateStatement implements Statement {
+
+	private final Statement delegate;
+	private final boolean shouldNeverDelegateClose;
+
+	private volatile boolean isClosed;
+
+
+	public DelegateStatement(Statement delegate, boolean shouldNeverDelegateClose) {
+		this.delegate = delegate;
+		this.shouldNeverDelegateClose = shouldNeverDelegateClose;
+	}
+
+
+	public Statement getDelegate() {
+		return delegate;
+	}
+
+
+	@Override
+	public void close() throws SQLException {
+		isClosed = true;
+		if (!shouldNeverDelegateClose) {
+			delegate.close();
+		}
+	}
+
+	@Override
+	public boolean isClosed() throws SQLException {
+		return isClosed || delegate.isClosed();
+	}
+
+	protected void blowIfClosed() throws SQLException {
+		if (isClosed) {
+			throw new SQLException("Statement has been closed");
+		}
+	}
+
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		blowIfClosed();
+		return delegate.unwrap(iface);
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		blowIfClosed();
+		return delegate.isWrapperFor(iface);
+	}
+
+	@Override
+	public ResultSet executeQuery(String sql) throws SQLException {
+		blowIfClosed();
+		return delegate.executeQuery(sql);
+	}
+
+	@Override
+	public int executeUpdate(String sql) throws SQLException {
+		blowIfClosed();
+		return delegate.executeUpdate(sql);
+	}
+
+	@Override
+	public int getMaxFieldSize() throws SQLException {
+		blowIfClosed();
+		return delegate.getMaxFieldSize();
+	}
+
+	@Override
+	public void setMaxFieldSize(int max) throws SQLException {
+		blowIfClosed();
+		delegate.setMaxFieldSize(max);
+	}
+
+	@Override
+	public int getMaxRows() throws SQLException {
+		blowIfClosed();
+		return delegate.getMaxRows();
+	}
+
+	@Override
+	public void setMaxRows(int max) throws SQLException {
+		blowIfClosed();
+		delegate.setMaxRows(max);
+	}
+
+	@Override
+	public void setEscapeProcessing(boolean enable) throws SQLException {
+		blowIfClosed();
+		delegate.setEscapeProcessing(enable);
+	}
+
+	@Override
+	public int getQueryTimeout() throws SQLException {
+		blowIfClosed();
+		return delegate.getQueryTimeout();
+	}
+
+	@Override
+	public void setQueryTimeout(int seconds) throws SQLException {
+		blowIfClosed();
+		delegate.setQueryTimeout(seconds);
+	}
+
+	@Override
+	public void cancel() throws SQLException {
+		blowIfClosed();
+		delegate.cancel();
+	}
+
+	@Override
+	public SQLWarning getWarnings() throws SQLException {
+		blowIfClosed();
+		return delegate.getWarnings();
+	}
+
+	@Override
+	public void clearWarnings() throws SQLException {
+		blowIfClosed();
+		delegate.clearWarnings();
+	}
+
+	@Override
+	public void setCursorName(String name) throws SQLException {
+		blowIfClosed();
+		delegate.setCursorName(name);
+	}
+
+	@Override
+	public boolean execute(String sql) throws SQLException {
+		blowIfClosed();
+		return delegate.execute(sql);
+	}
+
+	@Override
+	public ResultSet getResultSet() throws SQLException {
+		blowIfClosed();
+		return delegate.getResultSet();
+	}
+
+	@Override
+	public int getUpdateCount() throws SQLException {
+		blowIfClosed();
+		return delegate.getUpdateCount();
+	}
+
+	@Override
+	public boolean getMoreResults() throws SQLException {
+		blowIfClosed();
+		return delegate.getMoreResults();
+	}
+
+	@Override
+	public void setFetchDirection(int direction) throws SQLException {
+		blowIfClosed();
+		delegate.setFetchDirection(direction);
+	}
+
+	@Override
+	public int getFetchDirection() throws SQLException {
+		blowIfClosed();
+		return delegate.getFetchDirection();
+	}
+
+	@Override
+	public void setFetchSize(int rows) throws SQLException {
+		blowIfClosed();
+		delegate.setFetchSize(rows);
+	}
+
+	@Override
+	public int getFetchSize() throws SQLException {
+		blowIfClosed();
+		return delegate.getFetchSize();
+	}
+
+	@Override
+	public int getResultSetConcurrency() throws SQLException {
+		blowIfClosed();
+		return delegate.getResultSetConcurrency();
+	}
+
+	@Override
+	public int getResultSetType() throws SQLException {
+		blowIfClosed();
+		return delegate.getResultSetType();
+	}
+
+	@Override
+	public void addBatch(String sql) throws SQLException {
+		blowIfClosed();
+		delegate.addBatch(sql);
+	}
+
+	@Override
+	public void clearBatch() throws SQLException {
+		blowIfClosed();
+		delegate.clearBatch();
+	}
+
+	@Override
+	public int[] executeBatch() throws SQLException {
+		blowIfClosed();
+		return delegate.executeBatch();
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		blowIfClosed();
+		return delegate.getConnection();
+	}
+
+	@Override
+	public boolean getMoreResults(int current) throws SQLException {
+		blowIfClosed();
+		return delegate.getMoreResults(current);
+	}
+
+	@Override
+	public ResultSet getGeneratedKeys() throws SQLException {
+		blowIfClosed();
+		return delegate.getGeneratedKeys();
+	}
+
+	@Override
+	public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+		blowIfClosed();
+		return delegate.executeUpdate(sql, autoGeneratedKeys);
+	}
+
+	@Override
+	public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+		blowIfClosed();
+		return delegate.executeUpdate(sql, columnIndexes);
+	}
+
+	@Override
+	public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+		blowIfClosed();
+		return delegate.executeUpdate(sql, columnNames);
+	}
+
+	@Override
+	public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
+		blowIfClosed();
+		return delegate.execute(sql, autoGeneratedKeys);
+	}
+
+	@Override
+	public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+		blowIfClosed();
+		return delegate.execute(sql, columnIndexes);
+	}
+
+	@Override
+	public boolean execute(String sql, String[] columnNames) throws SQLException {
+		blowIfClosed();
+		return delegate.execute(sql, columnNames);
+	}
+
+	@Override
+	public int getResultSetHoldability() throws SQLException {
+		blowIfClosed();
+		return delegate.getResultSetHoldability();
+	}
+
+	@Override
+	public void setPoolable(boolean poolable) throws SQLException {
+		blowIfClosed();
+		delegate.setPoolable(poolable);
+	}
+
+	@Override
+	public boolean isPoolable() throws SQLException {
+		blowIfClosed();
+		return delegate.isPoolable();
+	}
+
+	@Override
+	public void closeOnCompletion() throws SQLException {
+		blowIfClosed();
+		delegate.closeOnCompletion();
+	}
+
+	@Override
+	public boolean isCloseOnCompletion() throws SQLException {
+		blowIfClosed();
+		return delegate.isCloseOnCompletion();
+	}
+
+	@Override
+	public long getLargeUpdateCount() throws SQLException {
+		blowIfClosed();
+		return delegate.getLargeUpdateCount();
+	}
+
+	@Override
+	public void setLargeMaxRows(long max) throws SQLException {
+		blowIfClosed();
+		delegate.setLargeMaxRows(max);
+	}
+
+	@Override
+	public long getLargeMaxRows() throws SQLException {
+		blowIfClosed();
+		return delegate.getLargeMaxRows();
+	}
+
+	@Override
+	public long[] executeLargeBatch() throws SQLException {
+		blowIfClosed();
+		return delegate.executeLargeBatch();
+	}
+
+	@Override
+	public long executeLargeUpdate(String sql) throws SQLException {
+		blowIfClosed();
+		return delegate.executeLargeUpdate(sql);
+	}
+
+	@Override
+	public long executeLargeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+		blowIfClosed();
+		return delegate.executeLargeUpdate(sql, autoGeneratedKeys);
+	}
+
+	@Override
+	public long executeLargeUpdate(String sql, int[] columnIndexes) throws SQLException {
+		blowIfClosed();
+		return delegate.executeLargeUpdate(sql, columnIndexes);
+	}
+
+	@Override
+	public long executeLargeUpdate(String sql, String[] columnNames) throws SQLException {
+		blowIfClosed();
+		return delegate.executeLargeUpdate(sql, columnNames);
+	}
+
+}
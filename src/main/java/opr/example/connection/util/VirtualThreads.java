@@ -0,0 +1,43 @@
+package opr.example.connection.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+
+/**
+ * Tells virtual threads apart from platform ones while still running on Java 8.
+ *
+ * On Java 21 and later the multi-release jar replaces this class by one calling
+ * {@code Thread.isVirtual()} directly. This version is used on older runtimes, and on any
+ * runtime when the classes are not loaded from the jar, e.g. in tests.
+ */
+public final class VirtualThreads {
+
+	private static final MethodHandle IS_VIRTUAL = findIsVirtual();
+
+
+	private VirtualThreads() {
+	}
+
+	private static MethodHandle findIsVirtual() {
+		try {
+			return MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+		} catch (NoSuchMethodException | IllegalAccessException e) {
+			return null;
+		}
+	}
+
+
+	public static boolean isVirtual(Thread thread) {
+		if (IS_VIRTUAL == null) {
+			return false;
+		}
+		try {
+			return (boolean) IS_VIRTUAL.invokeExact(thread);
+		} catch (Throwable e) {
+			return false;
+		}
+	}
+
+}
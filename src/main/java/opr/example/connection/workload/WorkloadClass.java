@@ -0,0 +1,55 @@
+package opr.example.connection.workload;
+
+
+/**
+ * Named group of borrowers sharing a pool with other groups, e.g. latency-critical API requests
+ * and batch jobs, see {@link WorkloadGate}.
+ */
+public final class WorkloadClass {
+
+	private final String name;
+	private final int minConnections;
+	private final int maxConnections;
+	private final int priority;
+
+
+	/**
+	 * @param minConnections how many of the pool's connections are reserved for the class, i.e. other classes
+	 * cannot take them even if the class does not use them at the moment
+	 * @param maxConnections how many connections may the class use at most, even if the pool has more free ones
+	 * @param priority borrowers of classes with higher priority get connections first when they have to wait
+	 */
+	public WorkloadClass(String name, int minConnections, int maxConnections, int priority) {
+		if (minConnections < 0 || maxConnections < 1 || minConnections > maxConnections) {
+			throw new IllegalArgumentException("Invalid connection bounds of workload " + name + ": "
+					+ minConnections + " to " + maxConnections);
+		}
+		this.name = name;
+		this.minConnections = minConnections;
+		this.maxConnections = maxConnections;
+		this.priority = priority;
+	}
+
+
+	public String getName() {
+		return name;
+	}
+
+	public int getMinConnections() {
+		return minConnections;
+	}
+
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	public int getPriority() {
+		return priority;
+	}
+
+	@Override
+	public String toString() {
+		return name + " [" + minConnections + " to " + maxConnections + " connections, priority " + priority + "]";
+	}
+
+}
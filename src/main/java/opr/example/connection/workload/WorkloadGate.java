@@ -0,0 +1,238 @@
+package opr.example.connection.workload;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntSupplier;
+
+
+/**
+ * Decides which {@link WorkloadClass} may borrow a connection from a shared pool next, so that
+ * one class cannot starve the others.
+ *
+ * A borrower may proceed to the pool only while its class uses fewer connections than its max, and while
+ * that leaves enough room in the pool for the min connections reserved for the other classes. Otherwise it
+ * waits. Once a connection is returned, the waiters are let in by priority, and in order of arrival within
+ * the same priority. A waiter that still cannot proceed, e.g. since its class is at its max, does not hold up
+ * the waiters behind it.
+ *
+ * Only borrowers passing the gate are counted. Connections borrowed from the pool directly take room
+ * the gate does not know about.
+ */
+public class WorkloadGate {
+
+	private static final Comparator<Waiter> BY_PRIORITY_AND_ARRIVAL =
+			Comparator.comparingInt((Waiter waiter) -> -waiter.workload.workloadClass.getPriority())
+					.thenComparingLong(waiter -> waiter.arrival);
+
+	private final IntSupplier poolSizeLimit;
+	private final Map<String, Workload> workloads = new HashMap<>();
+
+	private final Lock lock = new ReentrantLock();
+	//guarded by lock
+	private final TreeSet<Waiter> waiters = new TreeSet<>(BY_PRIORITY_AND_ARRIVAL);
+	private int connectionsInUse = 0;
+	private long arrivals = 0;
+
+
+	/**
+	 * @param poolSizeLimit how many connections may the pool open at the moment
+	 */
+	public WorkloadGate(List<WorkloadClass> workloadClasses, IntSupplier poolSizeLimit) {
+		this.poolSizeLimit = poolSizeLimit;
+		for (WorkloadClass workloadClass : workloadClasses) {
+			workloads.put(workloadClass.getName(), new Workload(workloadClass));
+		}
+	}
+
+
+	/**
+	 * Waits until a borrower of the given class may borrow a connection.
+	 * @param timeoutNanos how long to wait at most, or a negative value to wait as long as needed
+	 * @return false if the time has elapsed
+	 * @throws IllegalArgumentException if there is no class of the given name
+	 */
+	public boolean enter(String workloadName, long timeoutNanos) throws InterruptedException {
+		Workload workload = workloadOf(workloadName);
+		long start = System.nanoTime();
+		lock.lock();
+		try {
+			if (isAdmissible(workload)) {
+				admit(workload, start);
+				return true;
+			}
+			Waiter waiter = new Waiter(workload, lock.newCondition(), arrivals++);
+			waiters.add(waiter);
+			workload.waiting++;
+			try {
+				long remainingNanos = timeoutNanos;
+				while (!waiter.isAdmitted) {
+					if (timeoutNanos < 0) {
+						waiter.turn.await();
+					} else if (remainingNanos > 0) {
+						remainingNanos = waiter.turn.awaitNanos(remainingNanos);
+					} else {
+						workload.timeouts.increment();
+						return false;
+					}
+				}
+			} catch (InterruptedException e) {
+				if (waiter.isAdmitted) {
+					exit(workload);
+				}
+				throw e;
+			} finally {
+				if (!waiter.isAdmitted) {
+					waiters.remove(waiter);
+				}
+				workload.waiting--;
+			}
+			workload.recordWait(System.nanoTime() - start);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Lets the gate know that a borrower of the given class is done, either returning its connection,
+	 * or failing to borrow one after it has entered.
+	 */
+	public void release(String workloadName) {
+		Workload workload = workloadOf(workloadName);
+		lock.lock();
+		try {
+			exit(workload);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Lets the gate know that the pool may open more connections than before, so that the waiters
+	 * who fit in now get in without waiting for some connection to be returned.
+	 */
+	public void onPoolSizeLimitRaised() {
+		lock.lock();
+		try {
+			admitWaiters();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void exit(Workload workload) {
+		workload.connectionsInUse--;
+		connectionsInUse--;
+		admitWaiters();
+	}
+
+	private void admitWaiters() {
+		for (Waiter waiter : waiters.toArray(new Waiter[0])) {
+			if (isAdmissible(waiter.workload)) {
+				waiters.remove(waiter);
+				waiter.isAdmitted = true;
+				waiter.workload.connectionsInUse++;
+				connectionsInUse++;
+				waiter.turn.signal();
+			}
+		}
+	}
+
+	private boolean isAdmissible(Workload workload) {
+		int capacity = poolSizeLimit.getAsInt();
+		if (workload.connectionsInUse >= workload.workloadClass.getMaxConnections() || connectionsInUse >= capacity) {
+			return false;
+		}
+		if (workload.connectionsInUse < workload.workloadClass.getMinConnections()) {
+			return true;
+		}
+		int reservedForOthers = 0;
+		for (Workload other : workloads.values()) {
+			if (other != workload) {
+				reservedForOthers += Math.max(other.workloadClass.getMinConnections() - other.connectionsInUse, 0);
+			}
+		}
+		return connectionsInUse + reservedForOthers < capacity;
+	}
+
+	private void admit(Workload workload, long start) {
+		workload.connectionsInUse++;
+		connectionsInUse++;
+		workload.recordWait(System.nanoTime() - start);
+	}
+
+	private Workload workloadOf(String workloadName) {
+		Workload workload = workloads.get(workloadName);
+		if (workload == null) {
+			throw new IllegalArgumentException("Unknown workload: " + workloadName);
+		}
+		return workload;
+	}
+
+
+	/**
+	 * @throws IllegalArgumentException if there is no class of the given name
+	 */
+	public WorkloadStats getStats(String workloadName) {
+		Workload workload = workloadOf(workloadName);
+		int connectionsInUse;
+		int waiting;
+		lock.lock();
+		try {
+			connectionsInUse = workload.connectionsInUse;
+			waiting = workload.waiting;
+		} finally {
+			lock.unlock();
+		}
+		long borrows = workload.borrows.sum();
+		return new WorkloadStats(workloadName, connectionsInUse, waiting, borrows, workload.timeouts.sum(),
+				(borrows == 0) ? 0L : workload.totalWaitNanos.sum() / borrows, workload.maxWaitNanos.get());
+	}
+
+
+	private static class Workload {
+
+		private final WorkloadClass workloadClass;
+		//guarded by the gate's lock
+		private int connectionsInUse = 0;
+		private int waiting = 0;
+
+		private final LongAdder borrows = new LongAdder();
+		private final LongAdder timeouts = new LongAdder();
+		private final LongAdder totalWaitNanos = new LongAdder();
+		private final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0L);
+
+		Workload(WorkloadClass workloadClass) {
+			this.workloadClass = workloadClass;
+		}
+
+		void recordWait(long nanos) {
+			borrows.increment();
+			totalWaitNanos.add(nanos);
+			maxWaitNanos.accumulate(nanos);
+		}
+	}
+
+	private static class Waiter {
+
+		private final Workload workload;
+		private final Condition turn;
+		private final long arrival;
+		private boolean isAdmitted = false;
+
+		Waiter(Workload workload, Condition turn, long arrival) {
+			this.workload = workload;
+			this.turn = turn;
+			this.arrival = arrival;
+		}
+	}
+
+}
@@ -0,0 +1,73 @@
+package opr.example.connection.workload;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Snapshot of the activity of a {@link WorkloadClass}, as seen by the {@link WorkloadGate}.
+ */
+public class WorkloadStats {
+
+	private final String name;
+	private final int connectionsInUse;
+	private final int waitingBorrowers;
+	private final long borrows;
+	private final long timeouts;
+	private final long meanWaitNanos;
+	private final long maxWaitNanos;
+
+
+	WorkloadStats(String name, int connectionsInUse, int waitingBorrowers, long borrows, long timeouts,
+			long meanWaitNanos, long maxWaitNanos) {
+		this.name = name;
+		this.connectionsInUse = connectionsInUse;
+		this.waitingBorrowers = waitingBorrowers;
+		this.borrows = borrows;
+		this.timeouts = timeouts;
+		this.meanWaitNanos = meanWaitNanos;
+		this.maxWaitNanos = maxWaitNanos;
+	}
+
+
+	public String getName() {
+		return name;
+	}
+
+	public int getConnectionsInUse() {
+		return connectionsInUse;
+	}
+
+	public int getWaitingBorrowers() {
+		return waitingBorrowers;
+	}
+
+	public long getBorrows() {
+		return borrows;
+	}
+
+	/**
+	 * @return number of borrowers that gave up waiting for their turn
+	 */
+	public long getTimeouts() {
+		return timeouts;
+	}
+
+	/**
+	 * @return how long did the borrowers wait for their turn on average
+	 */
+	public long getMeanWaitMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(meanWaitNanos);
+	}
+
+	public long getMaxWaitMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(maxWaitNanos);
+	}
+
+	@Override
+	public String toString() {
+		return "Workload " + name + ": " + connectionsInUse + " connections in use, " + waitingBorrowers + " waiting; "
+				+ borrows + " borrows, " + timeouts + " timeouts, wait [mean: " + getMeanWaitMicros()
+				+ " us, max: " + getMaxWaitMicros() + " us]";
+	}
+
+}
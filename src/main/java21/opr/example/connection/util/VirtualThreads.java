@@ -0,0 +1,17 @@
+package opr.example.connection.util;
+
+
+/**
+ * Tells virtual threads apart from platform ones, Java 21 version of the multi-release jar.
+ */
+public final class VirtualThreads {
+
+	private VirtualThreads() {
+	}
+
+
+	public static boolean isVirtual(Thread thread) {
+		return thread.isVirtual();
+	}
+
+}
@@ -57,6 +57,18 @@ public class ConnectionManagerFactoryTest {
 		when(masterConnFactory.createConnection()).thenThrow(sqlException);
 	}
 
+	@Test
+	public void should_close_pooled_master_connections_on_failover() throws Exception {
+		Connection pooledMasterConn = connectionMgr.getConnection();
+		breakMasterConnectionFactory();
+
+		Connection conn = connectionMgr.getConnection();
+		assertThat(((DelegateConnection)conn).getDelegate(), is(slaveConn));
+		pooledMasterConn.close();
+
+		verify(masterConn, times(1)).close();
+	}
+
 	
 	@Test
 	public void should_use_pooling() throws Exception {
@@ -7,6 +7,7 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.sql.Connection;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -29,6 +30,7 @@ public class ConnectionManagerTest {
 	public void init() throws Exception {
 		MockitoAnnotations.initMocks(this);
 		when(connPool.getConnection()).thenReturn(conn);
+		when(connPool.getConnection(1, TimeUnit.SECONDS)).thenReturn(conn);
 		connMgr = new ConnectionManager(connPool);
 	}
 	
@@ -40,5 +42,21 @@ public class ConnectionManagerTest {
 		verify(connPool, times(1)).getConnection();
 		assertThat(conn, is(conn));
 	}
+
+	@Test
+	public void should_request_connection_from_pool_with_timeout() throws Exception {
+		Connection conn = connMgr.getConnection(1, TimeUnit.SECONDS);
+
+		verify(connPool, times(1)).getConnection(1, TimeUnit.SECONDS);
+		assertThat(conn, is(conn));
+	}
+
+	@Test
+	public void should_request_read_connection_from_pool_without_replicas() throws Exception {
+		Connection conn = connMgr.getReadConnection();
+
+		verify(connPool, times(1)).getConnection();
+		assertThat(conn, is(conn));
+	}
 	
 }
@@ -0,0 +1,156 @@
+package opr.example.connection.batch;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsInstanceOf.instanceOf;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import opr.example.connection.pool.ConnectionPool;
+
+
+public class BatchWriterTest {
+
+	private static final String SQL = "INSERT INTO events (id, name) VALUES (?, ?)";
+
+	@Rule
+	public Timeout timeout = new Timeout(10000L, TimeUnit.MILLISECONDS);
+
+	private BatchWriter writer;
+
+	@Mock private ConnectionPool connectionPool;
+	@Mock private Connection conn;
+	@Mock private PreparedStatement statement;
+
+
+	@Before
+	public void init() throws Exception {
+		MockitoAnnotations.initMocks(this);
+		when(connectionPool.getConnection()).thenReturn(conn);
+		when(conn.prepareStatement(anyString())).thenReturn(statement);
+		when(statement.executeBatch()).thenReturn(new int[] { 1, 1 });
+		writer = new BatchWriter(connectionPool, SQL, 2, 1, TimeUnit.MINUTES);
+	}
+
+	@After
+	public void close() {
+		writer.close();
+	}
+
+
+	@Test
+	public void should_write_full_batch_in_one_transaction() throws Exception {
+		CompletableFuture<Integer> row1 = writer.submit(1, "first");
+		CompletableFuture<Integer> row2 = writer.submit(2, "second");
+
+		assertThat(row1.get(), is(1));
+		assertThat(row2.get(), is(1));
+		verify(conn).setAutoCommit(false);
+		verify(conn).prepareStatement(SQL);
+		verify(statement).setObject(1, 1);
+		verify(statement).setObject(2, "second");
+		verify(statement, times(2)).addBatch();
+		verify(statement, times(1)).executeBatch();
+		verify(conn).commit();
+		verify(conn).close();
+	}
+
+	@Test
+	public void should_write_incomplete_batch_after_max_delay() throws Exception {
+		when(statement.executeBatch()).thenReturn(new int[] { 1 });
+		writer = new BatchWriter(connectionPool, SQL, 100, 20, TimeUnit.MILLISECONDS);
+
+		CompletableFuture<Integer> row = writer.submit(1, "first");
+
+		assertThat(row.get(), is(1));
+		verify(statement, times(1)).executeBatch();
+	}
+
+	@Test
+	public void should_fail_all_rows_and_roll_back_when_batch_fails() throws Exception {
+		BatchUpdateException failure = new BatchUpdateException("Duplicate key", new int[] { 1 });
+		when(statement.executeBatch()).thenThrow(failure);
+
+		CompletableFuture<Integer> row1 = writer.submit(1, "first");
+		CompletableFuture<Integer> row2 = writer.submit(1, "duplicate");
+
+		assertThat(failureOf(row1), is((Throwable) failure));
+		assertThat(failureOf(row2), is((Throwable) failure));
+		verify(conn).rollback();
+		verify(conn, never()).commit();
+		verify(conn).close();
+	}
+
+	@Test
+	public void should_fail_all_rows_and_roll_back_when_driver_throws_unchecked_exception() throws Exception {
+		IllegalStateException failure = new IllegalStateException("Driver error");
+		when(statement.executeBatch()).thenThrow(failure);
+
+		CompletableFuture<Integer> row1 = writer.submit(1, "first");
+		CompletableFuture<Integer> row2 = writer.submit(2, "second");
+
+		assertThat(failureOf(row1), is(instanceOf(SQLException.class)));
+		assertThat(failureOf(row1).getCause(), is((Throwable) failure));
+		assertThat(failureOf(row2).getCause(), is((Throwable) failure));
+		verify(conn).rollback();
+		verify(conn).close();
+	}
+
+	@Test
+	public void should_return_from_close_when_interrupted() throws Exception {
+		Thread.currentThread().interrupt();
+
+		writer.close();
+
+		assertThat(Thread.interrupted(), is(true));
+	}
+
+	@Test
+	public void should_write_remaining_rows_on_close() throws Exception {
+		when(statement.executeBatch()).thenReturn(new int[] { 1 });
+		CompletableFuture<Integer> row = writer.submit(1, "first");
+
+		writer.close();
+
+		assertThat(row.isDone(), is(true));
+		assertThat(row.get(), is(1));
+	}
+
+	@Test
+	public void should_reject_rows_after_close() throws Exception {
+		writer.close();
+
+		assertThat(failureOf(writer.submit(1, "late")), is(instanceOf(SQLException.class)));
+		verify(connectionPool, never()).getConnection();
+	}
+
+
+	private static Throwable failureOf(CompletableFuture<Integer> row) throws InterruptedException {
+		try {
+			row.get();
+			throw new AssertionError("Row should have failed");
+		} catch (ExecutionException e) {
+			return e.getCause();
+		}
+	}
+
+}
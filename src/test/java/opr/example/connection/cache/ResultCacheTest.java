@@ -0,0 +1,180 @@
+package opr.example.connection.cache;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import opr.example.connection.ConnectionManager;
+
+
+public class ResultCacheTest {
+
+	private static final TaggedStatement COUNTRY_BY_CODE =
+			new TaggedStatement("SELECT name FROM country WHERE code = ?", "country");
+	private static final TaggedStatement RENAME_COUNTRY =
+			new TaggedStatement("UPDATE country SET name = ? WHERE code = ?", "country");
+
+	private ResultCache cache;
+
+	@Mock private ConnectionManager connectionManager;
+	@Mock private Connection conn;
+	@Mock private PreparedStatement statement;
+	@Mock private ResultSet resultSet;
+	@Mock private ResultSetMetaData metaData;
+
+
+	@Before
+	public void init() throws Exception {
+		MockitoAnnotations.initMocks(this);
+		when(connectionManager.getReadConnection()).thenReturn(conn);
+		when(connectionManager.getConnection()).thenReturn(conn);
+		when(conn.prepareStatement(anyString())).thenReturn(statement);
+		when(statement.executeQuery()).thenAnswer(invocation -> {
+			when(resultSet.next()).thenReturn(true, false);
+			return resultSet;
+		});
+		when(resultSet.getMetaData()).thenReturn(metaData);
+		when(resultSet.getObject(1)).thenReturn("Czechia");
+		when(metaData.getColumnCount()).thenReturn(1);
+		when(metaData.getColumnLabel(anyInt())).thenReturn("NAME");
+		cache = new ResultCache(connectionManager, 10, 1, TimeUnit.MINUTES);
+	}
+
+
+	@Test
+	public void should_read_rows_of_query_result() throws Exception {
+		ResultRows rows = cache.query(COUNTRY_BY_CODE, "CZ");
+
+		assertThat(rows.getRowCount(), is(1));
+		assertThat(rows.get(0, "name"), is((Object) "Czechia"));
+		verify(statement).setObject(1, "CZ");
+	}
+
+	@Test
+	public void should_serve_repeated_query_without_borrowing_connection() throws Exception {
+		cache.query(COUNTRY_BY_CODE, "CZ");
+		ResultRows rows = cache.query(COUNTRY_BY_CODE, "CZ");
+
+		assertThat(rows.get(0, 0), is((Object) "Czechia"));
+		verify(connectionManager, times(1)).getReadConnection();
+		assertThat(cache.getHits(), is(1L));
+		assertThat(cache.getMisses(), is(1L));
+	}
+
+	@Test
+	public void should_cache_results_per_parameter_values() throws Exception {
+		cache.query(COUNTRY_BY_CODE, "CZ");
+		cache.query(COUNTRY_BY_CODE, "SK");
+
+		verify(connectionManager, times(2)).getReadConnection();
+		assertThat(cache.size(), is(2));
+	}
+
+	@Test
+	public void should_drop_cached_results_of_written_table() throws Exception {
+		cache.query(COUNTRY_BY_CODE, "CZ");
+
+		cache.update(RENAME_COUNTRY, "Czech Republic", "CZ");
+		cache.query(COUNTRY_BY_CODE, "CZ");
+
+		verify(statement).executeUpdate();
+		verify(connectionManager, times(2)).getConnection();
+		verify(connectionManager, times(1)).getReadConnection();
+	}
+
+	@Test
+	public void should_reload_invalidated_result_from_primary_within_replication_lag() throws Exception {
+		Connection primaryConn = mock(Connection.class);
+		when(primaryConn.prepareStatement(anyString())).thenReturn(statement);
+		when(connectionManager.getConnection()).thenReturn(primaryConn);
+		cache.query(COUNTRY_BY_CODE, "CZ");
+
+		cache.invalidate("country");
+		cache.query(COUNTRY_BY_CODE, "CZ");
+		cache.query(COUNTRY_BY_CODE, "CZ");
+
+		verify(connectionManager, times(1)).getReadConnection();
+		verify(connectionManager, times(1)).getConnection();
+		verify(primaryConn).close();
+		assertThat(cache.getHits(), is(1L));
+	}
+
+	@Test
+	public void should_reload_invalidated_result_from_replica_after_replication_lag() throws Exception {
+		cache = new ResultCache(connectionManager, 10, 60_000, 1, TimeUnit.MILLISECONDS);
+		cache.query(COUNTRY_BY_CODE, "CZ");
+
+		cache.invalidate("country");
+		Thread.sleep(5);
+		cache.query(COUNTRY_BY_CODE, "CZ");
+
+		verify(connectionManager, times(2)).getReadConnection();
+		verify(connectionManager, times(0)).getConnection();
+	}
+
+	@Test
+	public void should_not_cache_result_of_query_running_while_its_table_is_written() throws Exception {
+		doAnswer(invocation -> {
+			cache.invalidate("country");
+			when(resultSet.next()).thenReturn(true, false);
+			return resultSet;
+		}).when(statement).executeQuery();
+
+		cache.query(COUNTRY_BY_CODE, "CZ");
+
+		assertThat(cache.size(), is(0));
+	}
+
+	@Test
+	public void should_expire_results_after_time_to_live() throws Exception {
+		cache = new ResultCache(connectionManager, 10, 1, TimeUnit.MILLISECONDS);
+		cache.query(COUNTRY_BY_CODE, "CZ");
+
+		Thread.sleep(5);
+		cache.query(COUNTRY_BY_CODE, "CZ");
+
+		verify(connectionManager, times(2)).getReadConnection();
+	}
+
+	@Test
+	public void should_evict_least_recently_used_result() throws Exception {
+		cache = new ResultCache(connectionManager, 2, 1, TimeUnit.MINUTES);
+		cache.query(COUNTRY_BY_CODE, "CZ");
+		cache.query(COUNTRY_BY_CODE, "SK");
+		cache.query(COUNTRY_BY_CODE, "CZ");
+
+		cache.query(COUNTRY_BY_CODE, "AT");
+		cache.query(COUNTRY_BY_CODE, "CZ");
+		cache.query(COUNTRY_BY_CODE, "SK");
+
+		assertThat(cache.getHits(), is(2L));
+		assertThat(cache.getMisses(), is(4L));
+	}
+
+	@Test(expected = SQLException.class)
+	public void should_propagate_query_failure() throws Exception {
+		doThrow(new SQLException("No such table")).when(statement).executeQuery();
+
+		cache.query(COUNTRY_BY_CODE, "CZ");
+	}
+
+}
@@ -0,0 +1,164 @@
+package opr.example.connection.failover;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import opr.example.connection.failover.CircuitBreaker.State;
+
+
+public class CircuitBreakerTest {
+
+	@Mock private ScheduledExecutorService scheduler;
+	@Mock private CircuitBreaker.Probe probe;
+	@Mock private CircuitBreaker.Listener listener;
+
+	private CircuitBreaker breaker;
+
+
+	@Before
+	public void init() {
+		MockitoAnnotations.initMocks(this);
+		breaker = new CircuitBreaker(scheduler, probe, listener);
+		breaker.setBackoff(100L, 1_000L);
+		breaker.setTrialBudget(2);
+	}
+
+
+	@Test
+	public void should_pass_requests_while_closed() {
+		assertThat(breaker.allowRequest(), is(true));
+		assertThat(breaker.getState(), is(State.CLOSED));
+	}
+
+	@Test
+	public void should_block_requests_and_schedule_single_probe_when_failing() {
+		breaker.onFailure();
+		breaker.onFailure();
+		breaker.onFailure();
+
+		assertThat(breaker.allowRequest(), is(false));
+		verify(scheduler, times(1)).schedule(any(Runnable.class), anyLong(), eq(TimeUnit.MILLISECONDS));
+		verify(listener, times(1)).onOpened();
+	}
+
+	@Test
+	public void should_let_limited_trials_through_after_successful_probe() {
+		when(probe.isHealthy()).thenReturn(true);
+		breaker.onFailure();
+
+		runScheduledProbe();
+
+		assertThat(breaker.getState(), is(State.HALF_OPEN));
+		assertThat(breaker.allowRequest(), is(true));
+		assertThat(breaker.allowRequest(), is(true));
+		assertThat(breaker.allowRequest(), is(false));
+	}
+
+	@Test
+	public void should_close_once_all_trials_succeed() {
+		when(probe.isHealthy()).thenReturn(true);
+		breaker.onFailure();
+		runScheduledProbe();
+
+		breaker.allowRequest();
+		breaker.onSuccess();
+		breaker.allowRequest();
+		breaker.onSuccess();
+
+		assertThat(breaker.getState(), is(State.CLOSED));
+		verify(listener, times(1)).onClosed();
+	}
+
+	@Test
+	public void should_open_again_when_trial_fails() {
+		when(probe.isHealthy()).thenReturn(true);
+		breaker.onFailure();
+		runScheduledProbe();
+
+		breaker.allowRequest();
+		breaker.onFailure();
+
+		assertThat(breaker.getState(), is(State.OPEN));
+		verify(listener, times(1)).onOpened();
+		verify(scheduler, times(2)).schedule(any(Runnable.class), anyLong(), eq(TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void should_schedule_probe_even_if_listener_fails_on_opening() {
+		doThrow(new IllegalStateException("Listener error")).when(listener).onOpened();
+
+		breaker.onFailure();
+
+		assertThat(breaker.getState(), is(State.OPEN));
+		verify(scheduler, times(1)).schedule(any(Runnable.class), anyLong(), eq(TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void should_close_even_if_listener_fails_on_closing() {
+		doThrow(new IllegalStateException("Listener error")).when(listener).onClosed();
+		when(probe.isHealthy()).thenReturn(true);
+		breaker.onFailure();
+		runScheduledProbe();
+
+		breaker.allowRequest();
+		breaker.onSuccess();
+		breaker.allowRequest();
+		breaker.onSuccess();
+
+		assertThat(breaker.getState(), is(State.CLOSED));
+	}
+
+	@Test
+	public void should_back_off_exponentially_with_jitter_while_probes_fail() {
+		when(probe.isHealthy()).thenReturn(false);
+		breaker.onFailure();
+		for (int i = 0; i < 5; i++) {
+			runScheduledProbe();
+		}
+
+		List<Long> delays = scheduledDelays(6);
+		assertDelayBetween(delays.get(0), 50L, 100L);
+		assertDelayBetween(delays.get(1), 100L, 200L);
+		assertDelayBetween(delays.get(2), 200L, 400L);
+		assertDelayBetween(delays.get(3), 400L, 800L);
+		assertDelayBetween(delays.get(4), 500L, 1_000L);
+		assertDelayBetween(delays.get(5), 500L, 1_000L);
+	}
+
+
+	private void runScheduledProbe() {
+		ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+		verify(scheduler, atLeastOnce())
+				.schedule(task.capture(), anyLong(), eq(TimeUnit.MILLISECONDS));
+		task.getValue().run();
+	}
+
+	private List<Long> scheduledDelays(int expectedCount) {
+		ArgumentCaptor<Long> delay = ArgumentCaptor.forClass(Long.class);
+		verify(scheduler, times(expectedCount)).schedule(any(Runnable.class), delay.capture(), eq(TimeUnit.MILLISECONDS));
+		return delay.getAllValues();
+	}
+
+	private static void assertDelayBetween(long delay, long min, long max) {
+		assertThat(delay + " within [" + min + ", " + max + "]", delay >= min && delay <= max, is(true));
+	}
+
+}
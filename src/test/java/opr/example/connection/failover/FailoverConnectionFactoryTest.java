@@ -2,6 +2,8 @@ package opr.example.connection.failover;
 
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -34,6 +36,7 @@ public class FailoverConnectionFactoryTest {
 	
 	@Mock private Connection masterConn;
 	@Mock private Connection slaveConn;
+	@Mock private FailoverListener failoverListener;
 	
 	private FailoverConnectionFactory failoverConnFactory;
 
@@ -41,6 +44,7 @@ public class FailoverConnectionFactoryTest {
 	@Before
 	public void init() throws Exception {
 		MockitoAnnotations.initMocks(this);
+		when(masterConn.isValid(anyInt())).thenReturn(true);
 		resetConnectionFactory(masterConnFactory, masterConn);
 		resetConnectionFactory(slaveConnFactory, slaveConn);
 		failoverConnFactory = new FailoverConnectionFactory(masterConnFactory, slaveConnFactory);
@@ -61,6 +65,15 @@ public class FailoverConnectionFactoryTest {
 		verifyDelegationCounts(1, 1);
 	}
 	
+	@Test
+	public void should_use_slave_if_master_throws_unchecked_exception() throws Exception {
+		reset(masterConnFactory);
+		when(masterConnFactory.createConnection()).thenThrow(new IllegalStateException("Master driver error"));
+
+		createConnectionAndAssert(slaveConn);
+		verifyDelegationCounts(1, 1);
+	}
+
 	@Test
 	public void should_fail_if_both_factories_are_broken() throws Exception {
 		brakeConnectionFactory(masterConnFactory, "Master error");
@@ -128,6 +141,82 @@ public class FailoverConnectionFactoryTest {
 		} while (conn != masterConn);
 	}
 
+	@Test
+	public void should_not_recover_master_with_invalid_connection() throws Exception {
+		brakeConnectionFactory(masterConnFactory, "Master error");
+		createConnectionAndAssert(slaveConn);
+		resetConnectionFactory(masterConnFactory, masterConn);
+		when(masterConn.isValid(anyInt())).thenReturn(false);
+
+		boolean hasMasterRecovered = failoverConnFactory.attemptMasterRecovery();
+
+		assertThat(hasMasterRecovered, is(false));
+		createConnectionAndAssert(slaveConn);
+	}
+
+	@Test
+	public void should_not_touch_master_while_unhealthy() throws Exception {
+		brakeConnectionFactory(masterConnFactory, "Master error");
+
+		createConnectionAndAssert(slaveConn);
+		createConnectionAndAssert(slaveConn);
+		createConnectionAndAssert(slaveConn);
+
+		verifyDelegationCounts(1, 3);
+	}
+
+	@Test
+	public void should_tag_connections_with_their_origin() throws Exception {
+		assertThat(failoverConnFactory.createTaggedConnection().getOrigin(), is(masterConnFactory));
+
+		brakeConnectionFactory(masterConnFactory, "Master error");
+
+		assertThat(failoverConnFactory.createTaggedConnection().getOrigin(), is(slaveConnFactory));
+	}
+
+	@Test
+	public void should_notify_failover_once() throws Exception {
+		failoverConnFactory.addFailoverListener(failoverListener);
+		brakeConnectionFactory(masterConnFactory, "Master error");
+
+		createConnectionAndAssert(slaveConn);
+		createConnectionAndAssert(slaveConn);
+
+		verify(failoverListener, times(1)).onFailover(masterConnFactory, slaveConnFactory);
+	}
+
+	@Test
+	public void should_notify_failback_once_master_takes_over_again() throws Exception {
+		failoverConnFactory.addFailoverListener(failoverListener);
+		brakeConnectionFactory(masterConnFactory, "Master error");
+		createConnectionAndAssert(slaveConn);
+		resetConnectionFactory(masterConnFactory, masterConn);
+		failoverConnFactory.attemptMasterRecovery();
+
+		for (int i = 0; i < 3; i++) {
+			createConnectionAndAssert(masterConn);
+		}
+
+		verify(failoverListener, times(1)).onFailback(masterConnFactory, slaveConnFactory);
+	}
+
+	@Test
+	public void should_keep_master_connection_even_if_failback_listener_fails() throws Exception {
+		failoverConnFactory.addFailoverListener(failoverListener);
+		doThrow(new IllegalStateException("Listener error"))
+				.when(failoverListener).onFailback(masterConnFactory, slaveConnFactory);
+		brakeConnectionFactory(masterConnFactory, "Master error");
+		createConnectionAndAssert(slaveConn);
+		resetConnectionFactory(masterConnFactory, masterConn);
+		failoverConnFactory.attemptMasterRecovery();
+
+		for (int i = 0; i < 4; i++) {
+			createConnectionAndAssert(masterConn);
+		}
+
+		verify(failoverListener, times(1)).onFailover(masterConnFactory, slaveConnFactory);
+	}
+
 	
 	private void createConnectionAndAssert(Connection expectedConn) throws SQLException {
 		Connection conn = failoverConnFactory.createConnection();
@@ -0,0 +1,119 @@
+package opr.example.connection.loadbalancing;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import opr.example.connection.factory.ConnectionFactory;
+import opr.example.connection.util.DelegateConnection;
+
+
+public class LoadBalancingConnectionFactoryTest {
+
+	@Rule
+	public ExpectedException expectedException = ExpectedException.none();
+
+	@Mock private ConnectionFactory replicaFactory1;
+	@Mock private ConnectionFactory replicaFactory2;
+	@Mock private Connection conn1;
+	@Mock private Connection conn2;
+
+
+	@Before
+	public void init() throws SQLException {
+		MockitoAnnotations.initMocks(this);
+		when(replicaFactory1.createConnection()).thenReturn(conn1);
+		when(replicaFactory2.createConnection()).thenReturn(conn2);
+	}
+
+
+	@Test
+	public void should_take_replicas_in_turns() throws SQLException {
+		LoadBalancingConnectionFactory factory = createFactory(LoadBalancingStrategy.ROUND_ROBIN);
+
+		assertThat(unwrapDelegateIn(factory.createConnection()), is(conn1));
+		assertThat(unwrapDelegateIn(factory.createConnection()), is(conn2));
+		assertThat(unwrapDelegateIn(factory.createConnection()), is(conn1));
+	}
+
+	@Test
+	public void should_skip_failed_replica_until_retry_interval_passes() throws SQLException {
+		breakReplica(replicaFactory1);
+		LoadBalancingConnectionFactory factory = createFactory(LoadBalancingStrategy.ROUND_ROBIN);
+
+		assertThat(unwrapDelegateIn(factory.createConnection()), is(conn2));
+		assertThat(unwrapDelegateIn(factory.createConnection()), is(conn2));
+		assertThat(unwrapDelegateIn(factory.createConnection()), is(conn2));
+
+		verify(replicaFactory1, times(1)).createConnection();
+	}
+
+	@Test
+	public void should_retry_failed_replica_after_retry_interval() throws SQLException {
+		breakReplica(replicaFactory1);
+		LoadBalancingConnectionFactory factory = createFactory(LoadBalancingStrategy.ROUND_ROBIN);
+		factory.setRetryInterval(0);
+		factory.createConnection();
+		doReturn(conn1).when(replicaFactory1).createConnection();
+
+		assertThat(unwrapDelegateIn(factory.createConnection()), is(conn1));
+	}
+
+	@Test
+	public void should_take_replica_with_least_outstanding_connections() throws SQLException {
+		LoadBalancingConnectionFactory factory = createFactory(LoadBalancingStrategy.LEAST_OUTSTANDING);
+		Connection first = factory.createConnection();
+		Connection second = factory.createConnection();
+		second.close();
+
+		assertThat(unwrapDelegateIn(first), is(conn1));
+		assertThat(unwrapDelegateIn(second), is(conn2));
+		assertThat(unwrapDelegateIn(factory.createConnection()), is(conn2));
+	}
+
+	@Test
+	public void should_measure_every_replica_before_weighing_by_latency() throws SQLException {
+		LoadBalancingConnectionFactory factory = createFactory(LoadBalancingStrategy.LATENCY_WEIGHTED);
+
+		assertThat(unwrapDelegateIn(factory.createConnection()), is(conn1));
+		assertThat(unwrapDelegateIn(factory.createConnection()), is(conn2));
+	}
+
+	@Test
+	public void should_fail_when_all_replicas_fail() throws SQLException {
+		breakReplica(replicaFactory1);
+		breakReplica(replicaFactory2);
+		LoadBalancingConnectionFactory factory = createFactory(LoadBalancingStrategy.ROUND_ROBIN);
+
+		expectedException.expect(SQLException.class);
+		factory.createConnection();
+	}
+
+
+	private LoadBalancingConnectionFactory createFactory(LoadBalancingStrategy strategy) {
+		return new LoadBalancingConnectionFactory(Arrays.asList(replicaFactory1, replicaFactory2), strategy);
+	}
+
+	private static void breakReplica(ConnectionFactory replicaFactory) throws SQLException {
+		when(replicaFactory.createConnection()).thenThrow(new SQLException("Replica error"));
+	}
+
+	private static Connection unwrapDelegateIn(Connection delegateConn) {
+		return ((DelegateConnection) delegateConn).getDelegate();
+	}
+
+}
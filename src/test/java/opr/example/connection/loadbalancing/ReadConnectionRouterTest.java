@@ -0,0 +1,139 @@
+package opr.example.connection.loadbalancing;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import opr.example.connection.factory.ConnectionFactory;
+import opr.example.connection.pool.ConnectionPoolConfig;
+import opr.example.connection.util.DelegateConnection;
+
+
+public class ReadConnectionRouterTest {
+
+	@Mock private ConnectionFactory replicaFactory1;
+	@Mock private ConnectionFactory replicaFactory2;
+	@Mock private Connection conn1;
+	@Mock private Connection conn2;
+
+	private ReadConnectionRouter router;
+
+
+	@Before
+	public void init() throws SQLException {
+		MockitoAnnotations.initMocks(this);
+		when(replicaFactory1.createConnection()).thenReturn(conn1);
+		when(replicaFactory2.createConnection()).thenReturn(conn2);
+		when(conn1.isValid(anyInt())).thenReturn(true);
+		when(conn2.isValid(anyInt())).thenReturn(true);
+		router = new ReadConnectionRouter(new ConnectionPoolConfig(2),
+				Arrays.asList(replicaFactory1, replicaFactory2), LoadBalancingStrategy.ROUND_ROBIN);
+	}
+
+	@After
+	public void cleanUp() {
+		router.shutDown();
+	}
+
+
+	@Test
+	public void should_spread_borrows_across_replicas() throws Exception {
+		assertThat(unwrapPhysicalIn(router.getConnection()), is(conn1));
+		assertThat(unwrapPhysicalIn(router.getConnection()), is(conn2));
+	}
+
+	@Test
+	public void should_return_connection_to_replica_pool() throws Exception {
+		router.getConnection().close();
+		router.getConnection().close();
+		router.getConnection().close();
+
+		verify(replicaFactory1, times(1)).createConnection();
+		verify(replicaFactory2, times(1)).createConnection();
+	}
+
+	@Test
+	public void should_borrow_from_next_replica_when_one_is_down() throws Exception {
+		when(replicaFactory1.createConnection()).thenThrow(new SQLException("Replica error"));
+
+		assertThat(unwrapPhysicalIn(router.getConnection()), is(conn2));
+		assertThat(unwrapPhysicalIn(router.getConnection()), is(conn2));
+	}
+
+	@Test
+	public void should_wait_at_most_the_given_time_across_all_replicas() throws Exception {
+		router.shutDown();
+		router = new ReadConnectionRouter(new ConnectionPoolConfig(1),
+				Arrays.asList(replicaFactory1, replicaFactory2), LoadBalancingStrategy.ROUND_ROBIN);
+		router.getConnection();
+		router.getConnection();
+		long start = System.nanoTime();
+
+		try {
+			router.getConnection(300, TimeUnit.MILLISECONDS);
+			fail("Borrow should have timed out");
+		} catch (SQLException expected) {
+		}
+
+		assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 550, is(true));
+	}
+
+	@Test
+	public void should_stop_counting_connection_closed_through_its_statement() throws Exception {
+		when(conn1.createStatement()).thenReturn(mock(Statement.class));
+		router.shutDown();
+		router = new ReadConnectionRouter(new ConnectionPoolConfig(2),
+				Arrays.asList(replicaFactory1, replicaFactory2), LoadBalancingStrategy.LEAST_OUTSTANDING);
+		Statement statement = router.getConnection().createStatement();
+
+		statement.getConnection().close();
+
+		assertThat(unwrapPhysicalIn(router.getConnection()), is(conn1));
+	}
+
+	@Test
+	public void should_shift_borrows_away_from_replica_that_slows_down() throws Exception {
+		router.shutDown();
+		router = new ReadConnectionRouter(new ConnectionPoolConfig(2),
+				Arrays.asList(replicaFactory1, replicaFactory2), LoadBalancingStrategy.LATENCY_WEIGHTED);
+		for (int i = 0; i < 20; i++) {
+			router.getConnection().close();
+		}
+
+		int slowReplicaBorrows = 0;
+		for (int i = 0; i < 100; i++) {
+			Connection conn = router.getConnection();
+			boolean isSlowReplica = unwrapPhysicalIn(conn) == conn1;
+			Thread.sleep(isSlowReplica ? 20L : 1L);
+			conn.close();
+			if (i >= 50 && isSlowReplica) {
+				slowReplicaBorrows++;
+			}
+		}
+
+		assertThat(slowReplicaBorrows + " of the last 50 borrows", slowReplicaBorrows < 15, is(true));
+	}
+
+
+	private static Connection unwrapPhysicalIn(Connection routedConn) {
+		return ((DelegateConnection) routedConn).getDelegate();
+	}
+
+}
@@ -0,0 +1,84 @@
+package opr.example.connection.pool;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class AdaptivePoolLimitTest {
+
+	private PoolMetrics metrics;
+	private AdaptivePoolLimit adaptiveLimit;
+
+
+	@Before
+	public void init() {
+		metrics = new PoolMetrics();
+		adaptiveLimit = new AdaptivePoolLimit(metrics);
+	}
+
+
+	@Test
+	public void should_grow_limit_when_borrowers_wait_at_limit() {
+		assertThat(adaptiveLimit.update(5, 1, 10, true, 2), is(6));
+	}
+
+	@Test
+	public void should_grow_limit_when_borrows_waited_long_at_limit() {
+		metrics.borrowWait.record(millis(5));
+
+		assertThat(adaptiveLimit.update(5, 1, 10, true, 0), is(6));
+	}
+
+	@Test
+	public void should_keep_limit_while_pool_below_it() {
+		assertThat(adaptiveLimit.update(5, 1, 10, false, 2), is(5));
+	}
+
+	@Test
+	public void should_shrink_limit_when_connections_get_slower() {
+		recordUsage(millis(10));
+		adaptiveLimit.update(5, 1, 10, true, 2);
+
+		recordUsage(millis(100));
+
+		assertThat(adaptiveLimit.update(5, 1, 10, true, 2), is(4));
+	}
+
+	@Test
+	public void should_shrink_limit_when_validation_gets_slower() {
+		metrics.validation.record(millis(1));
+		adaptiveLimit.update(5, 1, 10, false, 0);
+
+		metrics.validation.record(millis(10));
+
+		assertThat(adaptiveLimit.update(5, 1, 10, false, 0), is(4));
+	}
+
+	@Test
+	public void should_keep_limit_within_bounds() {
+		assertThat(adaptiveLimit.update(10, 1, 10, true, 2), is(10));
+
+		recordUsage(millis(10));
+		adaptiveLimit.update(1, 1, 10, false, 0);
+		recordUsage(millis(100));
+
+		assertThat(adaptiveLimit.update(1, 1, 10, false, 0), is(1));
+	}
+
+
+	private void recordUsage(long nanos) {
+		for (int i = 0; i < 10; i++) {
+			metrics.usage.record(nanos);
+		}
+	}
+
+	private static long millis(long millis) {
+		return TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+
+}
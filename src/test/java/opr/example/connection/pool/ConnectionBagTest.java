@@ -0,0 +1,290 @@
+package opr.example.connection.pool;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+
+public class ConnectionBagTest {
+
+	@Rule
+	public Timeout timeout = new Timeout(10000L, TimeUnit.MILLISECONDS);
+
+	private ConnectionBag bag;
+
+	@Mock private Connection conn1;
+	@Mock private Connection conn2;
+
+	private PoolEntry entry1;
+	private PoolEntry entry2;
+
+
+	@Before
+	public void init() {
+		MockitoAnnotations.initMocks(this);
+		bag = new ConnectionBag(waitingBorrowers -> {});
+		entry1 = new PoolEntry(conn1);
+		entry2 = new PoolEntry(conn2);
+	}
+
+
+	@Test
+	public void should_return_nothing_when_empty() {
+		assertThat(bag.poll(), is(nullValue()));
+	}
+
+	@Test
+	public void should_not_lend_one_entry_twice() {
+		bag.add(entry1);
+
+		assertThat(bag.poll(), is(entry1));
+		assertThat(bag.poll(), is(nullValue()));
+	}
+
+	@Test
+	public void should_prefer_entry_returned_by_the_same_thread() {
+		bag.add(entry1);
+		bag.add(entry2);
+		PoolEntry borrowed1 = bag.poll();
+		PoolEntry borrowed2 = bag.poll();
+
+		bag.requite(borrowed1);
+		bag.requite(borrowed2);
+
+		assertThat(bag.poll(), is(borrowed2));
+		assertThat(bag.poll(), is(borrowed1));
+	}
+
+	@Test
+	public void should_not_prefer_entry_returned_by_the_same_virtual_thread() throws Exception {
+		ExecutorService virtualExecutor = newVirtualThreadExecutor();
+		bag.add(entry1);
+		bag.add(entry2);
+
+		PoolEntry borrowedAfterReturns = virtualExecutor.submit(() -> {
+			PoolEntry borrowed1 = bag.poll();
+			PoolEntry borrowed2 = bag.poll();
+			bag.requite(borrowed1);
+			bag.requite(borrowed2);
+			return bag.poll();
+		}).get();
+
+		assertThat(borrowedAfterReturns, is(entry1));
+		virtualExecutor.shutdown();
+	}
+
+	private static ExecutorService newVirtualThreadExecutor() throws Exception {
+		Method factoryMethod = null;
+		try {
+			factoryMethod = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			assumeTrue("virtual threads not supported", false);
+		}
+		return (ExecutorService) factoryMethod.invoke(null);
+	}
+
+	@Test
+	public void should_let_other_thread_steal_returned_entry() throws Exception {
+		bag.add(entry1);
+		bag.requite(bag.poll());
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		PoolEntry stolen = executor.submit(() -> bag.poll()).get();
+
+		assertThat(stolen, is(entry1));
+		executor.shutdown();
+	}
+
+	@Test
+	public void should_hand_returned_entry_over_to_waiting_thread() throws Exception {
+		bag.add(entry1);
+		PoolEntry borrowed = bag.poll();
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		Future<PoolEntry> waitingBorrow = executor.submit(() -> bag.take());
+		while (bag.getWaitingBorrowerCount() == 0) {
+			Thread.sleep(1);
+		}
+		bag.requite(borrowed);
+
+		assertThat(waitingBorrow.get(), is(entry1));
+		executor.shutdown();
+	}
+
+	@Test
+	public void should_complete_async_waiters_in_order_of_arrival() throws Exception {
+		bag.add(entry1);
+		PoolEntry borrowed = bag.poll();
+		CompletableFuture<PoolEntry> firstWaiter = bag.borrowAsync();
+		CompletableFuture<PoolEntry> secondWaiter = bag.borrowAsync();
+
+		bag.requite(borrowed);
+
+		assertThat(firstWaiter.getNow(null), is(entry1));
+		assertThat(secondWaiter.isDone(), is(false));
+		assertThat(bag.getWaitingBorrowerCount(), is(1));
+	}
+
+	@Test
+	public void should_skip_cancelled_async_waiter() throws Exception {
+		bag.add(entry1);
+		PoolEntry borrowed = bag.poll();
+		CompletableFuture<PoolEntry> cancelledWaiter = bag.borrowAsync();
+		CompletableFuture<PoolEntry> waiter = bag.borrowAsync();
+
+		cancelledWaiter.cancel(false);
+		bag.requite(borrowed);
+
+		assertThat(waiter.getNow(null), is(entry1));
+		assertThat(bag.getWaitingBorrowerCount(), is(0));
+	}
+
+	@Test
+	public void should_fail_async_waiter_and_blocked_thread_with_creation_failure() throws Exception {
+		SQLException cause = new SQLException("Creation error");
+		CompletableFuture<PoolEntry> asyncWaiter = bag.borrowAsync();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		Future<PoolEntry> waitingBorrow = executor.submit(() -> bag.take());
+		while (bag.getWaitingBorrowerCount() < 2) {
+			Thread.sleep(1);
+		}
+
+		bag.failWaiter(cause);
+		bag.failWaiter(cause);
+
+		assertThat(asyncWaiter.isCompletedExceptionally(), is(true));
+		try {
+			waitingBorrow.get();
+			fail("Blocked borrow should have failed");
+		} catch (ExecutionException e) {
+			assertThat(e.getCause(), is((Throwable) cause));
+		}
+		executor.shutdown();
+	}
+
+	@Test
+	public void should_never_lend_removed_entry() {
+		bag.add(entry1);
+		PoolEntry borrowed = bag.poll();
+
+		assertThat(bag.remove(borrowed), is(true));
+
+		assertThat(bag.poll(), is(nullValue()));
+		assertThat(bag.size(), is(0));
+	}
+
+	@Test
+	public void should_forget_removed_entry_returned_before_by_the_same_thread() {
+		bag.add(entry1);
+		bag.requite(bag.poll());
+
+		PoolEntry borrowed = bag.poll();
+		bag.requite(borrowed);
+		assertThat(bag.threadLocalEntries().contains(borrowed), is(true));
+
+		bag.poll();
+		bag.remove(borrowed);
+		assertThat(bag.threadLocalEntries().contains(borrowed), is(false));
+	}
+
+	@Test
+	public void should_forget_entry_removed_by_other_thread() throws Exception {
+		bag.add(entry1);
+		bag.add(entry2);
+		PoolEntry borrowed1 = bag.poll();
+		PoolEntry borrowed2 = bag.poll();
+		bag.requite(borrowed1);
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			executor.submit(() -> {
+				PoolEntry stolen = bag.poll();
+				bag.remove(stolen);
+			}).get();
+		} finally {
+			executor.shutdown();
+		}
+		bag.requite(borrowed2);
+
+		assertThat(bag.threadLocalEntries().contains(borrowed1), is(false));
+		assertThat(bag.threadLocalEntries().size(), is(1));
+	}
+
+	@Test
+	public void should_steal_entries_from_other_shards() {
+		bag = new ConnectionBag(waitingBorrowers -> {}, 4);
+		bag.add(entry1);
+		bag.add(entry2);
+
+		assertThat(bag.poll() != null, is(true));
+		assertThat(bag.poll() != null, is(true));
+		assertThat(bag.poll(), is(nullValue()));
+	}
+
+	@Test
+	public void should_lend_each_entry_to_one_thread_at_a_time_under_contention() throws Exception {
+		assertEntriesLentExclusivelyUnderContention();
+	}
+
+	@Test
+	public void should_lend_each_entry_to_one_thread_at_a_time_under_contention_with_shards() throws Exception {
+		bag = new ConnectionBag(waitingBorrowers -> {}, 4);
+
+		assertEntriesLentExclusivelyUnderContention();
+	}
+
+	private void assertEntriesLentExclusivelyUnderContention() throws Exception {
+		int THREAD_COUNT = 16;
+		int ITERATIONS = 1000;
+		bag.add(entry1);
+		bag.add(entry2);
+		AtomicInteger concurrentUsers = new AtomicInteger(0);
+		AtomicInteger violations = new AtomicInteger(0);
+		CountDownLatch latch = new CountDownLatch(THREAD_COUNT);
+
+		ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+		for (int t = 0; t < THREAD_COUNT; t++) {
+			executor.execute(() -> {
+				try {
+					for (int i = 0; i < ITERATIONS; i++) {
+						PoolEntry entry = bag.take();
+						if (concurrentUsers.incrementAndGet() > 2) {
+							violations.incrementAndGet();
+						}
+						concurrentUsers.decrementAndGet();
+						bag.requite(entry);
+					}
+				} catch (InterruptedException | SQLException ignore) {
+				} finally {
+					latch.countDown();
+				}
+			});
+		}
+
+		latch.await();
+		executor.shutdown();
+		assertThat(violations.get(), is(0));
+	}
+
+}
@@ -1,35 +1,68 @@
 package opr.example.connection.pool;
 
 import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsInstanceOf.instanceOf;
+import static org.hamcrest.core.IsNull.nullValue;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.lang.management.ManagementFactory;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.ObjectName;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.ExpectedException;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import opr.example.connection.factory.ConnectionFactory;
+import opr.example.connection.factory.OriginTrackingConnectionFactory;
 import opr.example.connection.factory.SimpleConnectionFactory;
+import opr.example.connection.factory.TaggedConnection;
 import opr.example.connection.util.DelegateConnection;
+import opr.example.connection.workload.WorkloadClass;
 
 
 public class ConnectionPoolTest {
 
 	private static final int MAX_POOL_SIZE = 3;
 
+	@Rule
+	public ExpectedException expectedException = ExpectedException.none();
+
 	private ConnectionPool connMgr;
 
 	@Mock private SimpleConnectionFactory connFactory;
 	@Mock private Connection conn1;
 	@Mock private Connection conn2;
 	@Mock private Connection conn3;
+	@Mock private OriginTrackingConnectionFactory failoverFactory;
+	@Mock private ConnectionFactory masterFactory;
+	@Mock private ConnectionFactory slaveFactory;
 	
 
 	@Before
@@ -107,6 +140,452 @@ public class ConnectionPoolTest {
 		}, "ConnectionUserThread #"+id).start();
 	}
 	
+	@Test
+	public void should_respect_max_pool_size_across_shards() throws Exception {
+		ConnectionPoolConfig config = new ConnectionPoolConfig(MAX_POOL_SIZE);
+		config.setShardCount(4);
+		connMgr = new ConnectionPool(config, connFactory);
+		int THREAD_COUNT = 50;
+		CountDownLatch latch = new CountDownLatch(THREAD_COUNT);
+		for (int id = 0; id < THREAD_COUNT; id++) {
+			launchNewConnectionUserThread(id, latch);
+		}
+
+		latch.await();
+		verify(connFactory, times(MAX_POOL_SIZE)).createConnection();
+		assertThat(connMgr.getIdleConnections(), is(MAX_POOL_SIZE));
+	}
+
+	@Test
+	public void should_time_out_when_all_connections_are_in_use() throws Exception {
+		for (int i = 0; i < MAX_POOL_SIZE; i++) {
+			connMgr.getConnection();
+		}
+
+		expectedException.expect(ConnectionTimeoutException.class);
+		
+		connMgr.getConnection(50, TimeUnit.MILLISECONDS);
+	}
+
+	@Test
+	public void should_get_connection_returned_while_waiting_with_timeout() throws Exception {
+		Connection pooledConn1 = connMgr.getConnection();
+		connMgr.getConnection();
+		connMgr.getConnection();
+		new Thread(() -> {
+			sleepQuietly(20);
+			close(pooledConn1);
+		}).start();
+
+		Connection conn = connMgr.getConnection(5, TimeUnit.SECONDS);
+
+		assertThat(unwrapDelegateIn(conn), is(conn1));
+	}
+
+	@Test
+	public void should_not_wait_when_trying_to_get_connection_from_saturated_pool() throws Exception {
+		for (int i = 0; i < MAX_POOL_SIZE; i++) {
+			connMgr.getConnection();
+		}
+
+		assertThat(connMgr.tryGetConnection(), is(nullValue()));
+	}
+
+	@Test
+	public void should_create_connection_in_background_when_trying_to_get_one_from_empty_pool() throws Exception {
+		assertThat(connMgr.tryGetConnection(), is(nullValue()));
+
+		Connection conn;
+		do {
+			Thread.sleep(1);
+			conn = connMgr.tryGetConnection();
+		} while (conn == null);
+
+		verify(connFactory, times(1)).createConnection();
+		assertThat(unwrapDelegateIn(conn), is(conn1));
+	}
+
+	@Test
+	public void should_propagate_connection_creation_failure_to_waiting_borrower() throws Exception {
+		SQLException creationFailure = new SQLException("DB down");
+		when(connFactory.createConnection()).thenThrow(creationFailure);
+
+		expectedException.expect(is(creationFailure));
+
+		connMgr.getConnection();
+	}
+
+	@Test
+	public void should_take_returned_connection_rather_than_wait_for_slow_creation() throws Exception {
+		Connection pooledConn1 = connMgr.getConnection();
+		when(connFactory.createConnection()).thenAnswer(invocation -> {
+			Thread.sleep(5000);
+			return conn2;
+		});
+		new Thread(() -> {
+			sleepQuietly(20);
+			close(pooledConn1);
+		}).start();
+
+		Connection conn = connMgr.getConnection(1, TimeUnit.SECONDS);
+
+		assertThat(unwrapDelegateIn(conn), is(conn1));
+	}
+
+	@Test
+	public void should_open_min_idle_connections_on_warm_up() throws Exception {
+		connMgr = new ConnectionPool(configWithMinIdle(2), connFactory);
+
+		WarmUpReport report = connMgr.warmUp();
+
+		verify(connFactory, times(2)).createConnection();
+		assertThat(report.getCreatedConnections(), is(2));
+		assertThat(report.getFailedConnections(), is(0));
+	}
+
+	@Test
+	public void should_report_failed_connections_on_warm_up() throws Exception {
+		AtomicInteger creationAttempts = new AtomicInteger(0);
+		when(connFactory.createConnection()).thenAnswer(invocation -> {
+			if (creationAttempts.incrementAndGet() > 1) {
+				throw new SQLException("DB down");
+			}
+			return conn1;
+		});
+		connMgr = new ConnectionPool(configWithMinIdle(3), connFactory);
+
+		WarmUpReport report = connMgr.warmUp();
+
+		assertThat(report.getCreatedConnections(), is(1));
+		assertThat(report.getFailedConnections(), is(2));
+	}
+
+	@Test
+	public void should_reuse_warmed_up_connections() throws Exception {
+		connMgr = new ConnectionPool(configWithMinIdle(2), connFactory);
+		connMgr.warmUp();
+
+		connMgr.getConnection();
+		connMgr.getConnection();
+
+		verify(connFactory, times(2)).createConnection();
+	}
+
+	@Test
+	public void should_refill_min_idle_connections_in_background_when_closed_by_higher_force() throws Exception {
+		connMgr = new ConnectionPool(configWithMinIdle(1), connFactory);
+		connMgr.warmUp();
+		Connection pooledConn1 = connMgr.getConnection();
+		when(conn1.isClosed()).thenReturn(true);
+
+		close(pooledConn1);
+
+		verify(connFactory, timeout(1000).times(2)).createConnection();
+		assertThat(unwrapDelegateIn(connMgr.getConnection()), is(conn2));
+	}
+
+	private static ConnectionPoolConfig configWithMinIdle(int minIdle) {
+		ConnectionPoolConfig config = new ConnectionPoolConfig(MAX_POOL_SIZE);
+		config.setMinIdle(minIdle);
+		return config;
+	}
+
+	@Test
+	public void should_skip_validation_round_trip_within_validation_interval() throws Exception {
+		connMgr = new ConnectionPool(configWithValidation(ValidationMode.ON_RETURN, 60_000L), connFactory);
+
+		close(connMgr.getConnection());
+		close(connMgr.getConnection());
+
+		verify(conn1, never()).isValid(anyInt());
+		verify(conn1, times(2)).isClosed();
+	}
+
+	@Test
+	public void should_validate_on_borrow_only_after_validation_interval() throws Exception {
+		connMgr = new ConnectionPool(configWithValidation(ValidationMode.ON_BORROW, 50L), connFactory);
+		close(connMgr.getConnection());
+		close(connMgr.getConnection());
+		verify(conn1, never()).isValid(anyInt());
+
+		makeInvalid(conn1);
+		Thread.sleep(60);
+		Connection pooledConn = connMgr.getConnection();
+
+		verify(conn1, times(1)).isValid(anyInt());
+		verify(conn1, times(1)).close();
+		assertThat(unwrapDelegateIn(pooledConn), is(conn2));
+	}
+
+	@Test
+	public void should_validate_returned_connection_in_background() throws Exception {
+		connMgr = new ConnectionPool(configWithValidation(ValidationMode.ON_RETURN_ASYNC, 0L), connFactory);
+		Connection pooledConn1 = connMgr.getConnection();
+		makeInvalid(conn1);
+
+		close(pooledConn1);
+
+		verify(conn1, timeout(1000).times(1)).close();
+		assertThat(unwrapDelegateIn(connMgr.getConnection()), is(conn2));
+	}
+
+	@Test
+	public void should_close_connection_validated_in_background_during_shut_down() throws Exception {
+		connMgr = new ConnectionPool(configWithValidation(ValidationMode.ON_RETURN_ASYNC, 0L), connFactory);
+		Connection pooledConn1 = connMgr.getConnection();
+		CountDownLatch validationStarted = new CountDownLatch(1);
+		CountDownLatch shutDownDone = new CountDownLatch(1);
+		when(conn1.isValid(anyInt())).thenAnswer(invocation -> {
+			validationStarted.countDown();
+			shutDownDone.await();
+			return true;
+		});
+		close(pooledConn1);
+		validationStarted.await();
+
+		connMgr.shutDown();
+		shutDownDone.countDown();
+
+		verify(conn1, timeout(1000)).close();
+	}
+
+	@Test
+	public void should_validate_with_test_query() throws Exception {
+		Statement statement = mock(Statement.class);
+		when(conn1.createStatement()).thenReturn(statement);
+		ConnectionPoolConfig config = new ConnectionPoolConfig(MAX_POOL_SIZE);
+		config.setValidator(ConnectionValidator.testQuery("SELECT 1"));
+		config.setValidationTimeoutMillis(1500L);
+		connMgr = new ConnectionPool(config, connFactory);
+
+		close(connMgr.getConnection());
+
+		verify(statement).setQueryTimeout(2);
+		verify(statement).execute("SELECT 1");
+		verify(statement).close();
+		verify(conn1, never()).isValid(anyInt());
+	}
+
+	@Test(timeout = 5000L)
+	public void should_abort_connection_not_answering_validation_in_time() throws Exception {
+		CountDownLatch abortLatch = new CountDownLatch(1);
+		when(conn1.isValid(anyInt())).thenAnswer(invocation -> {
+			abortLatch.await();
+			throw new SQLException("Connection aborted");
+		});
+		doAnswer(invocation -> {
+			abortLatch.countDown();
+			return null;
+		}).when(conn1).abort(any(Executor.class));
+		ConnectionPoolConfig config = new ConnectionPoolConfig(MAX_POOL_SIZE);
+		config.setValidationTimeoutMillis(50L);
+		connMgr = new ConnectionPool(config, connFactory);
+
+		close(connMgr.getConnection());
+
+		verify(conn1).abort(any(Executor.class));
+		verify(conn1).close();
+		assertThat(connMgr.getStats().getValidationAborts(), is(1L));
+		assertThat(unwrapDelegateIn(connMgr.getConnection()), is(conn2));
+	}
+
+	@Test
+	public void should_not_abort_connection_validated_in_time() throws Exception {
+		ConnectionPoolConfig config = new ConnectionPoolConfig(MAX_POOL_SIZE);
+		config.setValidationTimeoutMillis(50L);
+		connMgr = new ConnectionPool(config, connFactory);
+
+		close(connMgr.getConnection());
+		Thread.sleep(100);
+
+		verify(conn1, never()).abort(any(Executor.class));
+		assertThat(unwrapDelegateIn(connMgr.getConnection()), is(conn1));
+	}
+
+	@Test
+	public void should_close_statements_left_open_on_return() throws Exception {
+		Statement statement = mock(Statement.class);
+		when(conn1.createStatement()).thenReturn(statement);
+		Connection pooledConn = connMgr.getConnection();
+		pooledConn.createStatement();
+		pooledConn.createStatement().close();
+
+		close(pooledConn);
+
+		verify(statement, times(2)).close();
+		assertThat(connMgr.getStats().getUnclosedStatements(), is(1L));
+	}
+
+	@Test
+	public void should_return_cached_statement_left_open_to_cache() throws Exception {
+		PreparedStatement statement = mock(PreparedStatement.class);
+		when(conn1.prepareStatement("select 1")).thenReturn(statement);
+		ConnectionPoolConfig config = new ConnectionPoolConfig(MAX_POOL_SIZE);
+		config.setStatementCacheSize(1);
+		connMgr = new ConnectionPool(config, connFactory);
+		Connection pooledConn = connMgr.getConnection();
+		pooledConn.prepareStatement("select 1");
+
+		close(pooledConn);
+		connMgr.getConnection().prepareStatement("select 1");
+
+		verify(statement, never()).close();
+		verify(conn1, times(1)).prepareStatement("select 1");
+		assertThat(connMgr.getStats().getUnclosedStatements(), is(1L));
+	}
+
+	@Test
+	public void should_not_cache_statements_prepared_in_other_schema() throws Exception {
+		when(conn1.getSchema()).thenReturn("main");
+		when(conn1.prepareStatement("select 1")).thenReturn(mock(PreparedStatement.class));
+		ConnectionPoolConfig config = new ConnectionPoolConfig(MAX_POOL_SIZE);
+		config.setStatementCacheSize(1);
+		connMgr = new ConnectionPool(config, connFactory);
+		Connection pooledConn = connMgr.getConnection();
+		pooledConn.prepareStatement("select 1").close();
+
+		pooledConn.setSchema("other");
+		pooledConn.prepareStatement("select 1").close();
+		pooledConn.prepareStatement("select 1").close();
+		pooledConn.setSchema("main");
+		pooledConn.prepareStatement("select 1").close();
+
+		verify(conn1, times(3)).prepareStatement("select 1");
+		assertThat(connMgr.getStats().getStatementCache().getHits(), is(1L));
+	}
+
+	@Test
+	public void should_hand_out_new_wrapper_on_every_borrow() throws Exception {
+		Connection pooledConn1 = connMgr.getConnection();
+		close(pooledConn1);
+		Connection pooledConn2 = connMgr.getConnection();
+
+		assertThat(pooledConn2 == pooledConn1, is(false));
+		expectedException.expect(SQLException.class);
+		pooledConn1.commit();
+	}
+
+	@Test
+	public void should_reject_stale_wrapper_once_connection_borrowed_again() throws Exception {
+		Connection staleConn = connMgr.getConnection();
+		close(staleConn);
+		Connection pooledConn = connMgr.getConnection();
+
+		close(staleConn);
+		try {
+			staleConn.createStatement();
+			fail("Stale wrapper should have been rejected");
+		} catch (SQLException expected) {
+		}
+
+		assertThat(unwrapDelegateIn(pooledConn), is(conn1));
+		assertThat(connMgr.getStats().getActiveConnections(), is(1));
+		assertThat(unwrapDelegateIn(connMgr.getConnection()), is(conn2));
+		verify(conn1, never()).createStatement();
+	}
+
+	@Test
+	public void should_return_connection_once_when_closed_twice() throws Exception {
+		Connection pooledConn = connMgr.getConnection();
+		close(pooledConn);
+		close(pooledConn);
+
+		Connection actualConn1 = connMgr.getConnection();
+		Connection actualConn2 = connMgr.getConnection();
+
+		assertThat(unwrapDelegateIn(actualConn1), is(conn1));
+		assertThat(unwrapDelegateIn(actualConn2), is(conn2));
+	}
+
+	private static ConnectionPoolConfig configWithValidation(ValidationMode mode, long intervalMillis) {
+		ConnectionPoolConfig config = new ConnectionPoolConfig(MAX_POOL_SIZE);
+		config.setValidationMode(mode);
+		config.setValidationIntervalMillis(intervalMillis);
+		return config;
+	}
+
+	@Test
+	public void should_retire_idle_connections_down_to_min_idle() throws Exception {
+		ConnectionPoolConfig config = configWithMinIdle(1);
+		config.setIdleTimeoutMillis(20L);
+		config.setHousekeepingPeriodMillis(10L);
+		connMgr = new ConnectionPool(config, connFactory);
+		Connection pooledConn1 = connMgr.getConnection();
+		Connection pooledConn2 = connMgr.getConnection();
+		close(pooledConn1);
+		close(pooledConn2);
+
+		verify(conn1, timeout(1000).times(1)).close();
+		Thread.sleep(50);
+		verify(conn2, never()).close();
+	}
+
+	@Test
+	public void should_retire_expired_connection_on_return() throws Exception {
+		ConnectionPoolConfig config = new ConnectionPoolConfig(MAX_POOL_SIZE);
+		config.setMaxLifetimeMillis(20L);
+		connMgr = new ConnectionPool(config, connFactory);
+		Connection pooledConn1 = connMgr.getConnection();
+		Thread.sleep(30);
+
+		close(pooledConn1);
+
+		verify(conn1, times(1)).close();
+		assertThat(unwrapDelegateIn(connMgr.getConnection()), is(conn2));
+	}
+
+	@Test
+	public void should_never_retire_borrowed_connection() throws Exception {
+		ConnectionPoolConfig config = new ConnectionPoolConfig(MAX_POOL_SIZE);
+		config.setMaxLifetimeMillis(10L);
+		config.setIdleTimeoutMillis(10L);
+		config.setHousekeepingPeriodMillis(5L);
+		connMgr = new ConnectionPool(config, connFactory);
+		Connection pooledConn1 = connMgr.getConnection();
+
+		Thread.sleep(50);
+
+		verify(conn1, never()).close();
+		close(pooledConn1);
+		verify(conn1, times(1)).close();
+	}
+
+	@Test
+	public void should_close_free_connections_on_shut_down() throws Exception {
+		Connection pooledConn1 = connMgr.getConnection();
+		Connection pooledConn2 = connMgr.getConnection();
+		close(pooledConn1);
+
+		connMgr.shutDown();
+		verify(conn1, times(1)).close();
+		verify(conn2, never()).close();
+
+		close(pooledConn2);
+		verify(conn2, times(1)).close();
+		
+		expectedException.expect(SQLException.class);
+		connMgr.getConnection();
+	}
+
+	@Test
+	public void should_close_connection_created_after_shut_down() throws Exception {
+		CountDownLatch creationStarted = new CountDownLatch(1);
+		CountDownLatch shutDownDone = new CountDownLatch(1);
+		when(connFactory.createConnection()).thenAnswer(invocation -> {
+			creationStarted.countDown();
+			shutDownDone.await();
+			return conn1;
+		});
+		connMgr.tryGetConnection();
+		creationStarted.await();
+
+		connMgr.shutDown();
+		shutDownDone.countDown();
+
+		verify(conn1, timeout(1000)).close();
+		assertThat(connMgr.getStats().getIdleConnections(), is(0));
+	}
+
 	@Test
 	public void should_replace_pooled_connection_if_closed_by_higher_force() throws Exception {
 		Connection pooledConn1 = connMgr.getConnection();
@@ -131,6 +610,452 @@ public class ConnectionPoolTest {
 		assertThat(unwrapDelegateIn(pooledConn2), is(conn2));
 	}
 	
+	@Test
+	public void should_report_active_and_idle_connections() throws Exception {
+		Connection pooledConn1 = connMgr.getConnection();
+		close(connMgr.getConnection());
+
+		PoolStats stats = connMgr.getStats();
+
+		assertThat(stats.getActiveConnections(), is(1));
+		assertThat(stats.getIdleConnections(), is(1));
+		assertThat(stats.getBorrows(), is(2L));
+		assertThat(stats.getBorrowWait().getCount(), is(2L));
+		assertThat(stats.getUsage().getCount(), is(1L));
+		assertThat(stats.getCreation().getCount(), is(2L));
+		close(pooledConn1);
+	}
+
+	@Test
+	public void should_count_timeouts_and_evictions() throws Exception {
+		connMgr = new ConnectionPool(1, connFactory);
+		Connection pooledConn1 = connMgr.getConnection();
+		try {
+			connMgr.getConnection(10, TimeUnit.MILLISECONDS);
+		} catch (ConnectionTimeoutException expected) {
+		}
+		makeInvalid(conn1);
+		close(pooledConn1);
+
+		PoolStats stats = connMgr.getStats();
+
+		assertThat(stats.getTimeouts(), is(1L));
+		assertThat(stats.getValidationFailures(), is(1L));
+		assertThat(stats.getEvictions(), is(1L));
+		assertThat(stats.getValidation().getCount(), is(1L));
+	}
+
+	@Test
+	public void should_register_mbean_until_shut_down() throws Exception {
+		ConnectionPoolConfig config = new ConnectionPoolConfig(MAX_POOL_SIZE);
+		config.setPoolName("test pool");
+		connMgr = new ConnectionPool(config, connFactory);
+		ObjectName name = new ObjectName("opr.example.connection:type=ConnectionPool,name=\"test pool\"");
+		close(connMgr.getConnection());
+
+		assertThat(ManagementFactory.getPlatformMBeanServer().getAttribute(name, "IdleConnections"), is((Object) 1));
+
+		connMgr.shutDown();
+		assertThat(ManagementFactory.getPlatformMBeanServer().isRegistered(name), is(false));
+	}
+
+	@Test
+	public void should_reclaim_connection_lost_without_being_closed() throws Exception {
+		ConnectionPoolConfig config = new ConnectionPoolConfig(1);
+		config.setReclaimLeakedConnections(true);
+		config.setHousekeepingPeriodMillis(10);
+		connMgr = new ConnectionPool(config, connFactory);
+		connMgr.getConnection();
+
+		Connection pooledConn2 = null;
+		for (int attempt = 0; attempt < 500 && pooledConn2 == null; attempt++) {
+			System.gc();
+			pooledConn2 = connMgr.tryGetConnection();
+			sleepQuietly(10);
+		}
+
+		verify(conn1).close();
+		assertThat(unwrapDelegateIn(pooledConn2), is(conn2));
+	}
+
+	@Test
+	public void should_reclaim_connection_lost_with_open_statement() throws Exception {
+		Statement statement = mock(Statement.class);
+		when(conn1.createStatement()).thenReturn(statement);
+		ConnectionPoolConfig config = new ConnectionPoolConfig(1);
+		config.setReclaimLeakedConnections(true);
+		config.setHousekeepingPeriodMillis(10);
+		connMgr = new ConnectionPool(config, connFactory);
+		borrowAndLoseWithOpenStatement();
+
+		Connection pooledConn2 = null;
+		for (int attempt = 0; attempt < 500 && pooledConn2 == null; attempt++) {
+			System.gc();
+			pooledConn2 = connMgr.tryGetConnection();
+			sleepQuietly(10);
+		}
+
+		verify(conn1).close();
+		assertThat(unwrapDelegateIn(pooledConn2), is(conn2));
+	}
+
+	private void borrowAndLoseWithOpenStatement() throws Exception {
+		connMgr.getConnection().createStatement();
+	}
+
+	@Test
+	public void should_keep_connection_reachable_through_its_open_statement() throws Exception {
+		Statement statement = mock(Statement.class);
+		when(conn1.createStatement()).thenReturn(statement);
+		ConnectionPoolConfig config = new ConnectionPoolConfig(1);
+		config.setReclaimLeakedConnections(true);
+		config.setHousekeepingPeriodMillis(10);
+		connMgr = new ConnectionPool(config, connFactory);
+		Statement pooledStatement = borrowAndKeepOnlyStatement();
+
+		for (int attempt = 0; attempt < 20; attempt++) {
+			System.gc();
+			sleepQuietly(10);
+		}
+		pooledStatement.getConnection().close();
+
+		verify(conn1, never()).close();
+		assertThat(unwrapDelegateIn(connMgr.tryGetConnection()), is(conn1));
+	}
+
+	private Statement borrowAndKeepOnlyStatement() throws Exception {
+		return connMgr.getConnection().createStatement();
+	}
+
+	@Test
+	public void should_reset_session_state_before_next_borrower() throws Exception {
+		when(conn1.getAutoCommit()).thenReturn(true);
+		Connection pooledConn1 = connMgr.getConnection();
+		pooledConn1.setAutoCommit(false);
+		close(pooledConn1);
+
+		connMgr.getConnection().setAutoCommit(true);
+
+		verify(conn1).rollback();
+		verify(conn1, times(1)).setAutoCommit(false);
+		verify(conn1, times(1)).setAutoCommit(true);
+	}
+
+	@Test
+	public void should_drain_connections_of_given_origin() throws Exception {
+		when(failoverFactory.createTaggedConnection()).thenReturn(
+				new TaggedConnection(conn1, slaveFactory),
+				new TaggedConnection(conn2, masterFactory));
+		ConnectionPoolConfig config = new ConnectionPoolConfig(1);
+		config.setDrainRatePerSecond(100);
+		connMgr = new ConnectionPool(config, failoverFactory);
+		close(connMgr.getConnection());
+
+		connMgr.drainConnectionsFrom(slaveFactory);
+
+		verify(conn1, timeout(1000)).close();
+		assertThat(unwrapDelegateIn(connMgr.getConnection()), is(conn2));
+	}
+
+	@Test
+	public void should_drain_borrowed_connection_only_after_return() throws Exception {
+		when(failoverFactory.createTaggedConnection()).thenReturn(
+				new TaggedConnection(conn1, slaveFactory),
+				new TaggedConnection(conn2, masterFactory));
+		ConnectionPoolConfig config = new ConnectionPoolConfig(1);
+		config.setDrainRatePerSecond(100);
+		connMgr = new ConnectionPool(config, failoverFactory);
+		Connection pooledConn1 = connMgr.getConnection();
+
+		connMgr.drainConnectionsFrom(slaveFactory);
+		sleepQuietly(50);
+		verify(conn1, never()).close();
+		close(pooledConn1);
+
+		verify(conn1).close();
+		verify(conn1, never()).isValid(anyInt());
+		assertThat(connMgr.getStats().getIdleConnections(), is(0));
+	}
+
+	@Test
+	public void should_evict_all_connections_of_failed_origin_at_once() throws Exception {
+		when(failoverFactory.createTaggedConnection()).thenReturn(
+				new TaggedConnection(conn1, masterFactory),
+				new TaggedConnection(conn2, masterFactory),
+				new TaggedConnection(conn3, slaveFactory));
+		connMgr = new ConnectionPool(MAX_POOL_SIZE, failoverFactory);
+		Connection pooledConn1 = connMgr.getConnection();
+		close(connMgr.getConnection());
+
+		connMgr.evictConnectionsFrom(masterFactory);
+
+		verify(conn2).abort(any(Executor.class));
+		verify(conn2, never()).close();
+		verify(conn1, never()).close();
+		close(pooledConn1);
+		verify(conn1).close();
+		verify(conn1, never()).isValid(anyInt());
+		assertThat(connMgr.getStats().getIdleConnections(), is(0));
+	}
+
+	@Test
+	public void should_not_lend_evicted_connection() throws Exception {
+		when(failoverFactory.createTaggedConnection()).thenReturn(
+				new TaggedConnection(conn1, masterFactory),
+				new TaggedConnection(conn2, slaveFactory));
+		connMgr = new ConnectionPool(MAX_POOL_SIZE, failoverFactory);
+		Connection pooledConn1 = connMgr.getConnection();
+		connMgr.evictConnectionsFrom(masterFactory);
+		close(pooledConn1);
+
+		assertThat(unwrapDelegateIn(connMgr.getConnection()), is(conn2));
+	}
+
+
+	@Test
+	public void should_complete_async_borrow_with_created_connection() throws Exception {
+		CompletableFuture<Connection> borrow = connMgr.getConnectionAsync().toCompletableFuture();
+
+		assertThat(unwrapDelegateIn(borrow.get(5, TimeUnit.SECONDS)), is(conn1));
+	}
+
+	@Test
+	public void should_complete_async_borrow_once_connection_returned() throws Exception {
+		Connection pooledConn1 = connMgr.getConnection();
+		connMgr.getConnection();
+		connMgr.getConnection();
+
+		CompletableFuture<Connection> borrow = connMgr.getConnectionAsync().toCompletableFuture();
+		assertThat(borrow.isDone(), is(false));
+		close(pooledConn1);
+
+		assertThat(borrow.isDone(), is(true));
+		assertThat(unwrapDelegateIn(borrow.get()), is(conn1));
+	}
+
+	@Test
+	public void should_fail_async_borrow_on_timeout() throws Exception {
+		for (int i = 0; i < MAX_POOL_SIZE; i++) {
+			connMgr.getConnection();
+		}
+
+		CompletableFuture<Connection> borrow =
+				connMgr.getConnectionAsync(50, TimeUnit.MILLISECONDS).toCompletableFuture();
+
+		expectedException.expectCause(is(instanceOf(ConnectionTimeoutException.class)));
+		borrow.get(5, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void should_remove_cancelled_async_borrower() throws Exception {
+		Connection pooledConn1 = connMgr.getConnection();
+		connMgr.getConnection();
+		connMgr.getConnection();
+		CompletableFuture<Connection> borrow = connMgr.getConnectionAsync().toCompletableFuture();
+
+		borrow.cancel(false);
+		assertThat(connMgr.getWaitingThreads(), is(0));
+		close(pooledConn1);
+
+		assertThat(unwrapDelegateIn(connMgr.tryGetConnection()), is(conn1));
+	}
+
+	@Test
+	public void should_propagate_connection_creation_failure_to_async_and_blocked_borrowers() throws Exception {
+		SQLException creationFailure = new SQLException("DB down");
+		when(connFactory.createConnection()).thenAnswer(invocation -> {
+			Thread.sleep(50);
+			throw creationFailure;
+		});
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		Future<Connection> blockedBorrow = executor.submit(() -> connMgr.getConnection());
+		CompletableFuture<Connection> asyncBorrow = connMgr.getConnectionAsync().toCompletableFuture();
+
+		try {
+			asyncBorrow.get(5, TimeUnit.SECONDS);
+			fail("Async borrow should have failed");
+		} catch (ExecutionException e) {
+			assertThat(e.getCause(), is((Throwable) creationFailure));
+		}
+		try {
+			blockedBorrow.get(5, TimeUnit.SECONDS);
+			fail("Blocked borrow should have failed");
+		} catch (ExecutionException e) {
+			assertThat(e.getCause(), is((Throwable) creationFailure));
+		}
+		executor.shutdown();
+	}
+
+	@Test
+	public void should_fail_async_borrow_on_shut_down() throws Exception {
+		for (int i = 0; i < MAX_POOL_SIZE; i++) {
+			connMgr.getConnection();
+		}
+		CompletableFuture<Connection> borrow = connMgr.getConnectionAsync().toCompletableFuture();
+
+		connMgr.shutDown();
+
+		expectedException.expectCause(is(instanceOf(SQLException.class)));
+		borrow.get();
+	}
+
+	@Test
+	public void should_close_free_connections_above_lowered_max_pool_size() throws Exception {
+		Connection pooledConn1 = connMgr.getConnection();
+		Connection pooledConn2 = connMgr.getConnection();
+		close(pooledConn1);
+		close(pooledConn2);
+
+		connMgr.setMaxPoolSize(1);
+
+		assertThat(connMgr.getIdleConnections(), is(1));
+		assertThat(connMgr.getStats().getMaxPoolSize(), is(1));
+		assertThat(connMgr.getStats().getPoolSizeLimit(), is(1));
+	}
+
+	@Test
+	public void should_resize_connection_filler_with_max_pool_size() throws Exception {
+		connMgr = new ConnectionPool(1, connFactory);
+
+		connMgr.setMaxPoolSize(MAX_POOL_SIZE);
+		assertThat(connMgr.getConnectionFillerThreadCount(), is(MAX_POOL_SIZE));
+		connMgr.setMaxPoolSize(1);
+		assertThat(connMgr.getConnectionFillerThreadCount(), is(1));
+	}
+
+	@Test
+	public void should_let_workload_waiter_in_once_max_pool_size_raised() throws Exception {
+		ConnectionPoolConfig config = new ConnectionPoolConfig(1);
+		config.addWorkloadClass(new WorkloadClass("api", 0, MAX_POOL_SIZE, 10));
+		connMgr = new ConnectionPool(config, connFactory);
+		connMgr.getConnection("api");
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		Future<Connection> waitingBorrow = executor.submit(() -> connMgr.getConnection("api"));
+		while (connMgr.getWorkloadStats("api").getWaitingBorrowers() == 0) {
+			Thread.sleep(1);
+		}
+
+		connMgr.setMaxPoolSize(2);
+
+		waitingBorrow.get(5, TimeUnit.SECONDS);
+		assertThat(connMgr.getWorkloadStats("api").getConnectionsInUse(), is(2));
+		executor.shutdown();
+	}
+
+	@Test
+	public void should_close_returned_connection_above_lowered_max_pool_size() throws Exception {
+		Connection pooledConn1 = connMgr.getConnection();
+		connMgr.getConnection();
+
+		connMgr.setMaxPoolSize(1);
+		close(pooledConn1);
+
+		verify(conn1).close();
+		assertThat(connMgr.tryGetConnection(), is(nullValue()));
+	}
+
+	@Test
+	public void should_create_connection_for_waiting_borrower_once_max_pool_size_raised() throws Exception {
+		for (int i = 0; i < MAX_POOL_SIZE; i++) {
+			connMgr.getConnection();
+		}
+		new Thread(() -> {
+			sleepQuietly(20);
+			connMgr.setMaxPoolSize(MAX_POOL_SIZE + 1);
+		}).start();
+
+		Connection conn = connMgr.getConnection(5, TimeUnit.SECONDS);
+
+		verify(connFactory, times(MAX_POOL_SIZE + 1)).createConnection();
+		assertThat(unwrapDelegateIn(conn), is(conn3));
+	}
+
+	@Test
+	public void should_grow_adaptive_limit_only_up_to_max_pool_size() throws Exception {
+		ConnectionPoolConfig config = new ConnectionPoolConfig(MAX_POOL_SIZE);
+		config.setAdaptiveSizing(true);
+		config.setAdaptiveSizingPeriodMillis(60_000L);
+		connMgr = new ConnectionPool(config, connFactory);
+		connMgr.setMaxPoolSize(2);
+		connMgr.getConnection();
+		connMgr.getConnection();
+		connMgr.getConnectionAsync();
+
+		connMgr.adaptPoolSizeLimit();
+
+		assertThat(connMgr.getPoolSizeLimit(), is(2));
+		connMgr.setMaxPoolSize(MAX_POOL_SIZE);
+		connMgr.adaptPoolSizeLimit();
+		assertThat(connMgr.getPoolSizeLimit(), is(MAX_POOL_SIZE));
+	}
+
+	@Test
+	public void should_count_workload_connection_until_closed() throws Exception {
+		ConnectionPoolConfig config = new ConnectionPoolConfig(MAX_POOL_SIZE);
+		config.addWorkloadClass(new WorkloadClass("api", 1, MAX_POOL_SIZE, 10));
+		connMgr = new ConnectionPool(config, connFactory);
+
+		Connection conn = connMgr.getConnection("api");
+		assertThat(connMgr.getWorkloadStats("api").getConnectionsInUse(), is(1));
+		close(conn);
+
+		assertThat(connMgr.getWorkloadStats("api").getConnectionsInUse(), is(0));
+		assertThat(connMgr.getIdleConnections(), is(1));
+	}
+
+	@Test
+	public void should_stop_counting_workload_connection_closed_through_its_statement() throws Exception {
+		when(conn1.createStatement()).thenReturn(mock(Statement.class));
+		ConnectionPoolConfig config = new ConnectionPoolConfig(MAX_POOL_SIZE);
+		config.addWorkloadClass(new WorkloadClass("api", 1, MAX_POOL_SIZE, 10));
+		connMgr = new ConnectionPool(config, connFactory);
+		Statement statement = connMgr.getConnection("api").createStatement();
+
+		statement.getConnection().close();
+
+		assertThat(connMgr.getWorkloadStats("api").getConnectionsInUse(), is(0));
+	}
+
+	@Test
+	public void should_stop_counting_reclaimed_workload_connection() throws Exception {
+		ConnectionPoolConfig config = new ConnectionPoolConfig(1);
+		config.addWorkloadClass(new WorkloadClass("api", 1, 1, 10));
+		config.setReclaimLeakedConnections(true);
+		config.setHousekeepingPeriodMillis(10);
+		connMgr = new ConnectionPool(config, connFactory);
+		borrowAndLose("api");
+
+		for (int attempt = 0; attempt < 500 && connMgr.getWorkloadStats("api").getConnectionsInUse() > 0; attempt++) {
+			System.gc();
+			sleepQuietly(10);
+		}
+
+		assertThat(connMgr.getWorkloadStats("api").getConnectionsInUse(), is(0));
+		verify(conn1).close();
+	}
+
+	private void borrowAndLose(String workloadName) throws Exception {
+		connMgr.getConnection(workloadName);
+	}
+
+	@Test
+	public void should_time_out_when_workload_uses_its_max_connections() throws Exception {
+		ConnectionPoolConfig config = new ConnectionPoolConfig(MAX_POOL_SIZE);
+		config.addWorkloadClass(new WorkloadClass("batch", 0, 1, 0));
+		connMgr = new ConnectionPool(config, connFactory);
+		connMgr.getConnection("batch");
+
+		expectedException.expect(ConnectionTimeoutException.class);
+
+		connMgr.getConnection("batch", 50, TimeUnit.MILLISECONDS);
+	}
+
+	private static void sleepQuietly(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException ignore) {
+		}
+	}
 
 	private static void makeInvalid(Connection conn) throws SQLException {
 		when(conn.isValid(anyInt())).thenReturn(false);
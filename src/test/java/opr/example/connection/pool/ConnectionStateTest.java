@@ -0,0 +1,107 @@
+package opr.example.connection.pool;
+
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+
+public class ConnectionStateTest {
+
+	@Mock private Connection conn;
+
+	private ConnectionState state;
+
+
+	@Before
+	public void init() throws SQLException {
+		MockitoAnnotations.initMocks(this);
+		when(conn.getAutoCommit()).thenReturn(true);
+		when(conn.getTransactionIsolation()).thenReturn(Connection.TRANSACTION_READ_COMMITTED);
+		when(conn.getSchema()).thenReturn("APP");
+		state = new ConnectionState();
+	}
+
+
+	@Test
+	public void should_skip_driver_call_when_value_is_unchanged() throws SQLException {
+		state.setAutoCommit(conn, true);
+		state.setSchema(conn, "APP");
+
+		verify(conn, never()).setAutoCommit(anyBoolean());
+		verify(conn, never()).setSchema(anyString());
+	}
+
+	@Test
+	public void should_read_driver_value_only_once() throws SQLException {
+		state.setReadOnly(conn, true);
+		state.setReadOnly(conn, false);
+		state.setReadOnly(conn, true);
+
+		verify(conn, times(1)).isReadOnly();
+	}
+
+	@Test
+	public void should_reset_only_changed_properties() throws SQLException {
+		state.setTransactionIsolation(conn, Connection.TRANSACTION_SERIALIZABLE);
+		state.setSchema(conn, "APP");
+
+		state.reset(conn);
+
+		verify(conn).setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+		verify(conn, never()).setSchema(anyString());
+		verify(conn, never()).setReadOnly(anyBoolean());
+		verify(conn, never()).setAutoCommit(anyBoolean());
+	}
+
+	@Test
+	public void should_not_reset_property_changed_back_by_borrower() throws SQLException {
+		state.setTransactionIsolation(conn, Connection.TRANSACTION_SERIALIZABLE);
+		state.setTransactionIsolation(conn, Connection.TRANSACTION_READ_COMMITTED);
+
+		state.reset(conn);
+
+		verify(conn, times(1)).setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+	}
+
+	@Test
+	public void should_roll_back_and_restore_auto_commit() throws SQLException {
+		state.setAutoCommit(conn, false);
+
+		state.reset(conn);
+
+		verify(conn).rollback();
+		verify(conn).setAutoCommit(true);
+	}
+
+	@Test
+	public void should_not_roll_back_in_auto_commit_mode() throws SQLException {
+		state.reset(conn);
+		state.reset(conn);
+
+		verify(conn, never()).rollback();
+		verify(conn, times(1)).getAutoCommit();
+	}
+
+	@Test
+	public void should_roll_back_every_return_when_auto_commit_is_off_by_default() throws SQLException {
+		when(conn.getAutoCommit()).thenReturn(false);
+
+		state.reset(conn);
+		state.reset(conn);
+
+		verify(conn, times(2)).rollback();
+		verify(conn, never()).setAutoCommit(anyBoolean());
+	}
+
+}
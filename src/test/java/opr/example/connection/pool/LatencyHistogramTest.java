@@ -0,0 +1,84 @@
+package opr.example.connection.pool;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class LatencyHistogramTest {
+
+	private LatencyHistogram histogram;
+
+
+	@Before
+	public void init() {
+		histogram = new LatencyHistogram();
+	}
+
+
+	@Test
+	public void should_report_zeros_when_empty() {
+		LatencyStats stats = histogram.snapshot();
+
+		assertThat(stats.getCount(), is(0L));
+		assertThat(stats.getMeanMicros(), is(0L));
+		assertThat(stats.getP99Micros(), is(0L));
+		assertThat(stats.getMaxMicros(), is(0L));
+	}
+
+	@Test
+	public void should_report_count_mean_and_max() {
+		histogram.record(micros(100));
+		histogram.record(micros(300));
+
+		LatencyStats stats = histogram.snapshot();
+
+		assertThat(stats.getCount(), is(2L));
+		assertThat(stats.getMeanMicros(), is(200L));
+		assertThat(stats.getMaxMicros(), is(300L));
+	}
+
+	@Test
+	public void should_round_percentiles_up_to_power_of_two() {
+		for (int i = 0; i < 99; i++) {
+			histogram.record(1000);
+		}
+		histogram.record(micros(1000));
+
+		LatencyStats stats = histogram.snapshot();
+
+		assertThat(stats.getP50Micros(), is(1L)); //1023 ns
+		assertThat(stats.getP99Micros(), is(1L));
+		assertThat(stats.getMaxMicros(), is(1000L));
+	}
+
+	@Test
+	public void should_put_outliers_above_99th_percentile() {
+		for (int i = 0; i < 90; i++) {
+			histogram.record(1000);
+		}
+		for (int i = 0; i < 10; i++) {
+			histogram.record(micros(1000));
+		}
+
+		assertThat(histogram.snapshot().getP99Micros(), is(1048L)); //2^20 - 1 ns
+	}
+
+	@Test
+	public void should_treat_negative_duration_as_zero() {
+		histogram.record(-5);
+
+		assertThat(histogram.snapshot().getCount(), is(1L));
+		assertThat(histogram.snapshot().getMaxMicros(), is(0L));
+	}
+
+
+	private static long micros(long micros) {
+		return TimeUnit.MICROSECONDS.toNanos(micros);
+	}
+
+}
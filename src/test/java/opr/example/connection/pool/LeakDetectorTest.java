@@ -0,0 +1,183 @@
+package opr.example.connection.pool;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+
+public class LeakDetectorTest {
+
+	@Rule
+	public Timeout timeout = new Timeout(10000L, TimeUnit.MILLISECONDS);
+
+	private static final Logger LOG = Logger.getLogger(LeakDetector.class.getName());
+
+	@Mock private Connection conn;
+
+	private PoolEntry entry;
+	private final List<LogRecord> logRecords = Collections.synchronizedList(new ArrayList<>());
+	private final Handler logHandler = new Handler() {
+		@Override
+		public void publish(LogRecord record) {
+			logRecords.add(record);
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	};
+
+
+	@Before
+	public void init() {
+		MockitoAnnotations.initMocks(this);
+		entry = new PoolEntry(conn);
+		LOG.addHandler(logHandler);
+	}
+
+	@After
+	public void cleanUp() {
+		LOG.removeHandler(logHandler);
+	}
+
+
+	@Test
+	public void should_report_connection_held_longer_than_threshold_with_borrow_site() {
+		LeakDetector detector = new LeakDetector(1L, false);
+		PooledConnection pooledConn = borrow(detector);
+		sleepQuietly(5);
+
+		detector.reportLeaks(Collections.singletonList(entry));
+
+		assertThat(logRecords.size(), is(1));
+		assertThat(logRecords.get(0).getLevel(), is(Level.WARNING));
+		assertThat(isBorrowedByTest(logRecords.get(0).getThrown()), is(true));
+		pooledConn.hashCode();
+	}
+
+	@Test
+	public void should_report_each_borrow_once() {
+		LeakDetector detector = new LeakDetector(1L, false);
+		PooledConnection pooledConn = borrow(detector);
+		sleepQuietly(5);
+
+		detector.reportLeaks(Collections.singletonList(entry));
+		detector.reportLeaks(Collections.singletonList(entry));
+
+		assertThat(logRecords.size(), is(1));
+		pooledConn.hashCode();
+	}
+
+	@Test
+	public void should_not_report_connection_within_threshold() {
+		LeakDetector detector = new LeakDetector(TimeUnit.MINUTES.toNanos(1), false);
+		borrow(detector);
+
+		detector.reportLeaks(Collections.singletonList(entry));
+
+		assertThat(logRecords.isEmpty(), is(true));
+	}
+
+	@Test
+	public void should_not_report_returned_connection() {
+		LeakDetector detector = new LeakDetector(1L, false);
+		borrow(detector);
+		detector.onReturn(entry);
+		sleepQuietly(5);
+
+		detector.reportLeaks(Collections.singletonList(entry));
+
+		assertThat(logRecords.isEmpty(), is(true));
+	}
+
+	@Test
+	public void should_reclaim_garbage_collected_connection() {
+		LeakDetector detector = new LeakDetector(0L, true);
+		borrow(detector);
+		List<PoolEntry> reclaimed = new ArrayList<>();
+
+		while (reclaimed.isEmpty()) {
+			System.gc();
+			sleepQuietly(10);
+			detector.reclaimCollected(reclaimed::add);
+		}
+
+		assertThat(reclaimed.get(0), is(entry));
+	}
+
+	@Test
+	public void should_not_capture_borrow_site_without_threshold() {
+		LeakDetector detector = new LeakDetector(0L, true);
+		borrow(detector);
+		List<PoolEntry> reclaimed = new ArrayList<>();
+
+		while (reclaimed.isEmpty()) {
+			System.gc();
+			sleepQuietly(10);
+			detector.reclaimCollected(reclaimed::add);
+		}
+
+		assertThat(logRecords.size(), is(1));
+		assertThat(logRecords.get(0).getThrown(), is(nullValue()));
+	}
+
+	@Test
+	public void should_not_reclaim_closed_connection() {
+		LeakDetector detector = new LeakDetector(0L, true);
+		borrow(detector);
+		detector.onReturn(entry);
+		List<PoolEntry> reclaimed = new ArrayList<>();
+
+		System.gc();
+		sleepQuietly(50);
+		detector.reclaimCollected(reclaimed::add);
+
+		assertThat(reclaimed.isEmpty(), is(true));
+	}
+
+
+	private PooledConnection borrow(LeakDetector detector) {
+		PooledConnection pooledConn = new PooledConnection(conn, closed -> {});
+		detector.onBorrow(entry, pooledConn);
+		return pooledConn;
+	}
+
+	private static boolean isBorrowedByTest(Throwable borrowSite) {
+		for (StackTraceElement frame : borrowSite.getStackTrace()) {
+			if (frame.getClassName().equals(LeakDetectorTest.class.getName()) && frame.getMethodName().equals("borrow")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static void sleepQuietly(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException ignore) {
+		}
+	}
+
+}
@@ -0,0 +1,85 @@
+package opr.example.connection.pool;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+
+public class OpenStatementsTest {
+
+	private OpenStatements openStatements;
+
+	@Mock private Statement statement1;
+	@Mock private Statement statement2;
+	@Mock private Statement statement3;
+
+
+	@Before
+	public void init() {
+		MockitoAnnotations.initMocks(this);
+		openStatements = new OpenStatements();
+	}
+
+
+	@Test
+	public void should_close_statements_left_open() throws SQLException {
+		openStatements.add(statement1);
+		openStatements.add(statement2);
+
+		assertThat(openStatements.closeAll(), is(2));
+
+		verify(statement1).close();
+		verify(statement2).close();
+		assertThat(openStatements.size(), is(0));
+	}
+
+	@Test
+	public void should_not_close_removed_statements() throws SQLException {
+		openStatements.add(statement1);
+		openStatements.add(statement2);
+		openStatements.add(statement3);
+
+		openStatements.remove(statement1);
+
+		assertThat(openStatements.closeAll(), is(2));
+		verify(statement1, never()).close();
+		verify(statement2).close();
+		verify(statement3).close();
+	}
+
+	@Test
+	public void should_close_remaining_statements_when_one_fails_to_close() throws SQLException {
+		doThrow(new SQLException("Broken")).when(statement2).close();
+		openStatements.add(statement1);
+		openStatements.add(statement2);
+
+		assertThat(openStatements.closeAll(), is(2));
+
+		verify(statement1).close();
+	}
+
+	@Test
+	public void should_track_more_statements_than_initial_capacity() throws SQLException {
+		for (int i = 0; i < 10; i++) {
+			openStatements.add(statement1);
+		}
+		openStatements.add(statement2);
+
+		openStatements.remove(statement2);
+
+		assertThat(openStatements.size(), is(10));
+		assertThat(openStatements.closeAll(), is(10));
+		verify(statement2, never()).close();
+	}
+
+}
@@ -1,14 +1,20 @@
 package opr.example.connection.pool;
 
 import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsSame.sameInstance;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
+import java.sql.CallableStatement;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Statement;
 
 import org.junit.Before;
 import org.junit.Rule;
@@ -50,6 +56,23 @@ public class PooledConnectionTest {
 		assertThat(pooledConnArg.getValue(), is(pooledConn));
 	}
 	
+	@Test
+	public void should_notify_listener_on_first_close_only() throws SQLException {
+		pooledConn.close();
+		pooledConn.close();
+
+		verify(listener, times(1)).onClose(pooledConn);
+	}
+
+	@Test
+	public void should_reject_calls_once_closed() throws SQLException {
+		pooledConn.close();
+
+		expectedException.expect(SQLException.class);
+
+		pooledConn.commit();
+	}
+
 	@Test
 	public void should_not_notify_listener_on_other_method_calls() throws SQLException {
 		pooledConn.commit();
@@ -57,4 +80,26 @@ public class PooledConnectionTest {
 		verify(listener, never()).onClose(any());
 	}
 
+	@Test
+	public void should_report_itself_as_connection_of_its_statements() throws SQLException {
+		when(delegateConn.createStatement()).thenReturn(mock(Statement.class));
+		when(delegateConn.prepareCall("{call p()}")).thenReturn(mock(CallableStatement.class));
+
+		assertThat(pooledConn.createStatement().getConnection(), is(sameInstance((Connection) pooledConn)));
+		assertThat(pooledConn.prepareCall("{call p()}").getConnection(), is(sameInstance((Connection) pooledConn)));
+	}
+
+	@Test
+	public void should_stop_tracking_statement_once_closed() throws SQLException {
+		OpenStatements openStatements = new OpenStatements();
+		pooledConn = new PooledConnection(delegateConn, listener, null, null, openStatements);
+		when(delegateConn.prepareStatement("select 1")).thenReturn(mock(PreparedStatement.class));
+
+		PreparedStatement statement = pooledConn.prepareStatement("select 1");
+		assertThat(openStatements.size(), is(1));
+		statement.close();
+
+		assertThat(openStatements.size(), is(0));
+	}
+
 }
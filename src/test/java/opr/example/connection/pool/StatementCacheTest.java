@@ -0,0 +1,128 @@
+package opr.example.connection.pool;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNot.not;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+
+public class StatementCacheTest {
+
+	@Rule
+	public ExpectedException expectedException = ExpectedException.none();
+
+	private static final String SQL_1 = "select 1";
+	private static final String SQL_2 = "select 2";
+
+	@Mock private Connection physicalConnection;
+	@Mock private PreparedStatement statement1;
+	@Mock private PreparedStatement statement2;
+	@Mock private PreparedStatement statement3;
+
+	private StatementCache.Counters counters;
+	private PooledConnection pooledConnection;
+
+
+	@Before
+	public void init() throws SQLException {
+		MockitoAnnotations.initMocks(this);
+		counters = new StatementCache.Counters();
+		when(physicalConnection.prepareStatement(SQL_1)).thenReturn(statement1, statement3);
+		when(physicalConnection.prepareStatement(SQL_2)).thenReturn(statement2);
+		StatementCache statementCache = new StatementCache(1, counters);
+		pooledConnection = new PooledConnection(physicalConnection, closed -> {}, statementCache, null,
+				new OpenStatements());
+	}
+
+
+	@Test
+	public void should_reuse_statement_after_close() throws SQLException {
+		PreparedStatement first = pooledConnection.prepareStatement(SQL_1);
+		first.close();
+		PreparedStatement second = pooledConnection.prepareStatement(SQL_1);
+
+		second.executeQuery();
+
+		verify(physicalConnection, times(1)).prepareStatement(SQL_1);
+		verify(statement1).executeQuery();
+		verify(statement1, never()).close();
+		verify(statement1).clearParameters();
+	}
+
+	@Test
+	public void should_prepare_new_statement_while_cached_one_is_in_use() throws SQLException {
+		pooledConnection.prepareStatement(SQL_1);
+		PreparedStatement second = pooledConnection.prepareStatement(SQL_1);
+
+		second.close();
+
+		verify(physicalConnection, times(2)).prepareStatement(SQL_1);
+		verify(statement3).close();
+	}
+
+	@Test
+	public void should_close_least_recently_used_statement_on_eviction() throws SQLException {
+		pooledConnection.prepareStatement(SQL_1).close();
+		pooledConnection.prepareStatement(SQL_2).close();
+
+		verify(statement1).close();
+		verify(statement2, never()).close();
+	}
+
+	@Test
+	public void should_close_evicted_statement_once_released() throws SQLException {
+		PreparedStatement first = pooledConnection.prepareStatement(SQL_1);
+		pooledConnection.prepareStatement(SQL_2);
+		verify(statement1, never()).close();
+
+		first.close();
+
+		verify(statement1).close();
+	}
+
+	@Test
+	public void should_reject_use_of_closed_handle() throws SQLException {
+		PreparedStatement first = pooledConnection.prepareStatement(SQL_1);
+		first.close();
+		pooledConnection.prepareStatement(SQL_1);
+
+		expectedException.expect(SQLException.class);
+		first.executeQuery();
+	}
+
+	@Test
+	public void should_report_pooled_connection_as_owner() throws SQLException {
+		PreparedStatement statement = pooledConnection.prepareStatement(SQL_1);
+
+		assertThat(statement.getConnection(), is(sameInstance((Connection) pooledConnection)));
+		assertThat(statement.getConnection(), is(not(sameInstance(physicalConnection))));
+	}
+
+	@Test
+	public void should_count_hits_misses_and_evictions() throws SQLException {
+		pooledConnection.prepareStatement(SQL_1).close();
+		pooledConnection.prepareStatement(SQL_1).close();
+		pooledConnection.prepareStatement(SQL_2).close();
+
+		StatementCacheStats stats = counters.snapshot();
+		assertThat(stats.getHits(), is(1L));
+		assertThat(stats.getMisses(), is(2L));
+		assertThat(stats.getEvictions(), is(1L));
+	}
+
+}
@@ -0,0 +1,136 @@
+package opr.example.connection.workload;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+
+public class WorkloadGateTest {
+
+	private static final long NO_WAIT = 0L;
+	private static final long FOREVER = -1L;
+
+	@Rule
+	public Timeout timeout = new Timeout(10000L, TimeUnit.MILLISECONDS);
+
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	private WorkloadGate gate;
+
+
+	@After
+	public void shutDown() {
+		executor.shutdownNow();
+	}
+
+
+	@Test
+	public void should_let_class_in_up_to_its_max() throws Exception {
+		gate = createGate(4, new WorkloadClass("batch", 0, 2, 0));
+
+		assertThat(gate.enter("batch", NO_WAIT), is(true));
+		assertThat(gate.enter("batch", NO_WAIT), is(true));
+		assertThat(gate.enter("batch", NO_WAIT), is(false));
+	}
+
+	@Test
+	public void should_keep_min_connections_reserved_for_other_classes() throws Exception {
+		gate = createGate(3, new WorkloadClass("api", 2, 3, 10), new WorkloadClass("batch", 0, 3, 0));
+
+		assertThat(gate.enter("batch", NO_WAIT), is(true));
+		assertThat(gate.enter("batch", NO_WAIT), is(false));
+		assertThat(gate.enter("api", NO_WAIT), is(true));
+		assertThat(gate.enter("api", NO_WAIT), is(true));
+	}
+
+	@Test
+	public void should_let_higher_priority_waiter_in_first() throws Exception {
+		gate = createGate(1, new WorkloadClass("api", 0, 1, 10), new WorkloadClass("batch", 0, 1, 0));
+		gate.enter("batch", NO_WAIT);
+		Future<Boolean> batchWaiter = executor.submit(() -> gate.enter("batch", FOREVER));
+		awaitWaiters("batch", 1);
+		Future<Boolean> apiWaiter = executor.submit(() -> gate.enter("api", FOREVER));
+		awaitWaiters("api", 1);
+
+		gate.release("batch");
+
+		assertThat(apiWaiter.get(), is(true));
+		assertThat(batchWaiter.isDone(), is(false));
+		gate.release("api");
+		assertThat(batchWaiter.get(), is(true));
+	}
+
+	@Test
+	public void should_not_let_waiter_at_its_max_hold_up_others() throws Exception {
+		gate = createGate(2, new WorkloadClass("api", 0, 1, 10), new WorkloadClass("batch", 0, 2, 0));
+		gate.enter("api", NO_WAIT);
+		gate.enter("batch", NO_WAIT);
+		Future<Boolean> apiWaiter = executor.submit(() -> gate.enter("api", FOREVER));
+		awaitWaiters("api", 1);
+		Future<Boolean> batchWaiter = executor.submit(() -> gate.enter("batch", FOREVER));
+		awaitWaiters("batch", 1);
+
+		gate.release("batch");
+
+		assertThat(batchWaiter.get(), is(true));
+		assertThat(apiWaiter.isDone(), is(false));
+	}
+
+	@Test
+	public void should_let_waiter_in_once_pool_size_limit_raised() throws Exception {
+		AtomicInteger poolSizeLimit = new AtomicInteger(1);
+		gate = new WorkloadGate(Arrays.asList(new WorkloadClass("api", 0, 2, 0)), poolSizeLimit::get);
+		gate.enter("api", NO_WAIT);
+		Future<Boolean> apiWaiter = executor.submit(() -> gate.enter("api", FOREVER));
+		awaitWaiters("api", 1);
+
+		poolSizeLimit.set(2);
+		gate.onPoolSizeLimitRaised();
+
+		assertThat(apiWaiter.get(), is(true));
+	}
+
+	@Test
+	public void should_report_borrows_waits_and_timeouts() throws Exception {
+		gate = createGate(1, new WorkloadClass("api", 0, 1, 0));
+		gate.enter("api", NO_WAIT);
+
+		gate.enter("api", TimeUnit.MILLISECONDS.toNanos(10));
+
+		WorkloadStats stats = gate.getStats("api");
+		assertThat(stats.getConnectionsInUse(), is(1));
+		assertThat(stats.getWaitingBorrowers(), is(0));
+		assertThat(stats.getBorrows(), is(1L));
+		assertThat(stats.getTimeouts(), is(1L));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void should_reject_unknown_workload() throws Exception {
+		gate = createGate(1, new WorkloadClass("api", 0, 1, 0));
+
+		gate.enter("batch", NO_WAIT);
+	}
+
+
+	private static WorkloadGate createGate(int poolSizeLimit, WorkloadClass... workloadClasses) {
+		return new WorkloadGate(Arrays.asList(workloadClasses), () -> poolSizeLimit);
+	}
+
+	private void awaitWaiters(String workloadName, int waiterCount) throws InterruptedException {
+		while (gate.getStats(workloadName).getWaitingBorrowers() < waiterCount) {
+			Thread.sleep(1);
+		}
+	}
+
+}